@@ -0,0 +1,137 @@
+package com.practice.libraryinventoryconsumer.benchmark;
+
+import com.practice.libraryinventoryconsumer.codec.LibraryEventCodec;
+import com.practice.libraryinventoryconsumer.codec.LibraryEventDeserializer;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import com.practice.libraryinventoryconsumer.service.BookSearchIndex;
+import com.practice.libraryinventoryconsumer.service.LibraryEventCache;
+import com.practice.libraryinventoryconsumer.service.LibraryEventIndex;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What the consumer does for every record: decoding the value (JSON and binary) and dispatching it through
+ * LibraryService.processMessage. The repository is an in-memory stub, so that only the application code is measured,
+ * not H2 and Hibernate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class LibraryEventConsumerBenchmark {
+
+    private static final String JSON = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":346,\"name\":\"Master and Commander\",\"author\":\"Patrick O'Brian\"}}";
+
+    private LibraryEventDeserializer deserializer;
+
+    private byte[] json;
+
+    private byte[] binary;
+
+    private Headers jsonHeaders;
+
+    private Headers binaryHeaders;
+
+    private LibraryService libraryService;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        deserializer = new LibraryEventDeserializer();
+
+        json = JSON.getBytes(StandardCharsets.UTF_8);
+        jsonHeaders = new RecordHeaders();
+        binary = LibraryEventCodec.encode(deserializer.deserialize("library-events", json));
+        binaryHeaders = new RecordHeaders();
+        binaryHeaders.add(LibraryEventCodec.CONTENT_TYPE_HEADER, LibraryEventCodec.BINARY.getBytes(StandardCharsets.UTF_8));
+
+        LibraryInventoryRepository repository = inMemoryRepository();
+        LibraryEventIndex libraryEventIndex = new LibraryEventIndex();
+        inject(libraryEventIndex, "repository", repository);
+        ConsumerMetrics consumerMetrics = new ConsumerMetrics();
+        inject(consumerMetrics, "meterRegistry", new SimpleMeterRegistry());
+        init(consumerMetrics);
+        // same cache as the application, see spring.cache.caffeine.spec
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager(LibraryEventCache.CACHE_NAME);
+        cacheManager.setCacheSpecification("maximumSize=10000,expireAfterWrite=10m,recordStats");
+        LibraryEventCache libraryEventCache = new LibraryEventCache();
+        inject(libraryEventCache, "repository", repository);
+        inject(libraryEventCache, "cacheManager", cacheManager);
+        init(libraryEventCache);
+        libraryService = new LibraryService();
+        inject(libraryService, "repository", repository);
+        inject(libraryService, "libraryEventIndex", libraryEventIndex);
+        inject(libraryService, "libraryEventCache", libraryEventCache);
+        inject(libraryService, "bookSearchIndex", new BookSearchIndex()); // no snapshot
+        inject(libraryService, "consumerMetrics", consumerMetrics);
+    }
+
+    @Benchmark
+    public LibraryEvent decodeJson() {
+        return deserializer.deserialize("library-events", jsonHeaders, json);
+    }
+
+    @Benchmark
+    public LibraryEvent decodeBinary() {
+        return deserializer.deserialize("library-events", binaryHeaders, binary);
+    }
+
+    @Benchmark
+    public LibraryEvent decodeJsonAndProcess() {
+        LibraryEvent libraryEvent = deserializer.deserialize("library-events", jsonHeaders, json);
+        libraryService.processMessage(libraryEvent);
+        return libraryEvent;
+    }
+
+    @Benchmark
+    public LibraryEvent decodeBinaryAndProcess() {
+        LibraryEvent libraryEvent = deserializer.deserialize("library-events", binaryHeaders, binary);
+        libraryService.processMessage(libraryEvent);
+        return libraryEvent;
+    }
+
+    // save assigns the next id, as the sequence would
+    private static LibraryInventoryRepository inMemoryRepository() {
+        AtomicInteger sequence = new AtomicInteger();
+        return (LibraryInventoryRepository) Proxy.newProxyInstance(LibraryInventoryRepository.class.getClassLoader(),
+                new Class<?>[]{LibraryInventoryRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("save")) {
+                        LibraryEvent libraryEvent = (LibraryEvent) args[0];
+                        libraryEvent.setId(sequence.incrementAndGet() & 0xFFFFF);
+                        return libraryEvent;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static void init(Object target) throws ReflectiveOperationException {
+        Method init = target.getClass().getDeclaredMethod("init");
+        init.setAccessible(true);
+        init.invoke(target);
+    }
+
+    private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.practice.libraryinventoryconsumer.changelog;
+
+import com.practice.libraryinventoryconsumer.codec.LibraryEventSerializer;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.IntegerSerializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+
+/**
+ * Write side of the inventory changelog: every LibraryEvent persisted by LibraryService is published, in the
+ * LibraryEventCodec binary format, to the log-compacted custom.kafka.changelog.topic keyed by book id, so that the
+ * topic keeps the latest state of every book (see InventoryView).
+ * Published once the database transaction is committed, asynchronously: a failed send is logged and counted as
+ * library.inventory.changelog.failures, the view then lagging behind the database until the next change of that book.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.kafka.changelog.enabled", havingValue = "true")
+public class InventoryChangelog {
+
+    @Autowired
+    private KafkaProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${custom.kafka.changelog.topic:library-inventory-changelog}")
+    private String topic;
+
+    private DefaultKafkaProducerFactory<Integer, Object> producerFactory;
+
+    private KafkaTemplate<Integer, Object> template;
+
+    private Counter failures;
+
+    @PostConstruct
+    void init() {
+        Map<String, Object> producerProperties = properties.buildProducerProperties();
+        // a book's changes must not be reordered by retries
+        producerProperties.put(ProducerConfig.ACKS_CONFIG, "all");
+        producerProperties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        producerFactory = new DefaultKafkaProducerFactory<>(producerProperties, new IntegerSerializer(), new LibraryEventSerializer());
+        template = new KafkaTemplate<>(producerFactory);
+
+        failures = Counter.builder("library.inventory.changelog.failures")
+                .description("LibraryEvents persisted but not published to the inventory changelog")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void close() {
+        producerFactory.destroy();
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void publish(LibraryEvent libraryEvent) {
+        Integer bookId = libraryEvent.getBook().getId();
+        template.send(topic, bookId, libraryEvent).addCallback(
+                result -> log.debug("Book {} published to {}", bookId, topic),
+                ex -> {
+                    failures.increment();
+                    log.error("Book {} not published to {}: {}", bookId, topic, ex.getMessage());
+                });
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.practice.libraryinventoryconsumer.changelog;
+
+import com.practice.libraryinventoryconsumer.codec.LibraryEventDeserializer;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.model.BookView;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.IntegerDeserializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Read side of the inventory changelog (see InventoryChangelog): the latest state of every book, built in memory by
+ * reading the whole compacted topic at startup and then kept current by tailing it, so that a replica bootstraps from
+ * Kafka rather than from the database.
+ * The topic is read by assigning all its partitions, outside of any consumer group: every replica reads it all.
+ * The view is ready once the end offsets seen at startup are reached; until then readers fall back to the database.
+ * It is eventually consistent, a persisted change showing up once it went through the topic.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.kafka.changelog.enabled", havingValue = "true")
+public class InventoryView {
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+    @Autowired
+    private KafkaProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${custom.kafka.changelog.topic:library-inventory-changelog}")
+    private String topic;
+
+    private final Map<Integer, BookView> books = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    private volatile boolean running = true;
+
+    private volatile KafkaConsumer<Integer, LibraryEvent> consumer;
+
+    private Thread thread;
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("library.inventory.view.books", books, Map::size)
+                .description("Books in the in-memory inventory view")
+                .register(meterRegistry);
+        Gauge.builder("library.inventory.view.ready", () -> ready ? 1 : 0)
+                .description("1 once the inventory view caught up with the changelog")
+                .register(meterRegistry);
+    }
+
+    // once the topics are created (see AutoCreateTopicsConfig)
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        thread = new Thread(this::run, "library-inventory-view");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        KafkaConsumer<Integer, LibraryEvent> current = consumer;
+        if (current != null)
+            current.wakeup();
+        if (thread != null)
+            thread.join(5000);
+    }
+
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public Optional<BookView> findById(Integer bookId) {
+        return Optional.ofNullable(books.get(bookId));
+    }
+
+    public int size() {
+        return books.size();
+    }
+
+
+    private void run() {
+        try (KafkaConsumer<Integer, LibraryEvent> kafkaConsumer = new KafkaConsumer<>(consumerProperties(),
+                new IntegerDeserializer(), new ErrorHandlingDeserializer<>(new LibraryEventDeserializer()))) {
+            consumer = kafkaConsumer;
+            if (!running)
+                return;
+
+            List<TopicPartition> partitions = partitions(kafkaConsumer);
+            kafkaConsumer.assign(partitions);
+            kafkaConsumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> endOffsets = kafkaConsumer.endOffsets(partitions);
+            log.info("Building the inventory view from {}, end offsets: {}", topic, endOffsets);
+
+            while (running) {
+                for (ConsumerRecord<Integer, LibraryEvent> changelogRecord : kafkaConsumer.poll(POLL_TIMEOUT))
+                    apply(changelogRecord);
+
+                if (!ready && endOffsets.entrySet().stream()
+                        .allMatch(end -> kafkaConsumer.position(end.getKey()) >= end.getValue())) {
+                    ready = true;
+                    log.info("Inventory view ready, {} books", books.size());
+                }
+            }
+        } catch (WakeupException ex) {
+            // stopped
+        } catch (Exception ex) {
+            ready = false;
+            log.error("Inventory view stopped, reads fall back to the database: {}", ex.getMessage());
+        }
+    }
+
+    private List<TopicPartition> partitions(KafkaConsumer<Integer, LibraryEvent> kafkaConsumer) throws InterruptedException {
+        List<PartitionInfo> partitionInfos = kafkaConsumer.partitionsFor(topic);
+        while (running && (partitionInfos == null || partitionInfos.isEmpty())) {
+            Thread.sleep(POLL_TIMEOUT.toMillis());
+            partitionInfos = kafkaConsumer.partitionsFor(topic);
+        }
+        return partitionInfos.stream()
+                .map(info -> new TopicPartition(info.topic(), info.partition()))
+                .collect(Collectors.toList());
+    }
+
+    private void apply(ConsumerRecord<Integer, LibraryEvent> changelogRecord) {
+        LibraryEvent libraryEvent = changelogRecord.value();
+        if (libraryEvent == null) {
+            if (changelogRecord.headers().lastHeader(ErrorHandlingDeserializer.VALUE_DESERIALIZER_EXCEPTION_HEADER) != null)
+                log.error("Unreadable changelog record skipped: {}-{}@{}", changelogRecord.topic(),
+                        changelogRecord.partition(), changelogRecord.offset());
+            else
+                books.remove(changelogRecord.key()); // tombstone
+            return;
+        }
+
+        books.put(changelogRecord.key(), new BookView(libraryEvent.getBook().getId(), libraryEvent.getBook().getName(),
+                libraryEvent.getBook().getAuthor(), libraryEvent.getId()));
+    }
+
+    private Map<String, Object> consumerProperties() {
+        Map<String, Object> consumerProperties = properties.buildConsumerProperties();
+        consumerProperties.remove(ConsumerConfig.GROUP_ID_CONFIG);
+        consumerProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerProperties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        return consumerProperties;
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.practice.libraryinventoryconsumer.codec;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.service.ProcessedEvents;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a LibraryEvent in the format announced by the content-type header: the LibraryEventCodec binary format, or
+ * JSON when the header is missing (records produced before the binary format was rolled out).
+ * Wrapped in an ErrorHandlingDeserializer (see application.properties), so that a record that cannot be read reaches
+ * the listener with a null value and ends up on the dead letter topic.
+ * Instantiated by the Kafka consumer rather than by Spring, so the deserialize stage timer (see ConsumerMetrics) is
+ * registered on the global registry, which Spring Boot binds its own registry to.
+ * Given the ProcessedEvents in its configuration (see LibraryConsumerConfig), a record whose event id was already
+ * processed is not read: its value is null and it is marked for the record filter of the container to drop it.
+ */
+public class LibraryEventDeserializer implements Deserializer<LibraryEvent> {
+
+    private static final byte[] BINARY = LibraryEventCodec.BINARY.getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final Timer timer = ConsumerMetrics.stageTimer("deserialize").register(Metrics.globalRegistry);
+
+    private ProcessedEvents processedEvents;
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        processedEvents = (ProcessedEvents) configs.get(ProcessedEvents.CONFIG);
+    }
+
+    @Override
+    public LibraryEvent deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null)
+            return null;
+
+        Header eventId = processedEvents != null ? headers.lastHeader(ProcessedEvents.EVENT_ID_HEADER) : null;
+        Long eventKey = eventId != null ? ProcessedEvents.key(eventId.value()) : null;
+        if (eventKey != null && processedEvents.contains(eventKey)) {
+            headers.add(ProcessedEvents.DUPLICATE_HEADER, new byte[0]);
+            return null;
+        }
+
+        LibraryEvent libraryEvent = read(topic, headers, data);
+        if (libraryEvent != null)
+            libraryEvent.setEventKey(eventKey);
+        return libraryEvent;
+    }
+
+    private LibraryEvent read(String topic, Headers headers, byte[] data) {
+        long start = System.nanoTime();
+        try {
+            Header contentType = headers.lastHeader(LibraryEventCodec.CONTENT_TYPE_HEADER);
+            if (contentType != null && Arrays.equals(BINARY, contentType.value()))
+                return LibraryEventCodec.decode(data);
+
+            return deserialize(topic, data);
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public LibraryEvent deserialize(String topic, byte[] data) {
+        if (data == null)
+            return null;
+
+        try {
+            return objectMapper.readValue(data, LibraryEvent.class);
+        } catch (IOException ex) {
+            throw new SerializationException("Could not deserialize LibraryEvent", ex);
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.practice.libraryinventoryconsumer.codec;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Used to re-publish failed records on the retry topics and on the dead letter topic: a LibraryEvent is written in the
+ * LibraryEventCodec binary format, the raw bytes of a record that could not be deserialized are written as they are,
+ * along with the original headers.
+ */
+public class LibraryEventSerializer implements Serializer<Object> {
+
+    private static final byte[] BINARY = LibraryEventCodec.BINARY.getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, Object data) {
+        if (data instanceof LibraryEvent) {
+            headers.remove(LibraryEventCodec.CONTENT_TYPE_HEADER);
+            headers.add(LibraryEventCodec.CONTENT_TYPE_HEADER, BINARY);
+        }
+        return serialize(topic, data);
+    }
+
+    @Override
+    public byte[] serialize(String topic, Object data) {
+        if (data == null)
+            return null;
+
+        if (data instanceof LibraryEvent)
+            return LibraryEventCodec.encode((LibraryEvent) data);
+
+        if (data instanceof byte[])
+            return (byte[]) data;
+
+        throw new SerializationException("Unsupported value type: " + data.getClass().getName());
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.practice.libraryinventoryconsumer.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.KafkaAdmin;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Creates the retry tiers and the dead letter topic (see RetryTopics), and the compacted inventory changelog when it is
+ * enabled (see InventoryChangelog). The topics are not declared as NewTopic beans, as the producer's
+ * AutoCreateTopicsConfig does, because the number of retry tiers is configurable. The application does not start if
+ * they cannot be created: records would fail to be handed over to them later on.
+ */
+@Slf4j
+@Configuration
+@Profile({"local", "dev"})
+public class AutoCreateTopicsConfig {
+
+    @Autowired
+    private KafkaAdmin kafkaAdmin;
+
+    @Autowired
+    private RetryTopics retryTopics;
+
+    // 1 for a single local broker, 3 on a production cluster
+    @Value("${custom.kafka.topics.replicas:1}")
+    private int replicas;
+
+    @Value("${custom.kafka.changelog.enabled:false}")
+    private boolean changelogEnabled;
+
+    @Value("${custom.kafka.changelog.topic:library-inventory-changelog}")
+    private String changelogTopic;
+
+    @PostConstruct
+    public void createRetryTopics() {
+        List<String> names = new ArrayList<>(retryTopics.getTierTopics());
+        names.add(retryTopics.getDeadLetterTopic());
+
+        try (AdminClient adminClient = AdminClient.create(kafkaAdmin.getConfigurationProperties())) {
+            Set<String> existingTopics = adminClient.listTopics().names().get(30, TimeUnit.SECONDS);
+
+            List<NewTopic> newTopics = new ArrayList<>();
+            names.stream()
+                    .filter(name -> !existingTopics.contains(name))
+                    .forEach(name -> newTopics.add(buildTopic(name)));
+            if (changelogEnabled && !existingTopics.contains(changelogTopic))
+                newTopics.add(buildChangelogTopic());
+
+            if (!newTopics.isEmpty()) {
+                adminClient.createTopics(newTopics).all().get(30, TimeUnit.SECONDS);
+                log.info("Topics created: {}", newTopics.stream().map(NewTopic::name).collect(Collectors.toList()));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating the topics", ex);
+        } catch (ExecutionException ex) {
+            // created by another instance in the meantime
+            if (!(ex.getCause() instanceof TopicExistsException))
+                throw new IllegalStateException("Could not create the topics", ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new IllegalStateException("Could not create the topics", ex);
+        }
+    }
+
+    // same partitions as the main topic: the recoverer keeps the partition of the failed record
+    private NewTopic buildTopic(String name) {
+        return TopicBuilder.name(name)
+                .partitions(3)
+                .replicas(replicas)
+                .build();
+    }
+
+    // only the latest state of each book is kept
+    private NewTopic buildChangelogTopic() {
+        return TopicBuilder.name(changelogTopic)
+                .partitions(3)
+                .replicas(replicas)
+                .compact()
+                .build();
+    }
+
+}
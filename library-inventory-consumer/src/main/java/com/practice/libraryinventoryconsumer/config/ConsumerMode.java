@@ -0,0 +1,21 @@
+package com.practice.libraryinventoryconsumer.config;
+
+/**
+ * How the listener containers hand records over to the application, selected through the
+ * custom.kafka.consumer.mode property.
+ */
+public enum ConsumerMode {
+
+    /** One ConsumerRecord per listener invocation, retried through the RetryTemplate. */
+    RECORD,
+
+    /** The whole poll per listener invocation, persisted in a single transaction. */
+    BATCH,
+
+    /** The whole poll per listener invocation, fanned out to worker threads keyed by book id. */
+    PARALLEL,
+
+    /** The whole poll per listener invocation, coalesced per book id and persisted in bulk before committing. */
+    WRITE_BEHIND
+
+}
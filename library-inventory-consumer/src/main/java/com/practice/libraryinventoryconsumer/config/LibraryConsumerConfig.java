@@ -1,31 +1,40 @@
 package com.practice.libraryinventoryconsumer.config;
 
-import com.practice.libraryinventoryconsumer.service.LibraryService;
+import com.practice.libraryinventoryconsumer.codec.LibraryEventSerializer;
+import com.practice.libraryinventoryconsumer.consumer.LibraryParallelConsumer;
+import com.practice.libraryinventoryconsumer.consumer.OffsetStore;
+import com.practice.libraryinventoryconsumer.consumer.LibraryWriteBehindConsumer;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.service.PersistenceUnavailableException;
+import com.practice.libraryinventoryconsumer.service.ProcessedEvents;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.IntegerSerializer;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.dao.RecoverableDataAccessException;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.listener.ContainerProperties;
-import org.springframework.retry.RetryPolicy;
-import org.springframework.retry.backoff.FixedBackOffPolicy;
-import org.springframework.retry.policy.SimpleRetryPolicy;
-import org.springframework.retry.support.RetryTemplate;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.RecoveringBatchErrorHandler;
+import org.springframework.kafka.listener.SeekToCurrentErrorHandler;
 import org.springframework.util.backoff.FixedBackOff;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.logging.Logger;
+import java.util.Properties;
 
 @Configuration
 @EnableKafka
@@ -37,77 +46,198 @@ public class LibraryConsumerConfig {
     private KafkaProperties properties;
 
     @Autowired
-    private LibraryService libraryService;
+    private RetryTopics retryTopics;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    // present with custom.kafka.consumer.offsets-in-database=true
+    @Autowired(required = false)
+    private OffsetStore offsetStore;
+
+    // present with custom.kafka.consumer.dedupe.enabled=true
+    @Autowired(required = false)
+    private ProcessedEvents processedEvents;
+
+    @Value("${custom.kafka.consumer.mode:record}")
+    private ConsumerMode consumerMode;
+
+    // initial consumers of the main topic, see ConcurrencyController
+    @Value("${custom.kafka.consumer.concurrency:3}")
+    private int concurrency;
+
+    // the containers are started by the InventoryReplay once it is done
+    @Value("${custom.kafka.consumer.replay.enabled:false}")
+    private boolean replay;
+
+    // how late a retry tier partition is resumed at most once its head record is due
+    @Value("${custom.kafka.retry.poll-interval-ms:100}")
+    private long retryPollIntervalMs;
 
     @Bean
     ConcurrentKafkaListenerContainerFactory<?, ?> kafkaListenerContainerFactory(
             ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
-            ObjectProvider<ConsumerFactory<Object, Object>> kafkaConsumerFactory) {
+            ObjectProvider<ConsumerFactory<Object, Object>> kafkaConsumerFactory,
+            ObjectProvider<LibraryParallelConsumer> libraryParallelConsumer,
+            ObjectProvider<LibraryWriteBehindConsumer> libraryWriteBehindConsumer,
+            ObjectProvider<OffsetStore> offsetStore) {
         ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
-        configurer.configure(factory, kafkaConsumerFactory
-                .getIfAvailable(() -> new DefaultKafkaConsumerFactory<>(this.properties.buildConsumerProperties())));
+        configurer.configure(factory, consumerFactory(kafkaConsumerFactory));
+        // records delivered again are dropped, see ProcessedEvents
+        if (processedEvents != null)
+            factory.setRecordFilterStrategy(processedEvents::isDuplicate);
 
         //factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL); // manual acknowledge
 
-        factory.setConcurrency(3); // create 3 istances of the consumer, helpful for local tests.
+        factory.setConcurrency(concurrency);
+        factory.setAutoStartup(!replay);
+
+        // resume from the offsets stored along with the LibraryEvents, see OffsetStore
+        OffsetStore store = offsetStore.getIfAvailable();
+        if (store != null) {
+            if (consumerMode != ConsumerMode.RECORD && consumerMode != ConsumerMode.BATCH)
+                throw new IllegalStateException("custom.kafka.consumer.offsets-in-database is not supported in " + consumerMode + " mode");
+            factory.getContainerProperties().setConsumerRebalanceListener(store);
+        }
+
+        if (consumerMode == ConsumerMode.BATCH) {
+            factory.setBatchListener(true);
+            factory.setBatchErrorHandler(batchErrorHandler());
+            return factory;
+        }
+
+        if (consumerMode == ConsumerMode.PARALLEL) {
+            // offsets are committed by the LibraryParallelConsumer, only up to the lowest offset not yet processed
+            factory.setBatchListener(true);
+            factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+            // completed offsets are also committed when no records arrive: poll at least every second to notice it
+            factory.getContainerProperties().setPollTimeout(1000L);
+            factory.getContainerProperties().setIdleEventInterval(1000L);
+            factory.getContainerProperties().setConsumerRebalanceListener(libraryParallelConsumer.getObject());
+            return factory;
+        }
+
+        if (consumerMode == ConsumerMode.WRITE_BEHIND) {
+            // offsets are committed by the LibraryWriteBehindConsumer, once the buffered events are persisted
+            factory.setBatchListener(true);
+            factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+            // the buffer is also flushed when no records arrive: poll at least every second to notice it is due
+            factory.getContainerProperties().setPollTimeout(1000L);
+            factory.getContainerProperties().setIdleEventInterval(1000L);
+            factory.getContainerProperties().setConsumerRebalanceListener(libraryWriteBehindConsumer.getObject());
+            return factory;
+        }
+
+        // failed records leave the main topic right away, see RetryTopics
+        factory.setErrorHandler(errorHandler());
 
-        // custom error handling
-        factory.setErrorHandler( (thrownException, consumerRecord) -> {
-            log.error("EXCEPTION: {}; \n Record: {}", thrownException.getMessage(), consumerRecord);
-            //any custom logic, such as persist failed records or exceptions
-        });
+        return factory;
+    }
 
-        // set retries logic
-        factory.setRetryTemplate(retryTemplate());
 
-        // set recovery logic
-        factory.setRecoveryCallback( context -> {
+    /*
+     * Consumes the retry tiers: always one record at a time, whatever the consumer mode, failing again moves the
+     * record to the next tier.
+     */
+    @Bean
+    ConcurrentKafkaListenerContainerFactory<?, ?> retryKafkaListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ObjectProvider<ConsumerFactory<Object, Object>> kafkaConsumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory(kafkaConsumerFactory));
+        // records delivered again are dropped, see ProcessedEvents
+        if (processedEvents != null)
+            factory.setRecordFilterStrategy(processedEvents::isDuplicate);
+
+        // a retry tier must never skip records published before its consumer joined
+        Properties consumerProperties = new Properties();
+        consumerProperties.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        factory.getContainerProperties().setKafkaConsumerProperties(consumerProperties);
+
+        // records not yet due are sought back and their partition paused by the LibraryRetryConsumer: only the
+        // processed ones are committed, and the paused partitions are resumed on idle events once due
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.setAckDiscarded(true);
+        factory.getContainerProperties().setPollTimeout(retryPollIntervalMs);
+        factory.getContainerProperties().setIdleEventInterval(retryPollIntervalMs);
+
+        factory.setErrorHandler(errorHandler());
+        return factory;
+    }
 
-            if (context.getLastThrowable().getCause() instanceof RecoverableDataAccessException) {
-                log.info("Record is recoverable");
-                ConsumerRecord<Integer, String> consumerRecord =
-                        (ConsumerRecord<Integer, String> ) context.getAttribute("record");
 
-                libraryService.handleRecovery(consumerRecord);
-            } else {
-                log.info("Record is NOT recoverable");
-                throw new RuntimeException(context.getLastThrowable().getMessage());
+    /*
+     * Publishes a failed record to the next retry tier, or to the dead letter topic, in the binary format (see
+     * LibraryEventSerializer). The template is not a bean, so that the auto-configured one is left untouched.
+     * The hand-over is timed as library.consumer.recovery, tagged with the exception (see ConsumerMetrics).
+     * With the offsets stored in the database, a record of the main topic handed over is not replayed after a restart.
+     */
+    @Bean
+    DeadLetterPublishingRecoverer retryTopicsRecoverer() {
+        KafkaOperations<Integer, Object> retryTemplate = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(
+                properties.buildProducerProperties(), new IntegerSerializer(), new LibraryEventSerializer()));
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(retryTemplate, retryTopics::destination) {
+            @Override
+            public void accept(ConsumerRecord<?, ?> consumerRecord, Exception exception) {
+                consumerMetrics.recovery(exception).record(() -> super.accept(consumerRecord, exception));
+                if (offsetStore != null)
+                    offsetStore.skip(consumerRecord);
             }
-            return null;
-        });
-
-        return factory;
+        };
+        recoverer.setHeadersFunction(retryTopics::headers);
+        return recoverer;
     }
 
 
-    private RetryTemplate retryTemplate() {
-        FixedBackOffPolicy fixedBackOffPolicy = new FixedBackOffPolicy();
-        fixedBackOffPolicy.setBackOffPeriod(1000); //wait 1 second before each retry
+    /*
+     * With the ProcessedEvents, the deserializer is handed it through the consumer properties, to skip reading the
+     * records already processed.
+     */
+    private ConsumerFactory<Object, Object> consumerFactory(ObjectProvider<ConsumerFactory<Object, Object>> kafkaConsumerFactory) {
+        ConsumerFactory<Object, Object> consumerFactory = kafkaConsumerFactory.getIfAvailable(
+                () -> new DefaultKafkaConsumerFactory<>(this.properties.buildConsumerProperties()));
+        if (processedEvents == null)
+            return consumerFactory;
+
+        Map<String, Object> consumerProperties = new HashMap<>(consumerFactory.getConfigurationProperties());
+        consumerProperties.put(ProcessedEvents.CONFIG, processedEvents);
+        return new DefaultKafkaConsumerFactory<>(consumerProperties,
+                consumerFactory.getKeyDeserializer(), consumerFactory.getValueDeserializer());
+    }
 
-        RetryTemplate retryTemplate = new RetryTemplate();
-        retryTemplate.setRetryPolicy(simpleRetryPolicy());
-        retryTemplate.setBackOffPolicy(fixedBackOffPolicy);
 
-        return retryTemplate;
+    /*
+     * A failed record is handed over to the retry tiers, unless it was rejected by the open PersistenceCircuitBreaker:
+     * it is then sought again, to be consumed once the containers are resumed (see ConsumerBackpressure).
+     * The batch listeners need nothing similar, any exception other than a BatchListenerFailedException replaying the
+     * whole batch.
+     */
+    private SeekToCurrentErrorHandler errorHandler() {
+        // no attempt left by default would skip the back off function altogether: the default is the unlimited one
+        SeekToCurrentErrorHandler errorHandler = new SeekToCurrentErrorHandler(retryTopicsRecoverer(),
+                new FixedBackOff(0L, FixedBackOff.UNLIMITED_ATTEMPTS));
+        errorHandler.setBackOffFunction((consumerRecord, exception) -> isPersistenceUnavailable(exception)
+                ? null : new FixedBackOff(0L, 0L));
+        // once the circuit is no longer open, a record failing for another reason is handed over right away
+        errorHandler.setResetStateOnExceptionChange(true);
+        return errorHandler;
+    }
+
+    private static boolean isPersistenceUnavailable(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof PersistenceUnavailableException)
+                return true;
+        }
+        return false;
     }
 
-    private RetryPolicy simpleRetryPolicy() {
-        /*
-        Retry if ANY exception is thrown
-        SimpleRetryPolicy simpleRetryPolicy = new SimpleRetryPolicy();
-        simpleRetryPolicy.setMaxAttempts(3); // attempt to process failed record 3 times
-         */
-
-        /* Retry for only specific exceptions
-         * if boolean is false do not retry
-         * if boolean is true do retry
-         */
-        Map<Class<? extends Throwable>, Boolean>  exceptionsMap = new HashMap<>();
-        exceptionsMap.put(IllegalArgumentException.class, false);
-        exceptionsMap.put(RecoverableDataAccessException.class, true);
-
-        SimpleRetryPolicy simpleRetryPolicy = new SimpleRetryPolicy(3, exceptionsMap, true);
-        return simpleRetryPolicy;
+    /*
+     * The batch listener reports the failed record through a BatchListenerFailedException: the offsets of the records
+     * before it are committed, the failed record is sent to the first retry tier and the records after it are re-polled.
+     * Any other exception replays the whole batch.
+     */
+    private RecoveringBatchErrorHandler batchErrorHandler() {
+        return new RecoveringBatchErrorHandler(retryTopicsRecoverer(), new FixedBackOff(0L, 0L));
     }
 
 
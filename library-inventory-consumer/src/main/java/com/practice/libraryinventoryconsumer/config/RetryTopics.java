@@ -0,0 +1,127 @@
+package com.practice.libraryinventoryconsumer.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-blocking retries: a failed record is re-published on the next retry tier (topic-retry-1 .. topic-retry-n), each
+ * tier being consumed only once its delay (initial delay * multiplier ^ (tier - 1)) is elapsed, and finally on the
+ * dead letter topic (topic-dlt). Records that cannot succeed, such as invalid ones, go straight to the dead letter topic.
+ * The number of records routed to each tier is exposed as the library.consumer.retries counter.
+ */
+@Component
+@Slf4j
+public class RetryTopics {
+
+    public static final String DUE_AT_HEADER = "retry-due-at";
+
+    @Value("${custom.kafka.topic}")
+    private String topic;
+
+    @Value("${custom.kafka.retry.tiers:3}")
+    private int tiers;
+
+    @Value("${custom.kafka.retry.initial-delay-ms:1000}")
+    private long initialDelay;
+
+    @Value("${custom.kafka.retry.multiplier:2}")
+    private double multiplier;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final List<String> tierTopics = new ArrayList<>();
+
+    private final Map<String, Counter> counters = new HashMap<>();
+
+    @PostConstruct
+    void init() {
+        for (int tier = 1; tier <= tiers; tier++) {
+            tierTopics.add(topic + "-retry-" + tier);
+        }
+        tierTopics.forEach(this::registerCounter);
+        registerCounter(getDeadLetterTopic());
+    }
+
+    public List<String> getTierTopics() {
+        return tierTopics;
+    }
+
+    public String getDeadLetterTopic() {
+        return topic + "-dlt";
+    }
+
+    public long delay(String tierTopic) {
+        int tier = tierTopics.indexOf(tierTopic);
+        return (long) (initialDelay * Math.pow(multiplier, tier));
+    }
+
+    /**
+     * DeadLetterPublishingRecoverer's destination resolver: the tier following the one the record comes from.
+     */
+    public TopicPartition destination(ConsumerRecord<?, ?> consumerRecord, Exception exception) {
+        int nextTier = tierTopics.indexOf(consumerRecord.topic()) + 1;
+
+        String destination = !isRetryable(exception) || nextTier >= tierTopics.size()
+                ? getDeadLetterTopic()
+                : tierTopics.get(nextTier);
+
+        counters.get(destination).increment();
+        log.info("Record moved to {}; key: {}, partition: {}, offset: {}", destination, consumerRecord.key(),
+                consumerRecord.partition(), consumerRecord.offset());
+        return new TopicPartition(destination, consumerRecord.partition());
+    }
+
+    /**
+     * DeadLetterPublishingRecoverer's headers function: when the record is expected to be retried.
+     */
+    public Headers headers(ConsumerRecord<?, ?> consumerRecord, Exception exception) {
+        int nextTier = tierTopics.indexOf(consumerRecord.topic()) + 1;
+        Headers headers = new RecordHeaders();
+        if (isRetryable(exception) && nextTier < tierTopics.size()) {
+            long dueAt = System.currentTimeMillis() + delay(tierTopics.get(nextTier));
+            headers.add(new RecordHeader(DUE_AT_HEADER, ByteBuffer.allocate(Long.BYTES).putLong(dueAt).array()));
+        }
+        return headers;
+    }
+
+    public long dueAt(ConsumerRecord<?, ?> consumerRecord) {
+        Header header = consumerRecord.headers().lastHeader(DUE_AT_HEADER);
+        return header == null ? consumerRecord.timestamp() + delay(consumerRecord.topic()) : ByteBuffer.wrap(header.value()).getLong();
+    }
+
+    // invalid records would fail the same way on every tier
+    private boolean isRetryable(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IllegalArgumentException || cause instanceof DeserializationException)
+                return false;
+        }
+        return true;
+    }
+
+    private void registerCounter(String destination) {
+        counters.put(destination, Counter.builder("library.consumer.retries")
+                .description("Records routed to a retry tier or to the dead letter topic")
+                .tag("topic", destination)
+                .register(meterRegistry));
+    }
+
+}
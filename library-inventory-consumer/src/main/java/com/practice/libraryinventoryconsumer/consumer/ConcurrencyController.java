@@ -0,0 +1,231 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.metrics.ConsumerLagMonitor;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Scales the consumption of the main topic with its lag: every custom.kafka.consumer.autoscale.interval-ms the lag of
+ * each partition (see ConsumerLagMonitor) and the mean persist time of the interval (see ConsumerMetrics) are checked:
+ * - up when a partition lags by more than high-lag records for up-checks checks in a row, unless the persist time is
+ * over max-persist-ms (the database is the bottleneck, more threads would only add to its load);
+ * - down when no partition lags by more than low-lag records for down-checks checks in a row.
+ * Scaling up doubles the consumers of the listener containers, up to the partition count, and the workers of the
+ * parallel mode, up to max-workers; scaling down halves them, down to min-concurrency and min-workers. A container is
+ * restarted to change its consumers, so the group rebalances; the workers are resized in place (see
+ * KeyOrderedExecutor). The current sizes are exposed as library.consumer.concurrency and library.consumer.workers.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.kafka.consumer.autoscale.enabled", havingValue = "true")
+public class ConcurrencyController {
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @Autowired
+    private ConsumerLagMonitor consumerLagMonitor;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private KafkaAdmin kafkaAdmin;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // present with custom.kafka.consumer.mode=parallel
+    @Autowired(required = false)
+    private LibraryParallelConsumer libraryParallelConsumer;
+
+    @Value("${custom.kafka.topic}")
+    private String topic;
+
+    @Value("${custom.kafka.consumer.autoscale.interval-ms:10000}")
+    private long intervalMs;
+
+    @Value("${custom.kafka.consumer.autoscale.min-concurrency:1}")
+    private int minConcurrency;
+
+    @Value("${custom.kafka.consumer.autoscale.min-workers:2}")
+    private int minWorkers;
+
+    @Value("${custom.kafka.consumer.autoscale.max-workers:16}")
+    private int maxWorkers;
+
+    @Value("${custom.kafka.consumer.autoscale.high-lag:1000}")
+    private long highLag;
+
+    @Value("${custom.kafka.consumer.autoscale.low-lag:100}")
+    private long lowLag;
+
+    @Value("${custom.kafka.consumer.autoscale.up-checks:2}")
+    private int upChecks;
+
+    @Value("${custom.kafka.consumer.autoscale.down-checks:6}")
+    private int downChecks;
+
+    @Value("${custom.kafka.consumer.autoscale.max-persist-ms:500}")
+    private double maxPersistMs;
+
+    private AdminClient adminClient;
+
+    private ScheduledExecutorService scheduler;
+
+    // checks in a row calling for more or fewer threads
+    private int lagging;
+    private int idle;
+
+    private long persistCount;
+    private double persistTotalMs;
+
+
+    @PostConstruct
+    void start() {
+        Gauge.builder("library.consumer.concurrency", this, ConcurrencyController::concurrency)
+                .description("Consumers of the main topic listener containers")
+                .register(meterRegistry);
+        Gauge.builder("library.consumer.workers", this, ConcurrencyController::workers)
+                .description("Worker threads of the parallel mode")
+                .register(meterRegistry);
+
+        adminClient = AdminClient.create(kafkaAdmin.getConfigurationProperties());
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-consumer-autoscale");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::adjust, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+        adminClient.close();
+    }
+
+
+    void adjust() {
+        try {
+            Collection<Long> lags = consumerLagMonitor.getLags().entrySet().stream()
+                    .filter(entry -> entry.getKey().topic().equals(topic))
+                    .map(Map.Entry::getValue)
+                    .collect(Collectors.toList());
+
+            // paused by the ConsumerBackpressure: the lag grows, but the database is the one to wait for
+            if (containers().stream().anyMatch(ConcurrentMessageListenerContainer::isPauseRequested))
+                return;
+
+            int direction = decide(lags, persistMs());
+            if (direction > 0)
+                scale(Math.min(concurrency() * 2, partitions()), Math.min(workers() * 2, maxWorkers));
+            else if (direction < 0)
+                scale(Math.max(concurrency() / 2, minConcurrency), Math.max(workers() / 2, minWorkers));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.warn("Consumer concurrency not adjusted: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * 1 to scale up, -1 to scale down, 0 to stay as is; the streaks are reset once a change is called for, so that the
+     * next one waits for the effect of this one.
+     */
+    int decide(Collection<Long> lags, double persistMs) {
+        long maxLag = lags.stream().mapToLong(Long::longValue).max().orElse(0);
+
+        lagging = maxLag > highLag && persistMs <= maxPersistMs ? lagging + 1 : 0;
+        idle = maxLag <= lowLag ? idle + 1 : 0;
+
+        if (maxLag > highLag && persistMs > maxPersistMs)
+            log.info("Consumer lagging by {} records, but not scaled up: persist takes {} ms", maxLag, persistMs);
+
+        if (lagging >= upChecks) {
+            lagging = 0;
+            return 1;
+        }
+        if (idle >= downChecks) {
+            idle = 0;
+            return -1;
+        }
+        return 0;
+    }
+
+    void scale(int concurrency, int workers) {
+        if (libraryParallelConsumer != null && workers != libraryParallelConsumer.getWorkers())
+            libraryParallelConsumer.resize(workers);
+
+        for (ConcurrentMessageListenerContainer<?, ?> container : containers()) {
+            if (container.getConcurrency() == concurrency)
+                continue;
+
+            log.info("Listener container {}: {} -> {} consumers", container.getListenerId(), container.getConcurrency(), concurrency);
+            // a stopped container is left stopped, it takes the new concurrency when started again
+            boolean running = container.isRunning();
+            if (running)
+                container.stop();
+            container.setConcurrency(concurrency);
+            if (running)
+                container.start();
+        }
+    }
+
+    int concurrency() {
+        return containers().stream().mapToInt(ConcurrentMessageListenerContainer::getConcurrency).max().orElse(0);
+    }
+
+    int workers() {
+        return libraryParallelConsumer != null ? libraryParallelConsumer.getWorkers() : 0;
+    }
+
+    // listener containers of the main topic, the retry tiers keep their consumers
+    private List<ConcurrentMessageListenerContainer<?, ?>> containers() {
+        return endpointRegistry.getListenerContainers().stream()
+                .filter(container -> container instanceof ConcurrentMessageListenerContainer)
+                .map(container -> (ConcurrentMessageListenerContainer<?, ?>) container)
+                .filter(container -> container.getContainerProperties().getTopics() != null
+                        && Arrays.asList(container.getContainerProperties().getTopics()).contains(topic))
+                .collect(Collectors.toList());
+    }
+
+    private int partitions() throws Exception {
+        return adminClient.describeTopics(List.of(topic)).all().get(intervalMs, TimeUnit.MILLISECONDS)
+                .get(topic).partitions().size();
+    }
+
+    // mean time of the persist calls since the last check, 0 without any
+    private double persistMs() {
+        Timer persist = consumerMetrics.persist();
+        long count = persist.count();
+        double totalMs = persist.totalTime(TimeUnit.MILLISECONDS);
+        double mean = count > persistCount ? (totalMs - persistTotalMs) / (count - persistCount) : 0;
+        persistCount = count;
+        persistTotalMs = totalMs;
+        return mean;
+    }
+
+}
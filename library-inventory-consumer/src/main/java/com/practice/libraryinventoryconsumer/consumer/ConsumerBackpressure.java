@@ -0,0 +1,49 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.service.PersistenceCircuitBreaker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flow control of the consumer driven by the PersistenceCircuitBreaker: while the circuit is open, the listener
+ * containers of the main topic and of the retry tiers are paused, so that no record is polled while it could not be
+ * persisted; they are resumed when the circuit ramps up, the breaker then throttling the persistence calls.
+ * Records rejected before the pause took effect are consumed again (see LibraryConsumerConfig).
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.persistence.circuit-breaker.enabled", havingValue = "true")
+public class ConsumerBackpressure {
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @Autowired
+    private LibraryRetryConsumer libraryRetryConsumer;
+
+    @EventListener
+    public void onCircuitStateChange(PersistenceCircuitBreaker.StateChange stateChange) {
+        if (stateChange.getState() == PersistenceCircuitBreaker.State.OPEN) {
+            log.warn("Persistence unavailable, pausing the listener containers");
+            containers().forEach(MessageListenerContainer::pause);
+        } else if (stateChange.getState() == PersistenceCircuitBreaker.State.RAMP_UP) {
+            log.info("Persistence ramping up, resuming the listener containers");
+            containers().forEach(MessageListenerContainer::resume);
+        }
+    }
+
+    private List<MessageListenerContainer> containers() {
+        List<MessageListenerContainer> containers = new ArrayList<>(endpointRegistry.getListenerContainers());
+        containers.addAll(libraryRetryConsumer.getContainers());
+        return containers;
+    }
+
+}
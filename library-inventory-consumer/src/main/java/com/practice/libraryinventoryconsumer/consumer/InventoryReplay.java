@@ -0,0 +1,264 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.codec.LibraryEventDeserializer;
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.service.LibraryEventIndex;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.IntegerDeserializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Enabled with custom.kafka.consumer.replay.enabled=true: bulk backfill of the inventory from the main topic, run at
+ * startup before the listener containers are started (see LibraryConsumerConfig), or on demand through replay.
+ * The topic is read outside of the consumer group, from the given position up to the end offsets seen when the replay
+ * starts, and the events are collapsed in memory into the final state of every book: no per record validation, the
+ * UPDATEs are reconciled once against the final state instead (see reconcile). The books are then bulk loaded (see
+ * InventoryBulkLoader), the end offsets committed for the group, and the live containers started from there: no record
+ * is consumed twice or skipped on the switch.
+ * The other instances of the group must be stopped during the replay, Kafka refusing the commit of a group with members.
+ * The startup replay is one-shot: it is skipped once the group has a position on the topic, committed to Kafka or
+ * stored in the database (see OffsetStore), i.e. after a replay or any live consumption. A replay interrupted before
+ * its commit runs again at the next startup, and loads the same rows (see LibraryService.bulkLoad).
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.kafka.consumer.replay.enabled", havingValue = "true")
+public class InventoryReplay {
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+    @Autowired
+    private KafkaProperties properties;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @Autowired
+    private LibraryRetryConsumer libraryRetryConsumer;
+
+    @Autowired
+    private LibraryService libraryService;
+
+    @Autowired
+    private LibraryEventIndex libraryEventIndex;
+
+    // present with custom.kafka.consumer.offsets-in-database=true
+    @Autowired(required = false)
+    private OffsetStore offsetStore;
+
+    @Value("${custom.kafka.topic}")
+    private String topic;
+
+    // earliest, an offset or an ISO-8601 instant
+    @Value("${custom.kafka.consumer.replay.from:earliest}")
+    private String from;
+
+    @Value("${custom.kafka.consumer.replay.batch-size:5000}")
+    private int batchSize;
+
+    // once the topics are created (see AutoCreateTopicsConfig)
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (hasPosition()) {
+            log.info("Startup replay skipped: the group already has a position on {}", topic);
+            endpointRegistry.getListenerContainers().forEach(MessageListenerContainer::start);
+            return;
+        }
+
+        Thread thread = new Thread(() -> replay(from), "library-inventory-replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the live consumption, replays the topic from the given position and resumes the live consumption right
+     * after the replayed records. Returns the number of books loaded.
+     * The retry tiers are stopped as well, their containers being members of the group.
+     */
+    public synchronized int replay(String from) {
+        endpointRegistry.getListenerContainers().forEach(MessageListenerContainer::stop);
+        libraryRetryConsumer.stop();
+        try {
+            Map<Integer, Replayed> books = new LinkedHashMap<>();
+            Map<TopicPartition, Long> endOffsets = read(from, books);
+
+            List<LibraryEvent> libraryEvents = reconcile(books);
+            libraryService.bulkLoad(libraryEvents);
+            commit(endOffsets);
+            log.info("Replay from {} done: {} books loaded, live consumption resumed at {}", from, libraryEvents.size(), endOffsets);
+            return libraryEvents.size();
+        } finally {
+            libraryRetryConsumer.start();
+            endpointRegistry.getListenerContainers().forEach(MessageListenerContainer::start);
+        }
+    }
+
+    // the latest state of every book in the replayed range; returns the end offsets of the range
+    private Map<TopicPartition, Long> read(String from, Map<Integer, Replayed> books) {
+        try (KafkaConsumer<Integer, LibraryEvent> consumer = new KafkaConsumer<>(consumerProperties(),
+                new IntegerDeserializer(), new ErrorHandlingDeserializer<>(new LibraryEventDeserializer()))) {
+            List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                    .map(info -> new TopicPartition(info.topic(), info.partition()))
+                    .collect(Collectors.toList());
+            consumer.assign(partitions);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+            seek(consumer, partitions, endOffsets, from);
+            log.info("Replaying {} from {}, end offsets: {}", topic, from, endOffsets);
+
+            long records = 0;
+            while (endOffsets.entrySet().stream().anyMatch(end -> consumer.position(end.getKey()) < end.getValue())) {
+                for (ConsumerRecord<Integer, LibraryEvent> consumerRecord : consumer.poll(POLL_TIMEOUT)) {
+                    // records past the end offsets are left to the live consumption
+                    if (consumerRecord.offset() < endOffsets.get(new TopicPartition(consumerRecord.topic(), consumerRecord.partition()))) {
+                        collapse(consumerRecord, books);
+                        records++;
+                    }
+                }
+            }
+            log.info("{} records replayed into {} books", records, books.size());
+            return endOffsets;
+        }
+    }
+
+    private void seek(KafkaConsumer<?, ?> consumer, List<TopicPartition> partitions, Map<TopicPartition, Long> endOffsets, String from) {
+        if ("earliest".equalsIgnoreCase(from)) {
+            consumer.seekToBeginning(partitions);
+        } else if (from.chars().allMatch(Character::isDigit)) {
+            // out of range offsets are reset to the earliest one
+            partitions.forEach(partition -> consumer.seek(partition, Long.parseLong(from)));
+        } else {
+            long timestamp = Instant.parse(from).toEpochMilli();
+            Map<TopicPartition, OffsetAndTimestamp> offsets = consumer.offsetsForTimes(partitions.stream()
+                    .collect(Collectors.toMap(partition -> partition, partition -> timestamp)));
+            // no record since then: nothing to replay on that partition
+            partitions.forEach(partition -> consumer.seek(partition, offsets.get(partition) != null
+                    ? offsets.get(partition).offset() : endOffsets.get(partition)));
+        }
+    }
+
+    private void collapse(ConsumerRecord<Integer, LibraryEvent> consumerRecord, Map<Integer, Replayed> books) {
+        LibraryEvent libraryEvent = consumerRecord.value();
+        if (libraryEvent == null || libraryEvent.getBook() == null || libraryEvent.getBook().getId() == null) {
+            log.error("Record skipped by the replay: {}-{}@{}", consumerRecord.topic(), consumerRecord.partition(), consumerRecord.offset());
+            return;
+        }
+
+        Replayed replayed = books.computeIfAbsent(libraryEvent.getBook().getId(), bookId -> new Replayed());
+        replayed.type = libraryEvent.getType();
+        replayed.name = libraryEvent.getBook().getName();
+        replayed.author = libraryEvent.getBook().getAuthor();
+        if (libraryEvent.getType() == LibraryEvent.Type.NEW)
+            replayed.created = true;
+        else if (libraryEvent.getId() != null)
+            replayed.libraryEventId = libraryEvent.getId();
+        else
+            replayed.unidentifiedUpdate = true;
+    }
+
+    /*
+     * What the per record validation would have rejected, checked on the final state: an UPDATE without id, or
+     * updating a book neither created in the replayed range nor persisted before it.
+     */
+    private List<LibraryEvent> reconcile(Map<Integer, Replayed> books) {
+        Set<Integer> existingIds = libraryEventIndex.existing(books.values().stream()
+                .filter(replayed -> !replayed.created && replayed.libraryEventId != null)
+                .map(replayed -> replayed.libraryEventId)
+                .collect(Collectors.toSet()));
+
+        List<LibraryEvent> libraryEvents = new ArrayList<>(books.size());
+        books.forEach((bookId, replayed) -> {
+            if (!replayed.created && (replayed.unidentifiedUpdate || !existingIds.contains(replayed.libraryEventId))) {
+                log.error("Book {} rejected by the replay: updated, but never created", bookId);
+                return;
+            }
+
+            LibraryEvent libraryEvent = LibraryEvent.builder()
+                    .id(replayed.libraryEventId)
+                    .type(replayed.type)
+                    .build();
+            libraryEvent.setBook(Book.builder()
+                    .id(bookId)
+                    .name(replayed.name)
+                    .author(replayed.author)
+                    .libraryEvent(libraryEvent)
+                    .build());
+            libraryEvents.add(libraryEvent);
+        });
+        return libraryEvents;
+    }
+
+    // where the live containers of the group start from
+    private void commit(Map<TopicPartition, Long> endOffsets) {
+        try (KafkaConsumer<Integer, LibraryEvent> consumer = new KafkaConsumer<>(properties.buildConsumerProperties(),
+                new IntegerDeserializer(), new ErrorHandlingDeserializer<>(new LibraryEventDeserializer()))) {
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            endOffsets.forEach((partition, offset) -> offsets.put(partition, new OffsetAndMetadata(offset)));
+            consumer.commitSync(offsets);
+        }
+
+        if (offsetStore != null)
+            offsetStore.reset(endOffsets);
+    }
+
+    private boolean hasPosition() {
+        if (offsetStore != null && offsetStore.hasOffsets())
+            return true;
+
+        try (KafkaConsumer<Integer, LibraryEvent> consumer = new KafkaConsumer<>(properties.buildConsumerProperties(),
+                new IntegerDeserializer(), new ErrorHandlingDeserializer<>(new LibraryEventDeserializer()))) {
+            Set<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                    .map(info -> new TopicPartition(info.topic(), info.partition()))
+                    .collect(Collectors.toSet());
+            return consumer.committed(partitions).values().stream().anyMatch(Objects::nonNull);
+        }
+    }
+
+    private Map<String, Object> consumerProperties() {
+        Map<String, Object> consumerProperties = properties.buildConsumerProperties();
+        consumerProperties.remove(ConsumerConfig.GROUP_ID_CONFIG);
+        consumerProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerProperties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        consumerProperties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchSize);
+        return consumerProperties;
+    }
+
+    // the final state of a book in the replayed range
+    private static class Replayed {
+        private LibraryEvent.Type type;
+        private String name;
+        private String author;
+        // id of the latest UPDATE, if any
+        private Integer libraryEventId;
+        private boolean created;
+        private boolean unidentifiedUpdate;
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of single threaded lanes: tasks submitted with the same key always run on the same lane, hence in submission
+ * order, while tasks with different keys run in parallel.
+ * The number of lanes can be changed with resize: a key may then map to another lane, so the new lanes only start once
+ * the tasks already submitted to the old ones are done.
+ */
+public class KeyOrderedExecutor {
+
+    private final CustomizableThreadFactory threadFactory;
+
+    private ExecutorService[] lanes;
+
+    public KeyOrderedExecutor(int lanes, String threadNamePrefix) {
+        threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        this.lanes = newLanes(lanes);
+    }
+
+    public synchronized void execute(Object key, Runnable task) {
+        int lane = key == null ? 0 : Math.floorMod(key.hashCode(), lanes.length);
+        lanes[lane].execute(task);
+    }
+
+    public synchronized int size() {
+        return lanes.length;
+    }
+
+    public synchronized void resize(int size) {
+        if (size == lanes.length)
+            return;
+
+        ExecutorService[] previous = lanes;
+        lanes = newLanes(size);
+        for (ExecutorService lane : previous) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            lane.execute(() -> awaitTermination(previous));
+        }
+    }
+
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        ExecutorService[] lanes;
+        synchronized (this) {
+            lanes = this.lanes;
+        }
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            lane.awaitTermination(timeout, unit);
+        }
+    }
+
+    private ExecutorService[] newLanes(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("At least one lane is required");
+
+        ExecutorService[] lanes = new ExecutorService[size];
+        for (int i = 0; i < size; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        return lanes;
+    }
+
+    private static void awaitTermination(ExecutorService[] lanes) {
+        try {
+            for (ExecutorService lane : lanes) {
+                lane.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.metrics.EndToEndLatency;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Receives a whole poll at once; enabled with custom.kafka.consumer.mode=batch, which also switches the
+ * LibraryConsumerConfig's container factory to batch listeners.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.kafka.consumer.mode", havingValue = "batch")
+public class LibraryBatchConsumer {
+
+    @Autowired
+    private LibraryService libraryService;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private EndToEndLatency endToEndLatency;
+
+    // present with custom.kafka.consumer.offsets-in-database=true
+    @Autowired(required = false)
+    private OffsetStore offsetStore;
+
+    @KafkaListener(topics = "${custom.kafka.topic}")
+    public void listener(List<ConsumerRecord<Integer, LibraryEvent>> consumerRecords) {
+        // every record of the poll dropped as delivered again, see ProcessedEvents
+        if (consumerRecords.isEmpty())
+            return;
+
+        long polled = EndToEndLatency.nowMicros();
+        log.info("NEW BATCH | size: {}, first offset: {}", consumerRecords.size(), consumerRecords.get(0).offset());
+        consumerMetrics.received(consumerRecords.size());
+        try {
+            if (offsetStore == null)
+                libraryService.processMessages(consumerRecords);
+            else
+                offsetStore.process(consumerRecords, () -> libraryService.processMessages(consumerRecords));
+            consumerRecords.forEach(consumerRecord -> endToEndLatency.persisted(consumerRecord, polled));
+        } finally {
+            consumerMetrics.processed(consumerRecords.size());
+        }
+    }
+
+}
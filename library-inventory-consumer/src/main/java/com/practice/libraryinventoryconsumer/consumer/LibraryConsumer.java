@@ -1,25 +1,51 @@
 package com.practice.libraryinventoryconsumer.consumer;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.metrics.EndToEndLatency;
 import com.practice.libraryinventoryconsumer.service.LibraryService;
 import lombok.extern.slf4j.Slf4j;
 
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 @Component
 @Slf4j
+@ConditionalOnProperty(name = "custom.kafka.consumer.mode", havingValue = "record", matchIfMissing = true)
 public class LibraryConsumer {
 
     @Autowired
     private LibraryService libraryService;
 
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private EndToEndLatency endToEndLatency;
+
+    // present with custom.kafka.consumer.offsets-in-database=true
+    @Autowired(required = false)
+    private OffsetStore offsetStore;
+
     @KafkaListener(topics = "${custom.kafka.topic}")
-    public void listener(ConsumerRecord<Integer, String> consumerRecord) throws JsonProcessingException {
+    public void listener(ConsumerRecord<Integer, LibraryEvent> consumerRecord) {
+        long polled = EndToEndLatency.nowMicros();
         log.info("NEW MESSAGE | consumerRecord: {}", consumerRecord);
-        libraryService.processMessage(consumerRecord.value());
+        consumerMetrics.received(1);
+        try {
+            if (offsetStore == null)
+                libraryService.processMessage(consumerRecord.value());
+            else
+                offsetStore.process(List.of(consumerRecord), () -> libraryService.processMessage(consumerRecord.value()));
+            endToEndLatency.persisted(consumerRecord, polled);
+        } finally {
+            consumerMetrics.processed(1);
+        }
     }
 
 }
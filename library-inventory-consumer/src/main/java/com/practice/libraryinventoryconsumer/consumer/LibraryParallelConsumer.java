@@ -0,0 +1,220 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.metrics.EndToEndLatency;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import com.practice.libraryinventoryconsumer.service.PersistenceUnavailableException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Enabled with custom.kafka.consumer.mode=parallel: the records of each poll are handed over to a KeyOrderedExecutor
+ * keyed by book id, so that the events of the same book are still processed in order while different books are
+ * processed concurrently, regardless of the number of partitions.
+ * Offsets are committed on the consumer thread, only up to the lowest offset still in flight (see OffsetTracker);
+ * on revocation, after the records in flight for the revoked partitions completed, at most
+ * custom.kafka.consumer.parallel.revoke-timeout-ms.
+ * Once custom.kafka.consumer.parallel.max-in-flight records are dispatched and not yet completed, the assigned
+ * partitions are paused rather than the consumer thread blocked, so that it goes on polling within
+ * max.poll.interval.ms; they are resumed on an idle event once half of them completed. At most max-in-flight records
+ * and a poll are thus in flight.
+ * custom.kafka.consumer.parallel.workers is the initial number of workers, changed at runtime by the
+ * ConcurrencyController when enabled.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.kafka.consumer.mode", havingValue = "parallel")
+public class LibraryParallelConsumer implements ConsumerAwareRebalanceListener {
+
+    @Autowired
+    private LibraryService libraryService;
+
+    @Autowired
+    private DeadLetterPublishingRecoverer retryTopicsRecoverer;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private EndToEndLatency endToEndLatency;
+
+    @Value("${custom.kafka.consumer.parallel.workers:8}")
+    private int workers;
+
+    @Value("${custom.kafka.consumer.parallel.max-in-flight:1000}")
+    private int maxInFlight;
+
+    @Value("${custom.kafka.consumer.parallel.revoke-timeout-ms:10000}")
+    private long revokeTimeoutMs;
+
+    private final OffsetTracker offsetTracker = new OffsetTracker();
+
+    private KeyOrderedExecutor executor;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // paused by this consumer when too many records are in flight, not by the container (see ConsumerBackpressure)
+    private final Set<TopicPartition> pausedPartitions = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void init() {
+        executor = new KeyOrderedExecutor(workers, "library-worker-");
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        executor.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    public int getWorkers() {
+        return executor.size();
+    }
+
+    // see ConcurrencyController; events of a book go on being processed in order
+    public void resize(int workers) {
+        executor.resize(workers);
+        log.info("Parallel consumer resized to {} workers", workers);
+    }
+
+    @KafkaListener(topics = "${custom.kafka.topic}")
+    public void listener(List<ConsumerRecord<Integer, LibraryEvent>> consumerRecords, Consumer<?, ?> consumer) {
+        // every record of the poll dropped as delivered again, see ProcessedEvents
+        if (consumerRecords.isEmpty()) {
+            commit(consumer);
+            return;
+        }
+
+        long polled = EndToEndLatency.nowMicros();
+        log.info("NEW BATCH | size: {}, first offset: {}", consumerRecords.size(), consumerRecords.get(0).offset());
+
+        for (ConsumerRecord<Integer, LibraryEvent> consumerRecord : consumerRecords) {
+            LibraryEvent libraryEvent = consumerRecord.value();
+            Integer bookId = libraryEvent != null && libraryEvent.getBook() != null ? libraryEvent.getBook().getId() : null;
+            TopicPartition topicPartition = new TopicPartition(consumerRecord.topic(), consumerRecord.partition());
+
+            inFlight.incrementAndGet();
+            Runnable completion = offsetTracker.register(topicPartition, consumerRecord.offset());
+            consumerMetrics.received(1);
+            executor.execute(bookId, () -> {
+                try {
+                    process(consumerRecord, libraryEvent, polled);
+                } finally {
+                    completion.run();
+                    inFlight.decrementAndGet();
+                    consumerMetrics.processed(1);
+                }
+            });
+        }
+
+        commit(consumer);
+        if (inFlight.get() >= maxInFlight)
+            pause(consumer, consumer.assignment());
+    }
+
+    // no records to dispatch, but the workers may have completed some since the last poll; while the container is
+    // paused, its partitions are left paused
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        Consumer<?, ?> consumer = event.getConsumer();
+        commit(consumer);
+        if (!event.isPaused() && inFlight.get() <= maxInFlight / 2)
+            resume(consumer);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (inFlight.get() >= maxInFlight)
+            pause(consumer, partitions);
+    }
+
+    // the records in flight are waited for, so that the new owner neither processes them again nor concurrently;
+    // past revoke-timeout-ms, e.g. while the PersistenceCircuitBreaker is open, they may be, their completion being
+    // ignored (see OffsetTracker)
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        try {
+            if (!offsetTracker.awaitCompletion(partitions, revokeTimeoutMs))
+                log.warn("Records of the revoked partitions {} still in flight after {} ms", partitions, revokeTimeoutMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        commit(consumer);
+        offsetTracker.remove(partitions);
+        pausedPartitions.removeAll(partitions);
+    }
+
+    private void pause(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        consumer.pause(partitions);
+        pausedPartitions.addAll(partitions);
+        log.info("{} records in flight, partitions paused: {}", inFlight.get(), partitions);
+    }
+
+    private void resume(Consumer<?, ?> consumer) {
+        Set<TopicPartition> partitions = new HashSet<>(consumer.assignment());
+        partitions.retainAll(pausedPartitions);
+        if (partitions.isEmpty())
+            return;
+
+        consumer.resume(partitions);
+        pausedPartitions.removeAll(partitions);
+        log.info("{} records in flight, partitions resumed: {}", inFlight.get(), partitions);
+    }
+
+    private void commit(Consumer<?, ?> consumer) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committableOffsets(consumer.assignment());
+        if (!offsets.isEmpty()) {
+            consumer.commitSync(offsets);
+            log.debug("Committed offsets: {}", offsets);
+        }
+    }
+
+    // failed records are handed over to the retry tiers (see RetryTopics), so that a lane never blocks on them;
+    // records rejected by the open PersistenceCircuitBreaker wait for it instead, the container being paused meanwhile
+    // (see ConsumerBackpressure), as well as the partitions once max-in-flight records wait
+    private void process(ConsumerRecord<Integer, LibraryEvent> consumerRecord, LibraryEvent libraryEvent, long polled) {
+        try {
+            if (libraryEvent == null)
+                throw new IllegalArgumentException("LibraryEvent could not be deserialized");
+
+            while (true) {
+                try {
+                    libraryService.processMessage(libraryEvent);
+                    break;
+                } catch (PersistenceUnavailableException ex) {
+                    Thread.sleep(Math.max(ex.getRetryAfterMs(), 100L));
+                }
+            }
+            endToEndLatency.persisted(consumerRecord, polled);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.error("EXCEPTION: {}; \n Record: {}", ex.getMessage(), consumerRecord);
+            retryTopicsRecoverer.accept(consumerRecord, ex);
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.config.RetryTopics;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consumes the retry tiers (see RetryTopics). Each tier has its own listener container: a record is processed once its
+ * tier delay is elapsed, and since all the records of a tier share the same delay, waiting for the head of a tier
+ * never delays records that are already due, nor the main topic.
+ * A record not yet due is sought back and its partition paused until then, so that the consumer thread never sleeps
+ * and goes on polling within max.poll.interval.ms; the partitions due are resumed on the next record or idle event of
+ * the container (see custom.kafka.retry.poll-interval-ms). Records are acknowledged once processed, so that the ones
+ * sought back are never committed.
+ */
+@Component
+@Slf4j
+public class LibraryRetryConsumer implements SmartLifecycle {
+
+    @Autowired
+    private LibraryService libraryService;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private RetryTopics retryTopics;
+
+    @Autowired
+    @Qualifier("retryKafkaListenerContainerFactory")
+    private ConcurrentKafkaListenerContainerFactory<Integer, LibraryEvent> retryKafkaListenerContainerFactory;
+
+    private final List<ConcurrentMessageListenerContainer<Integer, LibraryEvent>> containers = new ArrayList<>();
+
+    private volatile boolean running;
+
+    // paused until their head record is due, by partition
+    private final Map<TopicPartition, Long> pausedUntil = new ConcurrentHashMap<>();
+
+    public void onMessage(ConsumerRecord<Integer, LibraryEvent> consumerRecord, Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+        resumeDue(consumer);
+        TopicPartition topicPartition = new TopicPartition(consumerRecord.topic(), consumerRecord.partition());
+        // sought back with an earlier record of this poll: polled again once resumed
+        if (pausedUntil.containsKey(topicPartition) && consumer.paused().contains(topicPartition))
+            return;
+
+        long dueAt = retryTopics.dueAt(consumerRecord);
+        if (dueAt > System.currentTimeMillis()) {
+            consumer.seek(topicPartition, consumerRecord.offset());
+            consumer.pause(List.of(topicPartition));
+            pausedUntil.put(topicPartition, dueAt);
+            log.debug("Retry tier partition {} paused until its record at {} is due", topicPartition, consumerRecord.offset());
+            return;
+        }
+
+        listener(consumerRecord);
+        acknowledgment.acknowledge();
+    }
+
+    public void listener(ConsumerRecord<Integer, LibraryEvent> consumerRecord) {
+        consumerMetrics.received(1);
+        try {
+            process(consumerRecord);
+        } finally {
+            consumerMetrics.processed(1);
+        }
+    }
+
+    // idle events of every container: only the partitions paused here and assigned to that consumer are resumed, and not
+    // while the container itself is paused (see ConsumerBackpressure)
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        if (!event.isPaused())
+            resumeDue(event.getConsumer());
+    }
+
+    public List<ConcurrentMessageListenerContainer<Integer, LibraryEvent>> getContainers() {
+        return containers;
+    }
+
+    private void process(ConsumerRecord<Integer, LibraryEvent> consumerRecord) {
+        log.info("RETRY MESSAGE | consumerRecord: {}", consumerRecord);
+        consumerMetrics.retry().record(() -> libraryService.processMessage(consumerRecord.value()));
+    }
+
+    // a partition no longer paused, e.g. revoked and assigned again, is forgotten: its record is checked again
+    private void resumeDue(Consumer<?, ?> consumer) {
+        if (pausedUntil.isEmpty())
+            return;
+
+        long now = System.currentTimeMillis();
+        Set<TopicPartition> paused = consumer.paused();
+        List<TopicPartition> due = new ArrayList<>();
+        for (TopicPartition topicPartition : consumer.assignment()) {
+            Long until = pausedUntil.get(topicPartition);
+            if (until == null)
+                continue;
+            if (!paused.contains(topicPartition))
+                pausedUntil.remove(topicPartition);
+            else if (until <= now)
+                due.add(topicPartition);
+        }
+
+        if (!due.isEmpty()) {
+            consumer.resume(due);
+            due.forEach(pausedUntil::remove);
+        }
+    }
+
+    @Override
+    public void start() {
+        for (String tierTopic : retryTopics.getTierTopics()) {
+            ConcurrentMessageListenerContainer<Integer, LibraryEvent> container = retryKafkaListenerContainerFactory.createContainer(tierTopic);
+            container.getContainerProperties().setMessageListener((AcknowledgingConsumerAwareMessageListener<Integer, LibraryEvent>) this::onMessage);
+            container.setBeanName(tierTopic + "-listener");
+            container.start();
+            containers.add(container);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        containers.forEach(ConcurrentMessageListenerContainer::stop);
+        containers.clear();
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // same phase as the @KafkaListener containers
+    @Override
+    public int getPhase() {
+        return AbstractMessageListenerContainer.DEFAULT_PHASE;
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.metrics.EndToEndLatency;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import com.practice.libraryinventoryconsumer.service.PersistenceUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Enabled with custom.kafka.consumer.mode=write-behind: events are validated as they arrive, but only the latest
+ * event of each book is kept (see WriteBehindBuffer), to be persisted by LibraryService.flush in one transaction once
+ * custom.kafka.consumer.write-behind.max-pending books are pending or the first pending record is
+ * custom.kafka.consumer.write-behind.max-delay-ms old. A burst of UPDATEs to the same book costs a single write.
+ * Offsets are committed on the consumer thread only once the flush containing their records succeeded, so a crash
+ * replays the records of the last buffer (at least once). Each consumer thread has its own buffer, the events of a book
+ * all coming from the same partition.
+ * If a flush fails, its events are persisted one by one, the ones still failing being handed over to the retry tiers;
+ * a flush rejected by the open PersistenceCircuitBreaker is retried as a whole later on.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.kafka.consumer.mode", havingValue = "write-behind")
+public class LibraryWriteBehindConsumer implements ConsumerAwareRebalanceListener {
+
+    @Autowired
+    private LibraryService libraryService;
+
+    @Autowired
+    private DeadLetterPublishingRecoverer retryTopicsRecoverer;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private EndToEndLatency endToEndLatency;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${custom.kafka.consumer.write-behind.max-pending:500}")
+    private int maxPending;
+
+    @Value("${custom.kafka.consumer.write-behind.max-delay-ms:1000}")
+    private long maxDelayMs;
+
+    private final ThreadLocal<WriteBehindBuffer> buffers = ThreadLocal.withInitial(WriteBehindBuffer::new);
+
+    private Counter coalesced;
+
+    @PostConstruct
+    void init() {
+        coalesced = Counter.builder("library.consumer.write-behind.coalesced")
+                .description("Events replaced by a later event of the same book before being persisted")
+                .register(meterRegistry);
+    }
+
+    @KafkaListener(topics = "${custom.kafka.topic}")
+    public void listener(List<ConsumerRecord<Integer, LibraryEvent>> consumerRecords, Consumer<?, ?> consumer) {
+        WriteBehindBuffer buffer = buffers.get();
+        // every record of the poll dropped as delivered again, see ProcessedEvents
+        if (consumerRecords.isEmpty()) {
+            if (buffer.isDue(maxPending, maxDelayMs))
+                flush(buffer, consumer);
+            return;
+        }
+
+        long polled = EndToEndLatency.nowMicros();
+        log.info("NEW BATCH | size: {}, first offset: {}", consumerRecords.size(), consumerRecords.get(0).offset());
+
+        for (ConsumerRecord<Integer, LibraryEvent> consumerRecord : consumerRecords) {
+            try {
+                if (consumerRecord.value() == null)
+                    throw new IllegalArgumentException("LibraryEvent could not be deserialized");
+
+                libraryService.validateMessage(consumerRecord.value());
+                if (buffer.add(consumerRecord, polled))
+                    consumerMetrics.received(1);
+                else
+                    coalesced.increment();
+            } catch (Exception ex) {
+                log.error("EXCEPTION: {}; \n Record: {}", ex.getMessage(), consumerRecord);
+                retryTopicsRecoverer.accept(consumerRecord, ex);
+                buffer.done(consumerRecord);
+            }
+        }
+
+        if (buffer.isDue(maxPending, maxDelayMs))
+            flush(buffer, consumer);
+    }
+
+    // no records, but the pending ones may be due
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        WriteBehindBuffer buffer = buffers.get();
+        if (buffer.isDue(maxPending, maxDelayMs))
+            flush(buffer, event.getConsumer());
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        WriteBehindBuffer buffer = buffers.get();
+        flush(buffer, consumer);
+        // not flushed, the circuit being open: the new owner replays these records
+        consumerMetrics.processed(buffer.size());
+        buffer.clear();
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // nothing can be committed anymore, the new owner replays these records
+        WriteBehindBuffer buffer = buffers.get();
+        consumerMetrics.processed(buffer.size());
+        buffer.clear();
+    }
+
+    private void flush(WriteBehindBuffer buffer, Consumer<?, ?> consumer) {
+        if (buffer.isEmpty())
+            return;
+
+        List<WriteBehindBuffer.Pending> pending = buffer.pending();
+        if (!pending.isEmpty()) {
+            try {
+                libraryService.flush(pending.stream().map(WriteBehindBuffer.Pending::getLibraryEvent).collect(Collectors.toList()));
+                pending.forEach(entry -> endToEndLatency.persisted(entry.getConsumerRecord(), entry.getPolledMicros()));
+            } catch (PersistenceUnavailableException ex) {
+                // kept for a later flush, the container being paused until the circuit ramps up
+                log.warn("Write-behind flush of {} events postponed: {}", pending.size(), ex.getMessage());
+                return;
+            } catch (Exception ex) {
+                log.error("Write-behind flush of {} events failed, persisting them one by one: {}", pending.size(), ex.getMessage());
+                pending.forEach(this::flushOne);
+            }
+        }
+
+        consumer.commitSync(buffer.offsets());
+        log.debug("Flushed {} events, committed offsets: {}", pending.size(), buffer.offsets());
+        consumerMetrics.processed(pending.size());
+        buffer.clear();
+    }
+
+    private void flushOne(WriteBehindBuffer.Pending entry) {
+        try {
+            libraryService.flush(List.of(entry.getLibraryEvent()));
+            endToEndLatency.persisted(entry.getConsumerRecord(), entry.getPolledMicros());
+        } catch (Exception ex) {
+            log.error("EXCEPTION: {}; \n Record: {}", ex.getMessage(), entry.getConsumerRecord());
+            retryTopicsRecoverer.accept(entry.getConsumerRecord(), ex);
+        }
+    }
+
+}
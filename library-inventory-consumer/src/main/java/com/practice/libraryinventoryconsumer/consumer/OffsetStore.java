@@ -0,0 +1,120 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.entity.ConsumerOffset;
+import com.practice.libraryinventoryconsumer.repository.ConsumerOffsetRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Enabled with custom.kafka.consumer.offsets-in-database=true (see the persistent profile): the offsets of the main
+ * topic are stored in the consumer_offset table, in the same transaction as the LibraryEvents of their records, and
+ * the consumer seeks to them when partitions are assigned. A record is thus either persisted along with its offset or
+ * not at all: a restart after a crash resumes right after the last persisted record, whatever Kafka's committed offsets
+ * (still committed, for the lag monitoring).
+ * Records handed over to the retry tiers store their offset once published (see LibraryConsumerConfig). The retry tiers
+ * themselves keep Kafka's at least once delivery.
+ * Supported with the record and batch consumer modes, the other ones committing offsets on their own.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.kafka.consumer.offsets-in-database", havingValue = "true")
+public class OffsetStore implements ConsumerAwareRebalanceListener {
+
+    @Autowired
+    private ConsumerOffsetRepository consumerOffsetRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${custom.kafka.topic}")
+    private String topic;
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Map<Integer, Long> stored = consumerOffsetRepository.findByTopic(topic).stream()
+                .collect(Collectors.toMap(ConsumerOffset::getPartition, ConsumerOffset::getNextOffset));
+
+        for (TopicPartition partition : partitions) {
+            Long nextOffset = stored.get(partition.partition());
+            if (partition.topic().equals(topic) && nextOffset != null) {
+                consumer.seek(partition, nextOffset);
+                log.info("Partition {} resumed at offset {} from the database", partition, nextOffset);
+            }
+        }
+    }
+
+    /**
+     * Runs the processing of the records and stores their offsets in one transaction. When the processing reports a
+     * failed record through a BatchListenerFailedException, the records before it are kept along with their offsets,
+     * and the exception is rethrown once they are committed.
+     */
+    public void process(List<? extends ConsumerRecord<?, ?>> consumerRecords, Runnable processing) {
+        BatchListenerFailedException failure = transactionTemplate.execute(status -> {
+            try {
+                processing.run();
+                store(consumerRecords);
+                return null;
+            } catch (BatchListenerFailedException ex) {
+                int failed = consumerRecords.indexOf(ex.getRecord());
+                store(consumerRecords.subList(0, Math.max(failed, 0)));
+                return ex;
+            }
+        });
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * A record that will not be persisted, e.g. handed over to the retry tiers: the next restart must not replay it.
+     */
+    public void skip(ConsumerRecord<?, ?> consumerRecord) {
+        transactionTemplate.executeWithoutResult(status -> store(List.of(consumerRecord)));
+    }
+
+    // whether a position on the topic was ever stored
+    public boolean hasOffsets() {
+        return !consumerOffsetRepository.findByTopic(topic).isEmpty();
+    }
+
+    /**
+     * Next offsets set from outside of the containers, e.g. once the topic is replayed (see InventoryReplay).
+     */
+    public void reset(Map<TopicPartition, Long> nextOffsets) {
+        transactionTemplate.executeWithoutResult(status -> consumerOffsetRepository.saveAll(nextOffsets.entrySet().stream()
+                .filter(entry -> entry.getKey().topic().equals(topic))
+                .map(entry -> new ConsumerOffset(topic, entry.getKey().partition(), entry.getValue()))
+                .collect(Collectors.toList())));
+    }
+
+    private void store(Collection<? extends ConsumerRecord<?, ?>> consumerRecords) {
+        Map<Integer, Long> nextOffsets = new HashMap<>();
+        for (ConsumerRecord<?, ?> consumerRecord : consumerRecords) {
+            if (consumerRecord.topic().equals(topic))
+                nextOffsets.merge(consumerRecord.partition(), consumerRecord.offset() + 1, Math::max);
+        }
+
+        if (nextOffsets.isEmpty())
+            return;
+
+        consumerOffsetRepository.saveAll(nextOffsets.entrySet().stream()
+                .map(entry -> new ConsumerOffset(topic, entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList()));
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the records dispatched but not yet completed, per partition, when records complete out of order.
+ * The committable offset of a partition is the lowest offset still in flight, that is the end of the contiguous
+ * run of completed records: committing it never skips a record that has not been processed yet.
+ * The completion returned by register is bound to the partition as it was assigned then: once the partition is
+ * removed, e.g. revoked, the completion of a record dispatched before is ignored, even if the partition was assigned
+ * again meanwhile and the record delivered again.
+ */
+public class OffsetTracker {
+
+    private final Map<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+
+    // returns the completion of the record, to run once it is processed
+    public Runnable register(TopicPartition topicPartition, long offset) {
+        PartitionOffsets partitionOffsets = partitions.computeIfAbsent(topicPartition, tp -> new PartitionOffsets());
+        partitionOffsets.register(offset);
+        return () -> partitionOffsets.complete(offset);
+    }
+
+    /**
+     * Waits until the records of the given partitions are completed, at most timeoutMs; returns false if some are
+     * still in flight.
+     */
+    public boolean awaitCompletion(Collection<TopicPartition> topicPartitions, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (TopicPartition topicPartition : topicPartitions) {
+            PartitionOffsets partitionOffsets = partitions.get(topicPartition);
+            if (partitionOffsets != null && !partitionOffsets.awaitEmpty(deadline))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The offsets to commit for the given partitions, limited to the partitions that moved forward since the last
+     * call; the returned offsets are considered committed.
+     */
+    public Map<TopicPartition, OffsetAndMetadata> committableOffsets(Collection<TopicPartition> topicPartitions) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition topicPartition : topicPartitions) {
+            PartitionOffsets partitionOffsets = partitions.get(topicPartition);
+            if (partitionOffsets == null)
+                continue;
+
+            long committable = partitionOffsets.advance();
+            if (committable >= 0)
+                offsets.put(topicPartition, new OffsetAndMetadata(committable));
+        }
+        return offsets;
+    }
+
+    public void remove(Collection<TopicPartition> topicPartitions) {
+        topicPartitions.forEach(partitions::remove);
+    }
+
+
+    private static class PartitionOffsets {
+
+        private final TreeSet<Long> inFlight = new TreeSet<>();
+        private long nextOffset = -1;
+        private long committedOffset = -1;
+
+        synchronized void register(long offset) {
+            inFlight.add(offset);
+            nextOffset = Math.max(nextOffset, offset + 1);
+        }
+
+        synchronized void complete(long offset) {
+            inFlight.remove(offset);
+            if (inFlight.isEmpty())
+                notifyAll();
+        }
+
+        synchronized boolean awaitEmpty(long deadline) throws InterruptedException {
+            long remaining;
+            while (!inFlight.isEmpty() && (remaining = deadline - System.currentTimeMillis()) > 0)
+                wait(remaining);
+            return inFlight.isEmpty();
+        }
+
+        // returns the new offset to commit, -1 if it did not change
+        synchronized long advance() {
+            long committable = inFlight.isEmpty() ? nextOffset : inFlight.first();
+            if (committable <= committedOffset)
+                return -1;
+
+            committedOffset = committable;
+            return committable;
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Events received by a write-behind consumer thread and not yet persisted: only the latest event of each book is kept,
+ * along with the next offset of each partition, to commit once the pending events are persisted.
+ * Not thread safe, each consumer thread having its own buffer.
+ */
+public class WriteBehindBuffer {
+
+    private final Map<Integer, Pending> pending = new LinkedHashMap<>();
+
+    private final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+
+    private long startNanos;
+
+    private long coalesced;
+
+    /**
+     * Buffers the event of the record, replacing the pending one of the same book; returns false if it did.
+     */
+    public boolean add(ConsumerRecord<Integer, LibraryEvent> consumerRecord, long polledMicros) {
+        Integer bookId = consumerRecord.value().getBook().getId();
+        done(consumerRecord);
+        if (pending.put(bookId, new Pending(consumerRecord, polledMicros)) == null)
+            return true;
+
+        coalesced++;
+        return false;
+    }
+
+    /**
+     * A record that does not need to be persisted, e.g. handed over to the retry tiers: its offset is committed with
+     * the next flush.
+     */
+    public void done(ConsumerRecord<?, ?> consumerRecord) {
+        if (offsets.isEmpty())
+            startNanos = System.nanoTime();
+        offsets.put(new TopicPartition(consumerRecord.topic(), consumerRecord.partition()),
+                new OffsetAndMetadata(consumerRecord.offset() + 1));
+    }
+
+    public boolean isEmpty() {
+        return offsets.isEmpty();
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    public boolean isDue(int maxPending, long maxDelayMs) {
+        return !isEmpty() && (pending.size() >= maxPending || System.nanoTime() - startNanos >= maxDelayMs * 1_000_000);
+    }
+
+    public List<Pending> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public Map<TopicPartition, OffsetAndMetadata> offsets() {
+        return new HashMap<>(offsets);
+    }
+
+    // events replaced by a later event of the same book since the buffer was created
+    public long coalesced() {
+        return coalesced;
+    }
+
+    public void clear() {
+        pending.clear();
+        offsets.clear();
+    }
+
+
+    @Getter
+    @AllArgsConstructor
+    public static class Pending {
+        private final ConsumerRecord<Integer, LibraryEvent> consumerRecord;
+        private final long polledMicros;
+
+        public LibraryEvent getLibraryEvent() {
+            return consumerRecord.value();
+        }
+    }
+
+}
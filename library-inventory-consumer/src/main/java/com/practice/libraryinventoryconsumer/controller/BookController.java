@@ -0,0 +1,79 @@
+package com.practice.libraryinventoryconsumer.controller;
+
+import com.practice.libraryinventoryconsumer.model.BookHit;
+import com.practice.libraryinventoryconsumer.model.BookPage;
+import com.practice.libraryinventoryconsumer.model.BookView;
+import com.practice.libraryinventoryconsumer.service.BookQueryService;
+import com.practice.libraryinventoryconsumer.service.BookSearchIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Read API of the inventory:
+ * - GET /api/v1/books/{id}
+ * - GET /api/v1/books?author=...
+ * - GET /api/v1/books?namePrefix=...
+ * - GET /api/v1/books/search?q=..., words of the name or author, best matches first (see BookSearchIndex)
+ * The lists are paginated by cursor: the next field of a page is passed as the after parameter of the following
+ * request (see BookQueryService).
+ */
+@Slf4j
+@RequestMapping("/api/v1")
+@RestController
+public class BookController {
+
+    @Autowired
+    private BookQueryService bookQueryService;
+
+    @Autowired
+    private BookSearchIndex bookSearchIndex;
+
+    @Value("${custom.read.max-page-size:500}")
+    private int maxPageSize;
+
+    @GetMapping("/books/{id}")
+    public ResponseEntity<BookView> getBook(@PathVariable Integer id) {
+        return ResponseEntity.of(bookQueryService.findById(id));
+    }
+
+    @GetMapping("/books")
+    public ResponseEntity<?> getBooks(@RequestParam(required = false) String author,
+                                      @RequestParam(required = false) String namePrefix,
+                                      @RequestParam(required = false) String after,
+                                      @RequestParam(defaultValue = "50") int size) {
+        if ((author == null) == (namePrefix == null))
+            return ResponseEntity.badRequest().body("Exactly one of author and namePrefix is required");
+
+        BookPage page = author != null
+                ? bookQueryService.findByAuthor(author, after, size)
+                : bookQueryService.findByNamePrefix(namePrefix, after, size);
+        return ResponseEntity.ok(page);
+    }
+
+    @GetMapping("/books/search")
+    public ResponseEntity<?> searchBooks(@RequestParam String q, @RequestParam(defaultValue = "20") int limit) {
+        if (limit < 1 || limit > maxPageSize)
+            return ResponseEntity.badRequest().body("limit must be between 1 and " + maxPageSize);
+
+        List<BookHit> hits = bookSearchIndex.search(q, limit);
+        return ResponseEntity.ok(hits);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<?> handleInvalidRequest(IllegalArgumentException ex) {
+        log.info("Invalid books request: {}", ex.getMessage());
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
+}
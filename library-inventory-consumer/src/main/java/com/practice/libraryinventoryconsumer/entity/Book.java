@@ -12,6 +12,10 @@ import javax.persistence.*;
 @NoArgsConstructor
 @Builder
 @Entity
+// keyset pagination of the read API, see BookRepository
+@Table(indexes = {
+        @Index(name = "book_author_idx", columnList = "author, id"),
+        @Index(name = "book_name_idx", columnList = "name, id")})
 public class Book {
 
     @Id
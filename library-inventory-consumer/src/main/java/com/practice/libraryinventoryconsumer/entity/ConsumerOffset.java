@@ -0,0 +1,40 @@
+package com.practice.libraryinventoryconsumer.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * Next offset to consume of a partition, written in the same transaction as the LibraryEvents of its records
+ * (see OffsetStore).
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@IdClass(ConsumerOffset.Key.class)
+public class ConsumerOffset {
+
+    @Id
+    private String topic;
+
+    @Id
+    @Column(name = "kafka_partition")
+    private Integer partition;
+
+    private Long nextOffset;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String topic;
+        private Integer partition;
+    }
+
+}
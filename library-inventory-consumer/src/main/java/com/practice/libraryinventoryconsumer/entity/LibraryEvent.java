@@ -1,5 +1,6 @@
 package com.practice.libraryinventoryconsumer.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.*;
 
 import javax.persistence.*;
@@ -16,8 +17,10 @@ public class LibraryEvent {
         NEW, UPDATE
     }
 
+    // pooled sequence, so that batched inserts do not pay a sequence round trip per row
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "library_event_seq")
+    @SequenceGenerator(name = "library_event_seq", sequenceName = "library_event_seq", allocationSize = 50)
     private Integer id;
 
     @Enumerated(EnumType.STRING)
@@ -27,4 +30,11 @@ public class LibraryEvent {
     @ToString.Exclude
     private Book book;
 
+    // key of the record it was read from, remembered once persisted, see ProcessedEvents
+    @Transient
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private Long eventKey;
+
 }
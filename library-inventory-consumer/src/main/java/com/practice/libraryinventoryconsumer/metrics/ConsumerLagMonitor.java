@@ -0,0 +1,112 @@
+package com.practice.libraryinventoryconsumer.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Consumer lag per partition, as library.consumer.lag{topic,partition}: the end offset of each partition the consumer
+ * group has committed offsets for, minus the committed offset, checked every custom.kafka.consumer.lag-interval-ms.
+ * Unlike the Kafka client's records-lag, it is measured against the committed offsets, so it includes the records
+ * fetched but not yet processed (see LibraryParallelConsumer) and covers the retry tiers as well.
+ */
+@Component
+@Slf4j
+public class ConsumerLagMonitor {
+
+    @Autowired
+    private KafkaAdmin kafkaAdmin;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.kafka.consumer.group-id}")
+    private String groupId;
+
+    @Value("${custom.kafka.consumer.lag-interval-ms:10000}")
+    private long intervalMs;
+
+    private final Map<TopicPartition, AtomicLong> lags = new ConcurrentHashMap<>();
+
+    private AdminClient adminClient;
+
+    private ScheduledExecutorService scheduler;
+
+
+    @PostConstruct
+    void start() {
+        adminClient = AdminClient.create(kafkaAdmin.getConfigurationProperties());
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-consumer-lag");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::update, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+        adminClient.close();
+    }
+
+
+    public Map<TopicPartition, Long> getLags() {
+        return lags.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get()));
+    }
+
+    void update() {
+        try {
+            Map<TopicPartition, OffsetAndMetadata> committed = adminClient.listConsumerGroupOffsets(groupId)
+                    .partitionsToOffsetAndMetadata().get(intervalMs, TimeUnit.MILLISECONDS);
+
+            Map<TopicPartition, OffsetSpec> request = new HashMap<>();
+            committed.keySet().forEach(topicPartition -> request.put(topicPartition, OffsetSpec.latest()));
+            Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> endOffsets = adminClient.listOffsets(request)
+                    .all().get(intervalMs, TimeUnit.MILLISECONDS);
+
+            committed.forEach((topicPartition, offset) -> {
+                ListOffsetsResult.ListOffsetsResultInfo end = endOffsets.get(topicPartition);
+                if (offset != null && end != null)
+                    lag(topicPartition).set(Math.max(0, end.offset() - offset.offset()));
+            });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.warn("Consumer lag not updated: {}", ex.getMessage());
+        }
+    }
+
+    private AtomicLong lag(TopicPartition topicPartition) {
+        return lags.computeIfAbsent(topicPartition, key -> {
+            AtomicLong lag = new AtomicLong();
+            Gauge.builder("library.consumer.lag", lag, AtomicLong::get)
+                    .description("Records of the partition not yet committed by the consumer group")
+                    .tag("topic", key.topic())
+                    .tag("partition", String.valueOf(key.partition()))
+                    .register(meterRegistry);
+            return lag;
+        });
+    }
+
+}
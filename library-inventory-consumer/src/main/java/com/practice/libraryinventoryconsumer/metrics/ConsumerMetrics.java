@@ -0,0 +1,88 @@
+package com.practice.libraryinventoryconsumer.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where the consumer spends its time, exposed on /actuator/prometheus:
+ * - library.consumer.stage{stage}: deserialize (per record, see LibraryEventDeserializer), validate and persist (per
+ * processMessage(s) call), retry (processing of a retry tier record, its delay excluded);
+ * - library.consumer.recovery{exception}: hand-over of a failed record to a retry tier or to the dead letter topic, the
+ * tier itself being counted by library.consumer.retries (see RetryTopics);
+ * - library.consumer.in.flight: records received by a listener and not yet processed.
+ * Consumer lag per partition is exposed by the ConsumerLagMonitor, the latency of the records by EndToEndLatency.
+ */
+@Component
+public class ConsumerMetrics {
+
+    private static final String STAGE_TIMER = "library.consumer.stage";
+    private static final String STAGE_TAG = "stage";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private Timer validate;
+    private Timer persist;
+    private Timer retry;
+
+    @PostConstruct
+    void init() {
+        validate = stage("validate");
+        persist = stage("persist");
+        retry = stage("retry");
+        Gauge.builder("library.consumer.in.flight", inFlight, AtomicInteger::get)
+                .description("Records received by a listener and not yet processed")
+                .register(meterRegistry);
+    }
+
+    public Timer validate() {
+        return validate;
+    }
+
+    public Timer persist() {
+        return persist;
+    }
+
+    public Timer retry() {
+        return retry;
+    }
+
+    // the deepest cause, the listener's exception being wrapped by the container
+    public Timer recovery(Throwable exception) {
+        Throwable cause = exception;
+        while (cause.getCause() != null && cause.getCause() != cause)
+            cause = cause.getCause();
+
+        return Timer.builder("library.consumer.recovery")
+                .description("Hand-over of failed records to the retry tiers or to the dead letter topic")
+                .tag("exception", cause.getClass().getSimpleName())
+                .register(meterRegistry);
+    }
+
+    public void received(int records) {
+        inFlight.addAndGet(records);
+    }
+
+    public void processed(int records) {
+        inFlight.addAndGet(-records);
+    }
+
+    public static Timer.Builder stageTimer(String stage) {
+        return Timer.builder(STAGE_TIMER)
+                .description("Time spent in each stage of the consumer pipeline")
+                .tag(STAGE_TAG, stage);
+    }
+
+    private Timer stage(String stage) {
+        return stageTimer(stage).register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.practice.libraryinventoryconsumer.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the main topic's records, from the producer's trace headers (see the producer's RecordTrace) to the
+ * database, as library.consumer.latency{hop}:
+ * - http-to-send: from the HTTP request to the Kafka producer (ingest-time-us to send-time-us);
+ * - broker: from the Kafka producer to the listener, batching and broker dwell included (send-time-us, or the record
+ * timestamp, to the poll);
+ * - poll-to-commit: from the listener to the database commit;
+ * - end-to-end: from the HTTP request, or from the send when there is no ingest time, to the database commit.
+ * Records above custom.kafka.consumer.slow-record-ms end to end are logged with their trace id. Producer and consumer
+ * clocks are compared, so the hops across them are only as accurate as the clock synchronization.
+ */
+@Component
+@Slf4j
+public class EndToEndLatency {
+
+    public static final String TRACE_ID_HEADER = "trace-id";
+    public static final String INGEST_TIME_HEADER = "ingest-time-us";
+    public static final String SEND_TIME_HEADER = "send-time-us";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${custom.kafka.consumer.slow-record-ms:1000}")
+    private long slowRecordMs;
+
+    private Timer httpToSend;
+    private Timer broker;
+    private Timer pollToCommit;
+    private Timer endToEnd;
+
+    @PostConstruct
+    void init() {
+        httpToSend = hop("http-to-send");
+        broker = hop("broker");
+        pollToCommit = hop("poll-to-commit");
+        endToEnd = hop("end-to-end");
+    }
+
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+    }
+
+    /**
+     * A record received by the listener at polledMicros (see nowMicros) is now persisted.
+     */
+    public void persisted(ConsumerRecord<?, ?> consumerRecord, long polledMicros) {
+        long committedMicros = nowMicros();
+        long ingestMicros = micros(consumerRecord, INGEST_TIME_HEADER);
+        long sendMicros = micros(consumerRecord, SEND_TIME_HEADER);
+        if (sendMicros < 0)
+            sendMicros = consumerRecord.timestamp() * 1_000;
+
+        if (ingestMicros >= 0)
+            record(httpToSend, sendMicros - ingestMicros);
+        record(broker, polledMicros - sendMicros);
+        record(pollToCommit, committedMicros - polledMicros);
+        long total = committedMicros - (ingestMicros >= 0 ? ingestMicros : sendMicros);
+        record(endToEnd, total);
+
+        if (total > slowRecordMs * 1_000) {
+            log.warn("SLOW RECORD | trace-id: {}, topic: {}, partition: {}, offset: {}, end-to-end: {} ms "
+                            + "(http-to-send: {} ms, broker: {} ms, poll-to-commit: {} ms)",
+                    traceId(consumerRecord), consumerRecord.topic(), consumerRecord.partition(), consumerRecord.offset(),
+                    total / 1_000, ingestMicros >= 0 ? (sendMicros - ingestMicros) / 1_000 : "-",
+                    (polledMicros - sendMicros) / 1_000, (committedMicros - polledMicros) / 1_000);
+        }
+    }
+
+    // a negative duration is a clock skew between producer and consumer, counted as 0
+    private static void record(Timer timer, long micros) {
+        timer.record(Math.max(0, micros), TimeUnit.MICROSECONDS);
+    }
+
+    private static long micros(ConsumerRecord<?, ?> consumerRecord, String name) {
+        Header header = consumerRecord.headers().lastHeader(name);
+        return header == null || header.value().length != Long.BYTES ? -1 : ByteBuffer.wrap(header.value()).getLong();
+    }
+
+    private static String traceId(ConsumerRecord<?, ?> consumerRecord) {
+        Header header = consumerRecord.headers().lastHeader(TRACE_ID_HEADER);
+        return header == null ? "-" : new String(header.value(), StandardCharsets.UTF_8);
+    }
+
+    private Timer hop(String hop) {
+        return Timer.builder("library.consumer.latency")
+                .description("Latency of the records from the HTTP request to the database, per hop")
+                .tag("hop", hop)
+                .register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.practice.libraryinventoryconsumer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A book found by the BookSearchIndex, the higher the score the better the match.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookHit {
+
+    private Integer id;
+    private String name;
+    private String author;
+    private double score;
+
+}
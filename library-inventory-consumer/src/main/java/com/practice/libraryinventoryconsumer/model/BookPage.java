@@ -0,0 +1,21 @@
+package com.practice.libraryinventoryconsumer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * A page of books; next is the opaque cursor of the following page, to pass as the after parameter, null on the last
+ * page.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookPage {
+
+    private List<BookView> books;
+    private String next;
+
+}
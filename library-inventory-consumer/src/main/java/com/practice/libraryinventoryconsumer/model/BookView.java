@@ -0,0 +1,20 @@
+package com.practice.libraryinventoryconsumer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Read-only projection of a Book, selected column by column (see BookRepository): the LibraryEvent is not loaded.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookView {
+
+    private Integer id;
+    private String name;
+    private String author;
+    private Integer libraryEventId;
+
+}
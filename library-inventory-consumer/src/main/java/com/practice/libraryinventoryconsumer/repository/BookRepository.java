@@ -0,0 +1,42 @@
+package com.practice.libraryinventoryconsumer.repository;
+
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.model.BookView;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Queries of the read API: BookView projections, paginated by keyset (the last row of the previous page) over the
+ * book_author_idx and book_name_idx indexes, so that a page costs the same whatever its depth.
+ * The Pageable only carries the page size, its page number must stay 0.
+ */
+@Repository
+public interface BookRepository extends JpaRepository<Book, Integer> {
+
+    @Query("select new com.practice.libraryinventoryconsumer.model.BookView(b.id, b.name, b.author, b.libraryEvent.id)" +
+            " from Book b where b.id = :id")
+    Optional<BookView> findViewById(@Param("id") Integer id);
+
+    @Query("select new com.practice.libraryinventoryconsumer.model.BookView(b.id, b.name, b.author, b.libraryEvent.id)" +
+            " from Book b where b.id > :afterId order by b.id")
+    List<BookView> findViewsAfter(@Param("afterId") Integer afterId, Pageable pageable);
+
+    @Query("select new com.practice.libraryinventoryconsumer.model.BookView(b.id, b.name, b.author, b.libraryEvent.id)" +
+            " from Book b where b.author = :author and b.id > :afterId order by b.id")
+    List<BookView> findViewsByAuthor(@Param("author") String author, @Param("afterId") Integer afterId, Pageable pageable);
+
+    // name >= afterName keeps the predicate a range of book_name_idx, the rest of the keyset condition being checked on it
+    @Query("select new com.practice.libraryinventoryconsumer.model.BookView(b.id, b.name, b.author, b.libraryEvent.id)" +
+            " from Book b where b.name like :namePattern escape '\\'" +
+            " and b.name >= :afterName and (b.name > :afterName or b.id > :afterId)" +
+            " order by b.name, b.id")
+    List<BookView> findViewsByNamePattern(@Param("namePattern") String namePattern, @Param("afterName") String afterName,
+                                          @Param("afterId") Integer afterId, Pageable pageable);
+
+}
@@ -0,0 +1,14 @@
+package com.practice.libraryinventoryconsumer.repository;
+
+import com.practice.libraryinventoryconsumer.entity.ConsumerOffset;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ConsumerOffsetRepository extends JpaRepository<ConsumerOffset, ConsumerOffset.Key> {
+
+    List<ConsumerOffset> findByTopic(String topic);
+
+}
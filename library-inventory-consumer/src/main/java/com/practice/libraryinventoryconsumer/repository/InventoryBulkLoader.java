@@ -0,0 +1,98 @@
+package com.practice.libraryinventoryconsumer.repository;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk load of the inventory for the replay (see InventoryReplay), bypassing JPA: rows are upserted with batched
+ * H2 MERGE statements, custom.kafka.consumer.replay.batch-size rows per transaction, with the secondary indexes of the
+ * book table dropped during the load and created again once it is over, a single sort instead of one index update per
+ * row. The LibraryEvents keep the ids they are given, the library_event_seq sequence being moved past them; see
+ * libraryEventIds for the ids of the books already persisted.
+ */
+@Repository
+@Slf4j
+public class InventoryBulkLoader {
+
+    // same as the @Table indexes of Book
+    private static final List<String> BOOK_INDEXES = List.of(
+            "book_author_idx ON book (author, id)",
+            "book_name_idx ON book (name, id)");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${custom.kafka.consumer.replay.batch-size:5000}")
+    private int batchSize;
+
+    /**
+     * Highest LibraryEvent id persisted or handed out by the library_event_seq sequence, the blocks it hands out
+     * being used up by the pooled optimizers of the running instances.
+     */
+    public int lastUsedId() {
+        Integer max = jdbcTemplate.queryForObject("SELECT MAX(id) FROM library_event", Integer.class);
+        Long sequence = jdbcTemplate.queryForObject("SELECT CURRENT_VALUE FROM INFORMATION_SCHEMA.SEQUENCES"
+                + " WHERE SEQUENCE_NAME = 'LIBRARY_EVENT_SEQ'", Long.class);
+        return Math.max(max != null ? max : 0, sequence != null ? sequence.intValue() : 0);
+    }
+
+    /**
+     * LibraryEvent ids of the books already persisted, by book id, looked up batch-size books per query.
+     */
+    public Map<Integer, Integer> libraryEventIds(List<Integer> bookIds) {
+        Map<Integer, Integer> libraryEventIds = new HashMap<>();
+        for (int from = 0; from < bookIds.size(); from += batchSize) {
+            List<Integer> chunk = bookIds.subList(from, Math.min(from + batchSize, bookIds.size()));
+            jdbcTemplate.query("SELECT id, library_event_id FROM book WHERE library_event_id IS NOT NULL AND id IN ("
+                            + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                    resultSet -> {
+                        libraryEventIds.put(resultSet.getInt(1), resultSet.getInt(2));
+                    },
+                    chunk.toArray());
+        }
+        return libraryEventIds;
+    }
+
+    public void load(List<LibraryEvent> libraryEvents) {
+        BOOK_INDEXES.forEach(index -> jdbcTemplate.execute("DROP INDEX IF EXISTS " + index.substring(0, index.indexOf(' '))));
+        try {
+            for (int from = 0; from < libraryEvents.size(); from += batchSize) {
+                List<LibraryEvent> chunk = libraryEvents.subList(from, Math.min(from + batchSize, libraryEvents.size()));
+                transactionTemplate.executeWithoutResult(status -> merge(chunk));
+            }
+        } finally {
+            BOOK_INDEXES.forEach(index -> jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + index));
+        }
+
+        // the pooled optimizer hands out the 50 ids up to the value it reads (see LibraryEvent)
+        jdbcTemplate.execute("ALTER SEQUENCE library_event_seq RESTART WITH " + (lastUsedId() + 50));
+        log.info("{} LibraryEvents bulk loaded", libraryEvents.size());
+    }
+
+    private void merge(List<LibraryEvent> chunk) {
+        jdbcTemplate.batchUpdate("MERGE INTO library_event (id, type) KEY (id) VALUES (?, ?)",
+                chunk.stream()
+                        .map(libraryEvent -> new Object[]{libraryEvent.getId(), libraryEvent.getType().name()})
+                        .collect(Collectors.toList()));
+        jdbcTemplate.batchUpdate("MERGE INTO book (id, name, author, library_event_id) KEY (id) VALUES (?, ?, ?, ?)",
+                chunk.stream()
+                        .map(libraryEvent -> new Object[]{libraryEvent.getBook().getId(), libraryEvent.getBook().getName(),
+                                libraryEvent.getBook().getAuthor(), libraryEvent.getId()})
+                        .collect(Collectors.toList()));
+    }
+
+}
@@ -1,9 +1,30 @@
 package com.practice.libraryinventoryconsumer.repository;
 
 import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface LibraryInventoryRepository extends JpaRepository<LibraryEvent, Integer> {
+
+    // keyset pagination over the ids, to load them without an ever growing OFFSET
+    @Query("select e.id from LibraryEvent e where e.id > :after order by e.id")
+    List<Integer> findIdsAfter(@Param("after") Integer after, Pageable pageable);
+
+    // an UPDATE whose Book is known, without the reads of a merge (see LibraryService); in the caller's transaction
+    @Modifying
+    @Query("update Book b set b.name = :name, b.author = :author where b.id = :bookId and b.libraryEvent.id = :id")
+    int updateBook(@Param("id") Integer id, @Param("bookId") Integer bookId, @Param("name") String name,
+                   @Param("author") String author);
+
+    @Modifying
+    @Query("update LibraryEvent e set e.type = :type where e.id = :id")
+    int updateType(@Param("id") Integer id, @Param("type") LibraryEvent.Type type);
+
 }
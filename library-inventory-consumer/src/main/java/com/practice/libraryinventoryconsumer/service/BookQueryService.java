@@ -0,0 +1,98 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import com.practice.libraryinventoryconsumer.changelog.InventoryView;
+import com.practice.libraryinventoryconsumer.model.BookPage;
+import com.practice.libraryinventoryconsumer.model.BookView;
+import com.practice.libraryinventoryconsumer.repository.BookRepository;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Read side of the inventory, see BookController.
+ * A cursor is the base64url encoding of "id:name" of the last book of a page, the sort key of the name prefix queries
+ * (the author ones only use the id). One more book than the page size is read, to tell whether a next page exists.
+ */
+@Service
+public class BookQueryService {
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    // present with custom.kafka.changelog.enabled=true
+    @Autowired(required = false)
+    private InventoryView inventoryView;
+
+    @Value("${custom.read.max-page-size:500}")
+    private int maxPageSize;
+
+    // no database access once the inventory view is ready
+    public Optional<BookView> findById(Integer id) {
+        if (inventoryView != null && inventoryView.isReady())
+            return inventoryView.findById(id);
+
+        return bookRepository.findViewById(id);
+    }
+
+    public BookPage findByAuthor(String author, String after, int size) {
+        int pageSize = pageSize(size);
+        Integer afterId = after == null ? Integer.MIN_VALUE : decode(after).getId();
+        return page(bookRepository.findViewsByAuthor(author, afterId, PageRequest.of(0, pageSize + 1)), pageSize);
+    }
+
+    public BookPage findByNamePrefix(String namePrefix, String after, int size) {
+        int pageSize = pageSize(size);
+        Cursor cursor = after == null ? new Cursor(Integer.MIN_VALUE, "") : decode(after);
+        return page(bookRepository.findViewsByNamePattern(likePrefix(namePrefix), cursor.getName(), cursor.getId(),
+                PageRequest.of(0, pageSize + 1)), pageSize);
+    }
+
+    private int pageSize(int size) {
+        if (size < 1 || size > maxPageSize)
+            throw new IllegalArgumentException("size must be between 1 and " + maxPageSize);
+        return size;
+    }
+
+    private static BookPage page(List<BookView> books, int pageSize) {
+        if (books.size() <= pageSize)
+            return new BookPage(books, null);
+
+        BookView last = books.get(pageSize - 1);
+        return new BookPage(books.subList(0, pageSize), encode(last));
+    }
+
+    private static String likePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    private static String encode(BookView book) {
+        String key = book.getId() + ":" + book.getName();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Cursor decode(String cursor) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = key.indexOf(':');
+            return new Cursor(Integer.parseInt(key.substring(0, separator)), key.substring(separator + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Cursor {
+        private final Integer id;
+        private final String name;
+    }
+
+}
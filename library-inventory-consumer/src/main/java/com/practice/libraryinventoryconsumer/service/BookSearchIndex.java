@@ -0,0 +1,411 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.model.BookHit;
+import com.practice.libraryinventoryconsumer.model.BookView;
+import com.practice.libraryinventoryconsumer.repository.BookRepository;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over the name and author of the books, kept up to date by LibraryService as events are
+ * persisted, so that searching words costs no LIKE '%...%' scan.
+ * Text is split on anything but letters and digits, lower-cased and stripped of accents. Every query word must match
+ * (the last one as a prefix, unless the query ends with a space); books are ranked by BM25 over both fields, a name
+ * word counting NAME_WEIGHT times an author word.
+ * The indexed books are written to custom.search.snapshot-file every custom.search.snapshot-interval-ms when they
+ * changed. At startup the snapshot is loaded, so that search answers right away, then reconciled with the database in
+ * the background: books of the snapshot that are not in the database anymore are dropped.
+ */
+@Component
+@Slf4j
+public class BookSearchIndex {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final int NAME_WEIGHT = 2;
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int SNAPSHOT_MAGIC = 0x4C494232; // "LIB2", strings as length and UTF-8 bytes
+    private static final int PAGE_SIZE = 10_000;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    // empty: no snapshot
+    @Value("${custom.search.snapshot-file:}")
+    private String snapshotFile;
+
+    @Value("${custom.search.snapshot-interval-ms:60000}")
+    private long snapshotIntervalMs;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Integer, Document> documents = new HashMap<>();
+
+    // term -> book id -> weighted term frequency
+    private final TreeMap<String, Map<Integer, Integer>> postings = new TreeMap<>();
+
+    // books loaded from the snapshot, neither confirmed by the database nor indexed since
+    private final Set<Integer> unconfirmed = new HashSet<>();
+
+    private long totalLength;
+
+    private volatile boolean dirty;
+
+    private ScheduledExecutorService scheduler;
+
+
+    @PostConstruct
+    void start() {
+        if (snapshotFile.isEmpty())
+            return;
+
+        load(Paths.get(snapshotFile));
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-search-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::snapshot, snapshotIntervalMs, snapshotIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler == null)
+            return;
+
+        scheduler.shutdownNow();
+        snapshot();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        CompletableFuture.runAsync(this::reconcile)
+                .exceptionally(ex -> {
+                    log.error("Could not reconcile the search index with the database: {}", ex.getMessage());
+                    return null;
+                });
+    }
+
+
+    public void index(Book book) {
+        index(book.getId(), book.getName(), book.getAuthor(), true);
+    }
+
+    public void remove(Integer bookId) {
+        lock.writeLock().lock();
+        try {
+            unconfirmed.remove(bookId);
+            removeDocument(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            documents.clear();
+            postings.clear();
+            unconfirmed.clear();
+            totalLength = 0;
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The best ranked books matching every word of the query, at most limit of them.
+     * Each word is scored over every book containing it, the last one over the books of up to MAX_PREFIX_EXPANSIONS
+     * completions: a query costs the postings of its words, so a frequent word or a short prefix costs in proportion
+     * to the books it matches. Only the intersection walks the rarest word alone, keeping limit hits in a heap.
+     */
+    public List<BookHit> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty())
+            return List.of();
+        boolean lastIsPrefix = !Character.isWhitespace(query.charAt(query.length() - 1));
+
+        lock.readLock().lock();
+        try {
+            List<Map<Integer, Double>> scores = new ArrayList<>(terms.size());
+            for (int i = 0; i < terms.size(); i++) {
+                Map<Integer, Double> termScores = lastIsPrefix && i == terms.size() - 1
+                        ? prefixScores(terms.get(i)) : termScores(terms.get(i));
+                if (termScores.isEmpty())
+                    return List.of();
+                scores.add(termScores);
+            }
+
+            // intersection driven by the rarest word
+            scores.sort(Comparator.comparingInt(Map::size));
+            PriorityQueue<BookHit> top = new PriorityQueue<>(Comparator.comparingDouble(BookHit::getScore));
+            for (Map.Entry<Integer, Double> candidate : scores.get(0).entrySet()) {
+                double score = candidate.getValue();
+                for (int i = 1; i < scores.size() && score > 0; i++) {
+                    Double termScore = scores.get(i).get(candidate.getKey());
+                    score = termScore == null ? 0 : score + termScore;
+                }
+                if (score <= 0)
+                    continue;
+
+                if (top.size() < limit) {
+                    top.add(hit(candidate.getKey(), score));
+                } else if (score > top.peek().getScore()) {
+                    top.poll();
+                    top.add(hit(candidate.getKey(), score));
+                }
+            }
+
+            List<BookHit> hits = new ArrayList<>(top);
+            hits.sort(Comparator.comparingDouble(BookHit::getScore).reversed().thenComparing(BookHit::getId));
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    void reconcile() {
+        int count = 0;
+        List<BookView> books = bookRepository.findViewsAfter(Integer.MIN_VALUE, PageRequest.of(0, PAGE_SIZE));
+        while (!books.isEmpty()) {
+            for (BookView book : books)
+                index(book.getId(), book.getName(), book.getAuthor(), false);
+            count += books.size();
+            books = bookRepository.findViewsAfter(books.get(books.size() - 1).getId(), PageRequest.of(0, PAGE_SIZE));
+        }
+
+        lock.writeLock().lock();
+        try {
+            unconfirmed.forEach(this::removeDocument);
+            log.info("Search index reconciled with {} books, {} books of the snapshot dropped", count, unconfirmed.size());
+            unconfirmed.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void snapshot() {
+        if (!dirty || snapshotFile.isEmpty())
+            return;
+
+        Path file = Paths.get(snapshotFile);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            dirty = false;
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(documents.size());
+            for (Document document : documents.values()) {
+                out.writeInt(document.id);
+                writeString(out, document.name);
+                writeString(out, document.author);
+            }
+        } catch (IOException ex) {
+            dirty = true;
+            log.warn("Search index snapshot not written: {}", ex.getMessage());
+            return;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        try {
+            // readers never see a partial snapshot
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            dirty = true;
+            log.warn("Search index snapshot not written: {}", ex.getMessage());
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null)
+            return List.of();
+
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        List<String> terms = new ArrayList<>();
+        for (String term : SEPARATORS.split(normalized)) {
+            if (!term.isEmpty())
+                terms.add(term);
+        }
+        return terms;
+    }
+
+
+    // live updates always win, the database reconciliation only confirms or replaces what came from the snapshot
+    private void index(Integer bookId, String name, String author, boolean live) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        tokenize(name).forEach(term -> frequencies.merge(term, NAME_WEIGHT, Integer::sum));
+        tokenize(author).forEach(term -> frequencies.merge(term, 1, Integer::sum));
+        int length = frequencies.values().stream().mapToInt(Integer::intValue).sum();
+
+        lock.writeLock().lock();
+        try {
+            if (!live && !unconfirmed.remove(bookId) && documents.containsKey(bookId))
+                return;
+            if (live)
+                unconfirmed.remove(bookId);
+
+            removeDocument(bookId);
+            documents.put(bookId, new Document(bookId, name == null ? "" : name, author == null ? "" : author,
+                    frequencies.keySet(), length));
+            frequencies.forEach((term, frequency) -> postings.computeIfAbsent(term, key -> new HashMap<>()).put(bookId, frequency));
+            totalLength += length;
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeDocument(Integer bookId) {
+        Document document = documents.remove(bookId);
+        if (document == null)
+            return;
+
+        for (String term : document.terms) {
+            Map<Integer, Integer> books = postings.get(term);
+            books.remove(bookId);
+            if (books.isEmpty())
+                postings.remove(term);
+        }
+        totalLength -= document.length;
+        dirty = true;
+    }
+
+    private Map<Integer, Double> termScores(String term) {
+        Map<Integer, Integer> books = postings.get(term);
+        if (books == null)
+            return Map.of();
+
+        double idf = idf(books.size());
+        double averageLength = (double) totalLength / documents.size();
+        Map<Integer, Double> scores = new HashMap<>(books.size() * 2);
+        books.forEach((bookId, frequency) -> {
+            double normalization = K1 * (1 - B + B * documents.get(bookId).length / averageLength);
+            scores.put(bookId, idf * frequency * (K1 + 1) / (frequency + normalization));
+        });
+        return scores;
+    }
+
+    // the best scoring completion of the prefix, per book
+    private Map<Integer, Double> prefixScores(String prefix) {
+        Map<Integer, Double> scores = new HashMap<>();
+        int expansions = 0;
+        for (String term : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, true).keySet()) {
+            if (expansions++ == MAX_PREFIX_EXPANSIONS)
+                break;
+            termScores(term).forEach((bookId, score) -> scores.merge(bookId, score, Math::max));
+        }
+        return scores;
+    }
+
+    private double idf(int documentFrequency) {
+        return Math.log(1 + (documents.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private BookHit hit(Integer bookId, double score) {
+        Document document = documents.get(bookId);
+        return new BookHit(bookId, document.name, document.author, score);
+    }
+
+    private void load(Path file) {
+        if (!Files.exists(file))
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException("not a search index snapshot");
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int bookId = in.readInt();
+                index(bookId, readString(in), readString(in), true);
+                unconfirmed.add(bookId);
+            }
+            dirty = false;
+            log.info("Search index loaded from {}: {} books", file.toAbsolutePath(), count);
+        } catch (IOException ex) {
+            log.warn("Search index snapshot {} ignored: {}", file.toAbsolutePath(), ex.getMessage());
+            clear();
+        }
+    }
+
+
+    // unlike writeUTF, not limited to 64 KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            throw new IOException("invalid string length " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    @AllArgsConstructor
+    private static class Document {
+        private final int id;
+        private final String name;
+        private final String author;
+        private final Set<String> terms;
+        private final int length;
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Optional;
+
+/**
+ * Read-through cache of the LibraryEvents (with their Book) by id, in front of the LibraryInventoryRepository.
+ * The cache is the library-events Caffeine cache, bounded in size and time by spring.cache.caffeine.spec; its
+ * hit / miss / eviction statistics are published by Spring Boot as the cache.* meters.
+ * LibraryService reads the current state of an UPDATE through it: on a hit, the UPDATE is written in place instead of
+ * merged, the merge reading the LibraryEvent and its Book first. It writes through it after each save, and misses are
+ * cached as well: this service being the only writer of the inventory, an entry is only stale if the database is
+ * changed behind its back (call clear then; an UPDATE finding no row evicts it).
+ * Cached entities are shared: they must not be modified.
+ */
+@Component
+public class LibraryEventCache {
+
+    public static final String CACHE_NAME = "library-events";
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    private Cache cache;
+
+    @PostConstruct
+    void init() {
+        cache = cacheManager.getCache(CACHE_NAME);
+    }
+
+    public Optional<LibraryEvent> findById(Integer id) {
+        return Optional.ofNullable(cache.get(id, () -> repository.findById(id).orElse(null)));
+    }
+
+    public void put(LibraryEvent libraryEvent) {
+        cache.put(libraryEvent.getId(), libraryEvent);
+    }
+
+    public void evict(Integer id) {
+        cache.evict(id);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+}
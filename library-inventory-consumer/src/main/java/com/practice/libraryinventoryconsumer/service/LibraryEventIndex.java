@@ -0,0 +1,122 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory set of the LibraryEvent ids persisted in the database, so that validating an UPDATE costs no query.
+ * Ids are kept in a bitmap split in chunks of 65536 bits allocated on demand, which suits the dense ids generated by the
+ * library_event_seq sequence (8 KB per 65536 ids).
+ * The index is rebuilt from the database at startup, in the background: until it is complete, a miss falls back to the
+ * database. Once complete, it is authoritative, this service being the only writer of the inventory; ids not generated
+ * by the sequence (negative ones) are always checked on the database.
+ */
+@Component
+@Slf4j
+public class LibraryEventIndex {
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final int PAGE_SIZE = 10_000;
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    private final ConcurrentHashMap<Integer, AtomicLongArray> chunks = new ConcurrentHashMap<>();
+
+    private volatile boolean warm;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        CompletableFuture.runAsync(this::rebuild)
+                .exceptionally(ex -> {
+                    log.error("Could not build the LibraryEvent index, falling back to the database: {}", ex.getMessage());
+                    return null;
+                });
+    }
+
+    void rebuild() {
+        int count = 0;
+        List<Integer> ids = repository.findIdsAfter(Integer.MIN_VALUE, PageRequest.of(0, PAGE_SIZE));
+        while (!ids.isEmpty()) {
+            ids.forEach(this::add);
+            count += ids.size();
+            ids = repository.findIdsAfter(ids.get(ids.size() - 1), PageRequest.of(0, PAGE_SIZE));
+        }
+        warm = true;
+        log.info("LibraryEvent index ready, {} ids loaded", count);
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public void add(Integer id) {
+        if (id == null || id < 0)
+            return;
+
+        long mask = 1L << id; // only the 6 lowest bits of the shift distance are used
+        chunk(id).getAndUpdate((id & CHUNK_MASK) >>> 6, word -> word | mask);
+    }
+
+    public boolean exists(Integer id) {
+        if (contains(id))
+            return true;
+
+        if (warm && id >= 0)
+            return false;
+
+        boolean exists = repository.existsById(id);
+        if (exists)
+            add(id);
+        return exists;
+    }
+
+    /**
+     * The given ids that exist, with at most one query for the ones the index cannot answer.
+     */
+    public Set<Integer> existing(Collection<Integer> ids) {
+        Set<Integer> existing = new HashSet<>();
+        Set<Integer> unknown = new HashSet<>();
+        for (Integer id : ids) {
+            if (contains(id))
+                existing.add(id);
+            else if (!warm || id < 0)
+                unknown.add(id);
+        }
+
+        if (!unknown.isEmpty()) {
+            repository.findAllById(unknown).forEach(libraryEvent -> {
+                add(libraryEvent.getId());
+                existing.add(libraryEvent.getId());
+            });
+        }
+        return existing;
+    }
+
+    private boolean contains(int id) {
+        if (id < 0)
+            return false;
+
+        AtomicLongArray chunk = chunks.get(id >>> CHUNK_SHIFT);
+        return chunk != null && (chunk.get((id & CHUNK_MASK) >>> 6) & (1L << id)) != 0;
+    }
+
+    private AtomicLongArray chunk(int id) {
+        return chunks.computeIfAbsent(id >>> CHUNK_SHIFT, key -> new AtomicLongArray(1 << (CHUNK_SHIFT - 6)));
+    }
+
+}
@@ -1,15 +1,33 @@
 package com.practice.libraryinventoryconsumer.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.practice.libraryinventoryconsumer.changelog.InventoryChangelog;
+import com.practice.libraryinventoryconsumer.entity.Book;
 import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.repository.InventoryBulkLoader;
 import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.RecoverableDataAccessException;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.stereotype.Service;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -19,56 +37,267 @@ public class LibraryService {
     private LibraryInventoryRepository repository;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private LibraryEventIndex libraryEventIndex;
+
+    @Autowired
+    private LibraryEventCache libraryEventCache;
 
     @Autowired
-    private KafkaTemplate<Integer, String> kafkaTemplate;
+    private BookSearchIndex bookSearchIndex;
+
+    // present with custom.kafka.changelog.enabled=true
+    @Autowired(required = false)
+    private InventoryChangelog inventoryChangelog;
+
+    // present with custom.persistence.circuit-breaker.enabled=true
+    @Autowired(required = false)
+    private PersistenceCircuitBreaker persistenceCircuitBreaker;
 
-    public void processMessage(final String message) throws JsonProcessingException {
-        LibraryEvent libraryEvent = objectMapper.readValue(message, LibraryEvent.class);
+    // present with custom.kafka.consumer.dedupe.enabled=true
+    @Autowired(required = false)
+    private ProcessedEvents processedEvents;
+
+    @Autowired
+    private InventoryBulkLoader inventoryBulkLoader;
+
+    @Autowired
+    private ConsumerMetrics consumerMetrics;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    public void processMessage(final LibraryEvent libraryEvent) {
         log.info("libraryEvent : {} ", libraryEvent);
 
-        // Only for demo purpose, this exception will trigger the retry attempt;
-        // view the LibraryConsumerConfig's simpleRetryPolicy();
-        if (libraryEvent.getId() != null && libraryEvent.getId() == 000)
-            throw new RecoverableDataAccessException("database down");
+        simulateDatabaseDown(libraryEvent);
 
         switch (libraryEvent.getType()) {
             case NEW -> save(libraryEvent);
             case UPDATE -> {
-                validate(libraryEvent);
+                consumerMetrics.validate().record(() -> validate(libraryEvent));
                 save(libraryEvent);
             }
             default -> log.error("Invalid Library Event Type");
         }
     }
 
+    /**
+     * Batch counterpart of processMessage: the whole poll is validated up front, the UPDATE ids are checked against the
+     * LibraryEventIndex (at most one query) and the events are persisted with one saveAll, hence one transaction and
+     * batched inserts (see hibernate.jdbc.batch_size).
+     * If a record fails, the records preceding it are persisted and a BatchListenerFailedException pointing at the
+     * failed record is thrown, so that only that record is sent to the retry topics (see LibraryConsumerConfig).
+     */
+    public void processMessages(final List<ConsumerRecord<Integer, LibraryEvent>> consumerRecords) {
+        List<LibraryEvent> libraryEvents = new ArrayList<>(consumerRecords.size());
+        Set<Integer> updateIds = new HashSet<>();
+
+        for (ConsumerRecord<Integer, LibraryEvent> consumerRecord : consumerRecords) {
+            LibraryEvent libraryEvent = consumerRecord.value(); // null if it could not be deserialized, rejected below
+            if (libraryEvent != null && libraryEvent.getType() == LibraryEvent.Type.UPDATE && libraryEvent.getId() != null)
+                updateIds.add(libraryEvent.getId());
+            libraryEvents.add(libraryEvent);
+        }
+
+        // the lookup of the UPDATE ids and the validation of the whole batch: one validate sample per call
+        Timer.Sample validation = Timer.start();
+        Set<Integer> existingIds = libraryEventIndex.existing(updateIds);
+
+        for (int i = 0; i < libraryEvents.size(); i++) {
+            try {
+                LibraryEvent libraryEvent = libraryEvents.get(i);
+                if (libraryEvent == null)
+                    throw new IllegalArgumentException("LibraryEvent could not be deserialized");
+
+                if (libraryEvent.getBook() == null)
+                    throw new IllegalArgumentException("Book is missing");
+
+                simulateDatabaseDown(libraryEvent);
+
+                if (libraryEvent.getType() == LibraryEvent.Type.UPDATE)
+                    validate(libraryEvent, existingIds);
+            } catch (RuntimeException ex) {
+                validation.stop(consumerMetrics.validate());
+                saveAll(libraryEvents.subList(0, i));
+                throw new BatchListenerFailedException(ex.getMessage(), ex, consumerRecords.get(i));
+            }
+        }
+        validation.stop(consumerMetrics.validate());
+
+        saveAll(libraryEvents);
+    }
+
+    /**
+     * Write-behind counterpart of processMessage, checking an event without persisting it; see flush.
+     */
+    public void validateMessage(final LibraryEvent libraryEvent) {
+        if (libraryEvent.getBook() == null)
+            throw new IllegalArgumentException("Book is missing");
+
+        simulateDatabaseDown(libraryEvent);
+
+        switch (libraryEvent.getType()) {
+            case NEW -> { }
+            case UPDATE -> consumerMetrics.validate().record(() -> validate(libraryEvent));
+            default -> throw new IllegalArgumentException("Invalid Library Event Type");
+        }
+    }
+
+    /**
+     * Persists events already checked by validateMessage with one saveAll: a single transaction, the UPDATEs being
+     * written in place or merged into the existing rows (see update) and the inserts batched (see hibernate.jdbc.batch_size).
+     */
+    public void flush(final Collection<LibraryEvent> libraryEvents) {
+        saveAll(new ArrayList<>(libraryEvents));
+    }
+
+    /**
+     * Replay counterpart of flush, for the final states reconciled by the InventoryReplay: the events are bulk loaded
+     * (see InventoryBulkLoader), the ones without id taking the id their book is already persisted with, if any, else
+     * ids past every id already used or pooled, and the in-memory indexes and the changelog updated as for saved
+     * events, the cache being cleared of the states replaced. Replaying the same records again thus loads the same rows.
+     */
+    public void bulkLoad(final List<LibraryEvent> libraryEvents) {
+        Map<Integer, Integer> persistedIds = inventoryBulkLoader.libraryEventIds(libraryEvents.stream()
+                .filter(libraryEvent -> libraryEvent.getId() == null)
+                .map(libraryEvent -> libraryEvent.getBook().getId())
+                .collect(Collectors.toList()));
+        int nextId = Math.max(inventoryBulkLoader.lastUsedId(), libraryEvents.stream()
+                .map(LibraryEvent::getId)
+                .filter(Objects::nonNull)
+                .max(Integer::compare)
+                .orElse(0)) + 1;
+        for (LibraryEvent libraryEvent : libraryEvents) {
+            if (libraryEvent.getId() == null) {
+                Integer persistedId = persistedIds.get(libraryEvent.getBook().getId());
+                libraryEvent.setId(persistedId != null ? persistedId : nextId++);
+            }
+        }
+
+        consumerMetrics.persist().record(() -> inventoryBulkLoader.load(libraryEvents));
+        libraryEventCache.clear();
+        libraryEvents.forEach(this::saved);
+    }
+
+    // Only for demo purpose, this exception will move the record to the retry topics;
+    // view the RetryTopics
+    private void simulateDatabaseDown(LibraryEvent libraryEvent) {
+        if (libraryEvent.getId() != null && libraryEvent.getId() == 000)
+            throw new RecoverableDataAccessException("database down");
+    }
+
     private void validate(LibraryEvent libraryEvent) {
         if (libraryEvent.getId() == null)
             throw new IllegalArgumentException("Library Event ID is missing");
 
-        repository.findById(libraryEvent.getId())
-                .orElseThrow( () ->  new IllegalArgumentException("LibraryEvent not present in database"));
+        if (!libraryEventIndex.exists(libraryEvent.getId()))
+            throw new IllegalArgumentException("LibraryEvent not present in database");
 
         log.info("Validation successful");
     }
 
+    private void validate(LibraryEvent libraryEvent, Set<Integer> existingIds) {
+        if (libraryEvent.getId() == null)
+            throw new IllegalArgumentException("Library Event ID is missing");
+
+        if (!existingIds.contains(libraryEvent.getId()))
+            throw new IllegalArgumentException("LibraryEvent not present in database");
+    }
+
     private void save(LibraryEvent libraryEvent) {
         libraryEvent.getBook().setLibraryEvent(libraryEvent);
-        repository.save(libraryEvent);
+        LibraryEvent saved = persist(() -> libraryEvent.getType() == LibraryEvent.Type.UPDATE
+                ? transactionTemplate.execute(status -> update(libraryEvent) ? libraryEvent : repository.save(libraryEvent))
+                : repository.save(libraryEvent));
+        afterCommit(() -> {
+            saved(saved);
+            processed(libraryEvent);
+        });
         log.info("LibraryEvent saved");
     }
 
+    private void saveAll(List<LibraryEvent> libraryEvents) {
+        if (libraryEvents.isEmpty())
+            return;
+
+        libraryEvents.forEach(libraryEvent -> libraryEvent.getBook().setLibraryEvent(libraryEvent));
+        List<LibraryEvent> saved = persist(() -> transactionTemplate.execute(status -> {
+            List<LibraryEvent> all = new ArrayList<>(libraryEvents);
+            List<Integer> mergedAt = new ArrayList<>();
+            for (int i = 0; i < all.size(); i++) {
+                if (!update(all.get(i)))
+                    mergedAt.add(i);
+            }
 
-    public void handleRecovery(ConsumerRecord<Integer, String> consumerRecord) {
-        final Integer key = consumerRecord.key();
-        final String value = consumerRecord.value();
-        kafkaTemplate.sendDefault(key, value)
-                     .addCallback(
-                            result -> log.info("Recovery message sent successfully; key: {}, value: {}, partition: {}",
-                                    key, value, consumerRecord.partition() ),
-                            ex ->  log.error("Error sending Recovery message; key: {}, value: {}, exception: {}", key, value, ex.getMessage())
-                     );
+            // in the order received, the UPDATEs written in place being their own saved state
+            Iterator<LibraryEvent> merged = repository.saveAll(mergedAt.stream().map(all::get).collect(Collectors.toList())).iterator();
+            mergedAt.forEach(i -> all.set(i, merged.next()));
+            return all;
+        }));
+        afterCommit(() -> {
+            saved.forEach(this::saved);
+            libraryEvents.forEach(this::processed);
+        });
+        log.info("{} LibraryEvents saved", libraryEvents.size());
+    }
+
+    /*
+     * An UPDATE of a LibraryEvent found in the LibraryEventCache with the same Book is written with two UPDATE
+     * statements, sparing the merge its read of the LibraryEvent and its Book. False if it is to be merged: not an
+     * UPDATE, not cached, a new Book, or a cached state no longer in the database (evicted then).
+     */
+    private boolean update(LibraryEvent libraryEvent) {
+        if (libraryEvent.getType() != LibraryEvent.Type.UPDATE)
+            return false;
+
+        Book book = libraryEvent.getBook();
+        Optional<LibraryEvent> cached = libraryEventCache.findById(libraryEvent.getId());
+        if (cached.isEmpty() || cached.get().getBook() == null || !book.getId().equals(cached.get().getBook().getId()))
+            return false;
+
+        if (repository.updateBook(libraryEvent.getId(), book.getId(), book.getName(), book.getAuthor()) == 0) {
+            libraryEventCache.evict(libraryEvent.getId());
+            return false;
+        }
+        repository.updateType(libraryEvent.getId(), libraryEvent.getType());
+        return true;
+    }
+
+    // timed, and guarded by the circuit breaker when enabled
+    private <T> T persist(Supplier<T> persistence) {
+        Supplier<T> timed = () -> consumerMetrics.persist().record(persistence);
+        return persistenceCircuitBreaker != null ? persistenceCircuitBreaker.call(timed) : timed.get();
+    }
+
+    // the in-memory indexes and the changelog only see committed LibraryEvents
+    private void saved(LibraryEvent libraryEvent) {
+        libraryEventIndex.add(libraryEvent.getId());
+        libraryEventCache.put(libraryEvent);
+        bookSearchIndex.index(libraryEvent.getBook());
+        if (inventoryChangelog != null)
+            inventoryChangelog.publish(libraryEvent);
+    }
+
+    // the received LibraryEvent, the saved one being a copy for an UPDATE
+    private void processed(LibraryEvent libraryEvent) {
+        if (processedEvents != null)
+            processedEvents.processed(libraryEvent);
+    }
+
+    // in a transaction opened by the caller (see OffsetStore), once it is committed; right away otherwise, the
+    // repository having committed its own
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 
 }
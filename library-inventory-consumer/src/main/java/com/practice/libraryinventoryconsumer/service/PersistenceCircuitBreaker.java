@@ -0,0 +1,231 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker around the persistence of the LibraryEvents (see LibraryService). The outcome of the last
+ * custom.persistence.circuit-breaker.window-size calls is kept; once at least min-calls of them are known, the circuit
+ * opens when failure-rate of them failed with a database error (connection, timeout, transient error) or slow-rate of
+ * them took longer than slow-call-ms.
+ * - OPEN: calls are rejected with a PersistenceUnavailableException for open-ms, and the listener containers are paused
+ * (see ConsumerBackpressure): the records stay in Kafka instead of being handed over to the retry tiers.
+ * - RAMP_UP: the containers are resumed, calls are let through at ramp-start-rate calls per second, the rate doubling
+ * every second; the circuit opens again if the database is still failing, and closes after ramp-up-ms.
+ * - CLOSED: calls go through unthrottled.
+ * Every change is published as a StateChange application event; the state is exposed as
+ * library.persistence.circuit.state (0 closed, 1 open, 2 ramp-up).
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.persistence.circuit-breaker.enabled", havingValue = "true")
+public class PersistenceCircuitBreaker {
+
+    public enum State {CLOSED, OPEN, RAMP_UP}
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${custom.persistence.circuit-breaker.window-size:50}")
+    private int windowSize;
+
+    @Value("${custom.persistence.circuit-breaker.min-calls:10}")
+    private int minCalls;
+
+    @Value("${custom.persistence.circuit-breaker.failure-rate:0.5}")
+    private double failureRate;
+
+    @Value("${custom.persistence.circuit-breaker.slow-rate:0.5}")
+    private double slowRate;
+
+    @Value("${custom.persistence.circuit-breaker.slow-call-ms:1000}")
+    private long slowCallMs;
+
+    @Value("${custom.persistence.circuit-breaker.open-ms:10000}")
+    private long openMs;
+
+    @Value("${custom.persistence.circuit-breaker.ramp-up-ms:10000}")
+    private long rampUpMs;
+
+    @Value("${custom.persistence.circuit-breaker.ramp-start-rate:10}")
+    private double rampStartRate;
+
+    // outcomes of the last calls, as a ring
+    private boolean[] failed;
+    private boolean[] slow;
+    private int calls;
+    private int next;
+    private int failures;
+    private int slowCalls;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private long rampedUpAt;
+    private long nextPermitNanos;
+
+    private ScheduledExecutorService scheduler;
+
+    private Counter rejected;
+
+
+    @PostConstruct
+    void start() {
+        failed = new boolean[windowSize];
+        slow = new boolean[windowSize];
+
+        Gauge.builder("library.persistence.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .description("Circuit breaker of the persistence: 0 closed, 1 open, 2 ramp-up")
+                .register(meterRegistry);
+        rejected = Counter.builder("library.persistence.circuit.rejected")
+                .description("Persistence calls rejected while the circuit was open")
+                .register(meterRegistry);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-persistence-circuit");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+
+    public State getState() {
+        return state;
+    }
+
+    public <T> T call(Supplier<T> persistence) {
+        acquire();
+
+        long started = System.nanoTime();
+        try {
+            T result = persistence.get();
+            record(false, System.nanoTime() - started);
+            return result;
+        } catch (RuntimeException ex) {
+            record(isDatabaseError(ex), System.nanoTime() - started);
+            throw ex;
+        }
+    }
+
+    // rejects the call while open, waits for its turn while ramping up
+    private void acquire() {
+        long waitNanos;
+        synchronized (this) {
+            if (state == State.CLOSED)
+                return;
+
+            if (state == State.OPEN) {
+                rejected.increment();
+                throw new PersistenceUnavailableException(Math.max(0, openedAt + openMs - System.currentTimeMillis()));
+            }
+
+            long now = System.nanoTime();
+            double elapsedSeconds = (now - rampedUpAt) / 1e9;
+            double rate = rampStartRate * Math.pow(2, elapsedSeconds);
+            nextPermitNanos = Math.max(nextPermitNanos, now) + (long) (1e9 / rate);
+            waitNanos = nextPermitNanos - now;
+        }
+        LockSupport.parkNanos(waitNanos);
+    }
+
+    synchronized void record(boolean databaseError, long durationNanos) {
+        boolean slowCall = durationNanos > TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        if (calls == windowSize) {
+            failures -= failed[next] ? 1 : 0;
+            slowCalls -= slow[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+        failed[next] = databaseError;
+        slow[next] = slowCall;
+        failures += databaseError ? 1 : 0;
+        slowCalls += slowCall ? 1 : 0;
+        next = (next + 1) % windowSize;
+
+        if (state != State.OPEN && calls >= minCalls
+                && (failures >= failureRate * calls || slowCalls >= slowRate * calls)) {
+            log.warn("Persistence circuit opened: {} failed and {} slow calls out of the last {}", failures, slowCalls, calls);
+            open();
+        }
+    }
+
+    private void open() {
+        openedAt = System.currentTimeMillis();
+        reset();
+        transition(State.OPEN);
+        scheduler.schedule(this::rampUp, openMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void rampUp() {
+        log.info("Persistence circuit ramping up");
+        rampedUpAt = System.nanoTime();
+        nextPermitNanos = rampedUpAt;
+        transition(State.RAMP_UP);
+        scheduler.schedule(this::close, rampUpMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void close() {
+        // opened again during the ramp-up, a new one follows
+        if (state != State.RAMP_UP || System.nanoTime() - rampedUpAt < TimeUnit.MILLISECONDS.toNanos(rampUpMs))
+            return;
+
+        log.info("Persistence circuit closed");
+        transition(State.CLOSED);
+    }
+
+    private void transition(State next) {
+        state = next;
+        applicationEventPublisher.publishEvent(new StateChange(next));
+    }
+
+    private void reset() {
+        calls = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    // errors telling about the database itself, not about the record being saved (e.g. a constraint violation)
+    private static boolean isDatabaseError(Throwable exception) {
+        return exception instanceof TransientDataAccessException
+                || exception instanceof RecoverableDataAccessException
+                || exception instanceof DataAccessResourceFailureException
+                || exception instanceof CannotCreateTransactionException;
+    }
+
+
+    @Getter
+    @AllArgsConstructor
+    public static class StateChange {
+        private final State state;
+    }
+
+}
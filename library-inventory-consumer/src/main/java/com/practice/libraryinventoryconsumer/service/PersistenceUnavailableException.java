@@ -0,0 +1,22 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import lombok.Getter;
+
+/**
+ * Thrown instead of persisting while the PersistenceCircuitBreaker is open: the record is not at fault and must not
+ * be handed over to the retry tiers, but consumed again once the circuit is no longer open.
+ */
+@Getter
+public class PersistenceUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    // until the circuit ramps up
+    private final long retryAfterMs;
+
+    public PersistenceUnavailableException(long retryAfterMs) {
+        super("Persistence unavailable, circuit open for " + retryAfterMs + " ms");
+        this.retryAfterMs = retryAfterMs;
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Enabled with custom.kafka.consumer.dedupe.enabled=true: remembers the records whose LibraryEvent was persisted, so
+ * that the records delivered again to this same instance are dropped before being processed, and before being
+ * deserialized when they carry the event-id header of the producer (see LibraryEventDeserializer and
+ * LibraryConsumerConfig). Records without it (produced before it) are known by their topic, partition and offset.
+ * The tables are in memory only and start empty: they cover the records sent again by the producer with the same
+ * event id (see its OutboxDrainer), or delivered again after a failed commit or a rebalance that gave the partition
+ * back to this instance, not the records delivered again after a restart or a crash, nor those of a partition that
+ * moved to another instance: those are processed again.
+ * Keys are 64-bit hashes, kept in two generations of open addressing tables: the current one takes the new keys and,
+ * once it holds max-events / 2 of them or is window-ms / 2 old, replaces the previous one, whose table is reused. A key
+ * is thus remembered for at least half the window and half the capacity, in 16 to 32 bytes per max-events. Unlike a
+ * bloom filter, it has no false positive, which would drop records never processed.
+ * Only persisted records are remembered: a record that failed is processed again when delivered again.
+ */
+@Component
+@ConditionalOnProperty(name = "custom.kafka.consumer.dedupe.enabled", havingValue = "true")
+public class ProcessedEvents {
+
+    // consumer property the LibraryEventDeserializer finds this instance under
+    public static final String CONFIG = "library.processed-events";
+    // set by the producer, see LibraryEventProducer
+    public static final String EVENT_ID_HEADER = "event-id";
+    // set by the LibraryEventDeserializer on the records it did not read, never on the wire
+    public static final String DUPLICATE_HEADER = "library-duplicate";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${custom.kafka.consumer.dedupe.max-events:200000}")
+    private int maxEvents;
+
+    @Value("${custom.kafka.consumer.dedupe.window-ms:600000}")
+    private long windowMs;
+
+    private Generation current;
+
+    private Generation previous;
+
+    private Counter duplicates;
+
+    @PostConstruct
+    void init() {
+        long now = System.currentTimeMillis();
+        current = new Generation(maxEvents / 2, now);
+        previous = new Generation(maxEvents / 2, now);
+        duplicates = Counter.builder("library.consumer.duplicates")
+                .description("Records dropped as already processed")
+                .register(meterRegistry);
+        Gauge.builder("library.consumer.dedupe.events", this, ProcessedEvents::size)
+                .description("Processed records remembered for deduplication")
+                .register(meterRegistry);
+    }
+
+    public synchronized boolean contains(long key) {
+        rotate(false);
+        return current.contains(key) || previous.contains(key);
+    }
+
+    public synchronized void add(long key) {
+        rotate(current.size >= current.capacity);
+        if (!previous.contains(key))
+            current.add(key);
+    }
+
+    public synchronized int size() {
+        return current.size + previous.size;
+    }
+
+    /**
+     * Record filter of the listener containers: true for a record to drop, either marked by the LibraryEventDeserializer
+     * or, without event id, already processed at the same offset; the LibraryEvent of the latter is given its key.
+     */
+    public boolean isDuplicate(ConsumerRecord<?, ?> consumerRecord) {
+        if (consumerRecord.headers().lastHeader(DUPLICATE_HEADER) != null) {
+            duplicates.increment();
+            return true;
+        }
+
+        if (!(consumerRecord.value() instanceof LibraryEvent) || ((LibraryEvent) consumerRecord.value()).getEventKey() != null)
+            return false;
+
+        long key = key(consumerRecord.topic(), consumerRecord.partition(), consumerRecord.offset());
+        if (contains(key)) {
+            duplicates.increment();
+            return true;
+        }
+        ((LibraryEvent) consumerRecord.value()).setEventKey(key);
+        return false;
+    }
+
+    // once the LibraryEvent is committed, see LibraryService
+    public void processed(LibraryEvent libraryEvent) {
+        if (libraryEvent.getEventKey() != null)
+            add(libraryEvent.getEventKey());
+    }
+
+    public static long key(byte[] eventId) {
+        long hash = 0xcbf29ce484222325L; // FNV-1a
+        for (byte b : eventId)
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        return mix(hash);
+    }
+
+    public static long key(String topic, int partition, long offset) {
+        return mix(key(topic.getBytes(StandardCharsets.UTF_8)) * 31 + partition) ^ mix(offset);
+    }
+
+    // the finalizer of MurmurHash3, spreading sequential offsets over the table
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    // a new current generation once it is full or half the window old
+    private void rotate(boolean full) {
+        long now = System.currentTimeMillis();
+        if (!full && now - current.createdAt < windowMs / 2)
+            return;
+
+        Generation reused = previous;
+        reused.clear(now);
+        previous = current;
+        current = reused;
+    }
+
+
+    // linear probing over a table at most half full, 0 standing for an empty slot (and the 0 key kept aside)
+    private static class Generation {
+
+        private final long[] keys;
+        private final int capacity;
+        private boolean zero;
+        private int size;
+        private long createdAt;
+
+        Generation(int capacity, long createdAt) {
+            this.capacity = Math.max(capacity, 1);
+            this.keys = new long[Integer.highestOneBit(this.capacity * 2 - 1) << 1];
+            this.createdAt = createdAt;
+        }
+
+        boolean contains(long key) {
+            if (key == 0)
+                return zero;
+
+            for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot] == key)
+                    return true;
+            }
+            return false;
+        }
+
+        void add(long key) {
+            if (key == 0) {
+                if (!zero)
+                    size++;
+                zero = true;
+                return;
+            }
+
+            int slot = slot(key);
+            while (keys[slot] != 0) {
+                if (keys[slot] == key)
+                    return;
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            keys[slot] = key;
+            size++;
+        }
+
+        void clear(long now) {
+            Arrays.fill(keys, 0);
+            zero = false;
+            size = 0;
+            createdAt = now;
+        }
+
+        private int slot(long key) {
+            return (int) key & (keys.length - 1);
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.practice.libraryinventoryconsumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.model.BookHit;
+import com.practice.libraryinventoryconsumer.model.BookPage;
+import com.practice.libraryinventoryconsumer.model.BookView;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import com.practice.libraryinventoryconsumer.service.BookSearchIndex;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@EmbeddedKafka(topics = {"library-events", "library-events-retry-1", "library-events-retry-2", "library-events-retry-3",
+        "library-events-dlt"}, partitions = 1)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+        "custom.search.snapshot-file=",
+        "custom.kafka.changelog.enabled=false"})
+public class BookControllerIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    @Autowired
+    private LibraryService libraryService;
+
+    @Autowired
+    private BookSearchIndex bookSearchIndex;
+
+    @BeforeEach
+    void setUp() {
+        // books 1..25: "Book 01".."Book 25", odd ones by Patrick O'Brian
+        List<LibraryEvent> libraryEvents = new ArrayList<>();
+        for (int bookId = 1; bookId <= 25; bookId++) {
+            LibraryEvent libraryEvent = LibraryEvent.builder()
+                    .type(LibraryEvent.Type.NEW)
+                    .book(Book.builder()
+                            .id(bookId)
+                            .name(String.format("Book %02d", bookId))
+                            .author(bookId % 2 == 1 ? "Patrick O'Brian" : "Marco")
+                            .build())
+                    .build();
+            libraryEvent.getBook().setLibraryEvent(libraryEvent);
+            libraryEvents.add(libraryEvent);
+        }
+        libraryService.flush(libraryEvents);
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+        bookSearchIndex.clear();
+    }
+
+    @Test
+    void getBook() throws Exception {
+        String json = mockMvc.perform(get("/api/v1/books/{id}", 7))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        BookView book = objectMapper.readValue(json, BookView.class);
+        assertEquals("Book 07", book.getName());
+        assertEquals("Patrick O'Brian", book.getAuthor());
+        assertEquals(repository.findAll().stream().filter(e -> e.getBook().getId() == 7).findFirst().get().getId(),
+                book.getLibraryEventId());
+
+        mockMvc.perform(get("/api/v1/books/{id}", 99))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void getBooksByAuthor_walksThePages() throws Exception {
+        List<Integer> ids = walk("author", "Patrick O'Brian", 4);
+
+        assertEquals(IntStream.rangeClosed(1, 25).filter(id -> id % 2 == 1).boxed().collect(Collectors.toList()), ids);
+    }
+
+    @Test
+    void getBooksByNamePrefix_walksThePages() throws Exception {
+        List<Integer> ids = walk("namePrefix", "Book 1", 3);
+
+        assertEquals(IntStream.rangeClosed(10, 19).boxed().collect(Collectors.toList()), ids);
+        // LIKE wildcards are matched literally
+        assertEquals(List.of(), walk("namePrefix", "Book %", 3));
+    }
+
+    @Test
+    void searchBooks() throws Exception {
+        String json = mockMvc.perform(get("/api/v1/books/search").param("q", "o'brian book 2"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        BookHit[] hits = objectMapper.readValue(json, BookHit[].class);
+        // book 2x and 2 match the prefix, only the odd ones are by Patrick O'Brian
+        assertEquals(List.of(21, 23, 25), Arrays.stream(hits).map(BookHit::getId).sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    void getBooks_invalidRequests() throws Exception {
+        mockMvc.perform(get("/api/v1/books"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/books").param("author", "Marco").param("size", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/books").param("author", "Marco").param("after", "not a cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    // follows the cursors up to the last page
+    private List<Integer> walk(String param, String value, int size) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        String after = null;
+        do {
+            var request = get("/api/v1/books").param(param, value).param("size", String.valueOf(size));
+            if (after != null)
+                request.param("after", after);
+
+            String json = mockMvc.perform(request)
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            BookPage page = objectMapper.readValue(json, BookPage.class);
+            page.getBooks().forEach(book -> ids.add(book.getId()));
+            after = page.getNext();
+        } while (after != null);
+        return ids;
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.practice.libraryinventoryconsumer;
+
+import com.practice.libraryinventoryconsumer.consumer.InventoryReplay;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.model.BookView;
+import com.practice.libraryinventoryconsumer.repository.BookRepository;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+@SpringBootTest
+@EmbeddedKafka(topics = {"library-events", "library-events-retry-1", "library-events-retry-2", "library-events-retry-3",
+        "library-events-dlt"}, partitions = 1)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+        "custom.kafka.consumer.replay.enabled=true",
+        "custom.kafka.consumer.replay.batch-size=2"})
+public class InventoryReplayIntegrationTest {
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaTemplate<Integer, String> kafkaTemplate;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @Autowired
+    private InventoryReplay inventoryReplay;
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    // the containers are started once the startup replay is done
+    @BeforeEach
+    void setUp() {
+        for (MessageListenerContainer messageListenerContainer : endpointRegistry.getListenerContainers()){
+            ContainerTestUtils.waitForAssignment(messageListenerContainer, embeddedKafkaBroker.getPartitionsPerTopic());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void replay_loadsTheFinalStateThenResumesTheLiveConsumption() throws ExecutionException, InterruptedException {
+        //given books created and updated by the live consumption, and an update of a book never created
+        send("{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":1,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}");
+        send("{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":2,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}");
+        new CountDownLatch(1).await(3, TimeUnit.SECONDS);
+        Integer updatedId = bookRepository.findViewById(2).map(BookView::getLibraryEventId).orElseThrow();
+        send("{\"id\":" + updatedId + ",\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"My Updated Book\",\"author\":\"Marco\"}}");
+        send("{\"id\":999,\"type\":\"UPDATE\",\"book\":{\"id\":3,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}");
+        new CountDownLatch(1).await(3, TimeUnit.SECONDS);
+
+        //when the inventory is lost and replayed
+        repository.deleteAll();
+        assertEquals(2, inventoryReplay.replay("earliest"));
+
+        //then the final state is loaded, keeping the id of the UPDATE
+        assertEquals(2, repository.count());
+        BookView updated = bookRepository.findViewById(2).orElseThrow();
+        assertEquals("My Updated Book", updated.getName());
+        assertEquals(updatedId, updated.getLibraryEventId());
+        assertEquals(LibraryEvent.Type.UPDATE, repository.findById(updatedId).orElseThrow().getType());
+        Integer createdId = bookRepository.findViewById(1).map(BookView::getLibraryEventId).orElseThrow();
+        assertNotEquals(updatedId, createdId);
+
+        //and replayed again over the loaded inventory, once the group is stable, the books keep their LibraryEvents
+        setUp();
+        assertEquals(2, inventoryReplay.replay("earliest"));
+        assertEquals(2, repository.count());
+        assertEquals(createdId, bookRepository.findViewById(1).map(BookView::getLibraryEventId).orElseThrow());
+        assertEquals(updatedId, bookRepository.findViewById(2).map(BookView::getLibraryEventId).orElseThrow());
+
+        //and the live consumption resumes after the replayed records, once the group rebalanced, with ids past the loaded ones
+        send("{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":4,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}");
+        new CountDownLatch(1).await(8, TimeUnit.SECONDS);
+
+        assertEquals(3, repository.count());
+        assertEquals(3, bookRepository.count());
+    }
+
+    private void send(String libraryEvent) throws ExecutionException, InterruptedException {
+        kafkaTemplate.sendDefault(libraryEvent).get();
+    }
+
+}
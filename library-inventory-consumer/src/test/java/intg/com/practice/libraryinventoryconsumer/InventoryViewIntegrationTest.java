@@ -0,0 +1,120 @@
+package com.practice.libraryinventoryconsumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.practice.libraryinventoryconsumer.changelog.InventoryView;
+import com.practice.libraryinventoryconsumer.model.BookView;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.IntegerDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@EmbeddedKafka(topics = {"library-events", "library-events-retry-1", "library-events-retry-2", "library-events-retry-3",
+        "library-events-dlt", "library-inventory-changelog"}, partitions = 1)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+        "custom.search.snapshot-file=",
+        "custom.kafka.changelog.enabled=true"})
+public class InventoryViewIntegrationTest {
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaTemplate<Integer, String> kafkaTemplate;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @Autowired
+    private InventoryView inventoryView;
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        for (MessageListenerContainer messageListenerContainer : endpointRegistry.getListenerContainers()){
+            ContainerTestUtils.waitForAssignment(messageListenerContainer, embeddedKafkaBroker.getPartitionsPerTopic());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void publishLibraryEvents_ViewServesTheLatestStateWithoutTheDatabase() throws Exception {
+        //given a book created then renamed
+        kafkaTemplate.sendDefault("{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":789,\"name\":\"Post Captain\",\"author\":\"Patrick O'Brian\"}}").get();
+        waitFor(789, "Post Captain");
+        Integer libraryEventId = inventoryView.findById(789).get().getLibraryEventId();
+
+        kafkaTemplate.sendDefault("{\"id\":" + libraryEventId + ",\"type\":\"UPDATE\",\"book\":{\"id\":789,\"name\":\"HMS Surprise\",\"author\":\"Patrick O'Brian\"}}").get();
+        waitFor(789, "HMS Surprise");
+
+        //then the changelog is keyed by book id
+        Consumer<Integer, String> consumer = new DefaultKafkaConsumerFactory<>(
+                KafkaTestUtils.consumerProps("changelog-test", "false", embeddedKafkaBroker),
+                new IntegerDeserializer(), new StringDeserializer()).createConsumer();
+        embeddedKafkaBroker.consumeFromAnEmbeddedTopic(consumer, "library-inventory-changelog");
+        for (ConsumerRecord<Integer, String> changelogRecord : KafkaTestUtils.getRecords(consumer, 5000, 2))
+            assertEquals(789, changelogRecord.key());
+        consumer.close();
+
+        //and reads no longer need the database
+        assertTrue(inventoryView.isReady());
+        repository.deleteAll();
+
+        String json = mockMvc.perform(get("/api/v1/books/{id}", 789))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        BookView book = objectMapper.readValue(json, BookView.class);
+        assertEquals("HMS Surprise", book.getName());
+        assertEquals(libraryEventId, book.getLibraryEventId());
+    }
+
+    private void waitFor(Integer bookId, String name) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            if (inventoryView.findById(bookId).map(book -> name.equals(book.getName())).orElse(false))
+                return;
+            Thread.sleep(100);
+        }
+        throw new AssertionError("Book " + bookId + " not in the inventory view as " + name);
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.practice.libraryinventoryconsumer;
+
+import com.practice.libraryinventoryconsumer.consumer.LibraryBatchConsumer;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import com.practice.libraryinventoryconsumer.service.ProcessedEvents;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@SpringBootTest
+@EmbeddedKafka(topics = {"library-events", "library-events-retry-1", "library-events-retry-2", "library-events-retry-3",
+        "library-events-dlt"}, partitions = 1)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+        "custom.kafka.consumer.mode=batch"})
+public class LibraryEventBatchConsumerIntegrationTest {
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaTemplate<Integer, String> kafkaTemplate;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @SpyBean
+    private LibraryBatchConsumer libraryBatchConsumerSpy;
+
+    @SpyBean
+    private LibraryService libraryServiceSpy;
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        for (MessageListenerContainer messageListenerContainer : endpointRegistry.getListenerContainers()){
+            ContainerTestUtils.waitForAssignment(messageListenerContainer, embeddedKafkaBroker.getPartitionsPerTopic());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void publishNewLibraryEvents() throws ExecutionException, InterruptedException {
+        //given
+        for (int bookId = 1; bookId <= 10; bookId++) {
+            String json = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":" + bookId + ",\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+            kafkaTemplate.sendDefault(json).get();
+        }
+
+        //when
+        CountDownLatch latch = new CountDownLatch(1);
+        latch.await(3, TimeUnit.SECONDS);
+
+        //then
+        verify(libraryBatchConsumerSpy, atLeast(1)).listener(anyList());
+        verify(libraryServiceSpy, atLeast(1)).processMessages(anyList());
+
+        assertEquals(10, repository.count());
+    }
+
+
+    @Test
+    void publishNewLibraryEvents_With_Invalid_Record_In_Between() throws ExecutionException, InterruptedException {
+        //given
+        String firstJson = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":11,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+        String invalidJson = "{\"id\":123,\"type\":\"UPDATE\",\"book\":{\"id\":12,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+        String lastJson = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":13,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+        kafkaTemplate.sendDefault(firstJson).get();
+        kafkaTemplate.sendDefault(123, invalidJson).get();
+        kafkaTemplate.sendDefault(lastJson).get();
+
+        //when
+        CountDownLatch latch = new CountDownLatch(1);
+        latch.await(3, TimeUnit.SECONDS);
+
+        //then the invalid record is skipped, the ones around it are persisted exactly once
+        List<LibraryEvent> libraryEventList = repository.findAll();
+        assertEquals(2, libraryEventList.size());
+    }
+
+
+
+    @Test
+    void publishNewLibraryEvents_BatchDeliveredAgainIsDropped() throws Exception {
+        //given a batch persisted
+        List<ProducerRecord<Integer, String>> batch = new ArrayList<>();
+        for (int bookId = 21; bookId <= 23; bookId++) {
+            String json = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":" + bookId + ",\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+            RecordHeaders headers = new RecordHeaders();
+            headers.add(ProcessedEvents.EVENT_ID_HEADER, UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+            batch.add(new ProducerRecord<Integer, String>("library-events", 0, null, json, headers));
+        }
+        for (ProducerRecord<Integer, String> producerRecord : batch)
+            kafkaTemplate.send(producerRecord).get();
+        new CountDownLatch(1).await(3, TimeUnit.SECONDS);
+
+        //when the whole batch is delivered again
+        long lastOffset = -1;
+        for (ProducerRecord<Integer, String> producerRecord : batch)
+            lastOffset = kafkaTemplate.send(producerRecord).get().getRecordMetadata().offset();
+        new CountDownLatch(1).await(2, TimeUnit.SECONDS);
+
+        //then the duplicates are dropped and committed, rather than sought again
+        assertEquals(lastOffset + 1, KafkaTestUtils.getCurrentOffset(embeddedKafkaBroker.getBrokersAsString(),
+                "library-inventory-consumer-group", "library-events", 0).offset());
+
+        //and the next record is processed
+        kafkaTemplate.sendDefault("{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":24,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}").get();
+        new CountDownLatch(1).await(3, TimeUnit.SECONDS);
+
+        assertEquals(4, repository.count());
+        verify(libraryServiceSpy, never()).processMessages(argThat(consumerRecords -> consumerRecords.size() > 3));
+    }
+
+}
@@ -3,28 +3,55 @@ package com.practice.libraryinventoryconsumer;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import com.practice.libraryinventoryconsumer.codec.LibraryEventDeserializer;
 import com.practice.libraryinventoryconsumer.consumer.LibraryConsumer;
+import com.practice.libraryinventoryconsumer.consumer.LibraryRetryConsumer;
 import com.practice.libraryinventoryconsumer.entity.Book;
 import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.EndToEndLatency;
 import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import com.practice.libraryinventoryconsumer.service.LibraryEventIndex;
 import com.practice.libraryinventoryconsumer.service.LibraryService;
+import com.practice.libraryinventoryconsumer.service.ProcessedEvents;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.IntegerDeserializer;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.boot.test.system.CapturedOutput;
+import org.springframework.boot.test.system.OutputCaptureExtension;
 import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.listener.MessageListenerContainer;
 import org.springframework.kafka.test.EmbeddedKafkaBroker;
 import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
 
+import javax.persistence.EntityManagerFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -32,11 +59,21 @@ import java.util.concurrent.TimeUnit;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
-@EmbeddedKafka(topics = {"library-events"}, partitions = 3)
+@AutoConfigureMockMvc
+@AutoConfigureMetrics // the Prometheus registry is left out of tests otherwise
+@ExtendWith(OutputCaptureExtension.class)
+@EmbeddedKafka(topics = {"library-events", "library-events-retry-1", "library-events-retry-2", "library-events-retry-3",
+        "library-events-dlt"}, partitions = 3)
 @TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
-        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}"})
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+        "custom.kafka.retry.initial-delay-ms=200",
+        "custom.kafka.consumer.lag-interval-ms=500",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
 public class LibraryEventConsumerIntegrationTest {
 
     @Autowired
@@ -51,25 +88,46 @@ public class LibraryEventConsumerIntegrationTest {
     @SpyBean
     private LibraryConsumer libraryConsumerSpy;
 
+    @SpyBean
+    private LibraryRetryConsumer libraryRetryConsumerSpy;
+
     @SpyBean
     private LibraryService libraryServiceSpy;
 
     @Autowired
     private LibraryInventoryRepository repository;
 
+    @Autowired
+    private LibraryEventIndex libraryEventIndex;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Consumer<Integer, byte[]> deadLetterConsumer;
+
     @BeforeEach
     void setUp() {
         //wait for all partitions to be assigned to the consumer before going on with the tests
         for (MessageListenerContainer messageListenerContainer : endpointRegistry.getListenerContainers()){
             ContainerTestUtils.waitForAssignment(messageListenerContainer, embeddedKafkaBroker.getPartitionsPerTopic());
         }
+
+        // a new group starting from the end of the dead letter topic, so that each test only sees its own records
+        Map<String, Object> configs = new HashMap<>(KafkaTestUtils.consumerProps("dead-letter-group-" + UUID.randomUUID(), "true", embeddedKafkaBroker));
+        configs.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        deadLetterConsumer = new DefaultKafkaConsumerFactory<>(configs, new IntegerDeserializer(), new ByteArrayDeserializer()).createConsumer();
+        embeddedKafkaBroker.consumeFromAnEmbeddedTopic(deadLetterConsumer, "library-events-dlt");
     }
 
     @AfterEach
     void tearDown() {
+        deadLetterConsumer.close();
         repository.deleteAll();
     }
 
@@ -85,7 +143,7 @@ public class LibraryEventConsumerIntegrationTest {
 
         //then
         verify(libraryConsumerSpy, times(1)).listener(isA(ConsumerRecord.class));
-        verify(libraryServiceSpy, times(1)).processMessage(isA(String.class));
+        verify(libraryServiceSpy, times(1)).processMessage(isA(LibraryEvent.class));
 
         List<LibraryEvent> libraryEventList = repository.findAll();
 
@@ -99,6 +157,76 @@ public class LibraryEventConsumerIntegrationTest {
     }
 
 
+    @Test
+    void publishNewLibraryEvent_IsScrapedByPrometheus() throws Exception {
+        //given
+        String json = " {\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":457,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+        kafkaTemplate.sendDefault(json).get();
+
+        //when
+        CountDownLatch latch = new CountDownLatch(1);
+        latch.await(3, TimeUnit.SECONDS);
+
+        //then the stages, the in-flight records and the lag per partition are exposed
+        String scrape = mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertTrue(scrape.contains("library_consumer_stage_seconds_count{stage=\"deserialize\",}"));
+        assertTrue(scrape.contains("library_consumer_stage_seconds_count{stage=\"persist\",}"));
+        assertTrue(scrape.contains("library_consumer_in_flight"));
+        assertTrue(scrape.contains("library_consumer_lag{partition=\"0\",topic=\"library-events\",}"));
+        assertTrue(scrape.contains("cache_puts_total{cache=\"library-events\",cacheManager=\"cacheManager\",name=\"library-events\",}"));
+    }
+
+
+    @Test
+    void publishNewLibraryEvent_SlowRecordIsLoggedWithItsTraceId(CapturedOutput logs) throws Exception {
+        //given a record received by the producer 5 seconds ago
+        String json = " {\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":458,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+        long now = EndToEndLatency.nowMicros();
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(EndToEndLatency.TRACE_ID_HEADER, "trace-458".getBytes(StandardCharsets.UTF_8));
+        headers.add(EndToEndLatency.INGEST_TIME_HEADER, ByteBuffer.allocate(Long.BYTES).putLong(now - 5_000_000).array());
+        headers.add(EndToEndLatency.SEND_TIME_HEADER, ByteBuffer.allocate(Long.BYTES).putLong(now - 4_000_000).array());
+        kafkaTemplate.send(new ProducerRecord<Integer, String>("library-events", null, null, json, headers)).get();
+
+        //when
+        CountDownLatch latch = new CountDownLatch(1);
+        latch.await(3, TimeUnit.SECONDS);
+
+        //then
+        assertTrue(logs.getOut().contains("SLOW RECORD | trace-id: trace-458"));
+        String scrape = mockMvc.perform(get("/actuator/prometheus"))
+                .andReturn().getResponse().getContentAsString();
+        assertTrue(scrape.contains("library_consumer_latency_seconds_count{hop=\"http-to-send\",}"));
+        assertTrue(scrape.contains("library_consumer_latency_seconds_count{hop=\"end-to-end\",}"));
+    }
+
+
+    @Test
+    void publishNewLibraryEvent_DeliveredAgainIsDropped() throws Exception {
+        //given the same event sent twice, e.g. a producer retrying after a lost acknowledgement
+        String json = " {\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":459,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(ProcessedEvents.EVENT_ID_HEADER, UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+        kafkaTemplate.send(new ProducerRecord<Integer, String>("library-events", 0, null, json, headers)).get();
+        new CountDownLatch(1).await(2, TimeUnit.SECONDS);
+        kafkaTemplate.send(new ProducerRecord<Integer, String>("library-events", 0, null, json, headers)).get();
+
+        //when
+        CountDownLatch latch = new CountDownLatch(1);
+        latch.await(3, TimeUnit.SECONDS);
+
+        //then the second one does not reach the listener
+        verify(libraryConsumerSpy, times(1)).listener(isA(ConsumerRecord.class));
+        verify(libraryServiceSpy, times(1)).processMessage(isA(LibraryEvent.class));
+        assertEquals(1, repository.count());
+        String scrape = mockMvc.perform(get("/actuator/prometheus"))
+                .andReturn().getResponse().getContentAsString();
+        assertTrue(scrape.contains("library_consumer_duplicates_total 1.0"));
+    }
+
+
     @Test
     void publishUpdateLibraryEvent() throws JsonProcessingException, ExecutionException, InterruptedException {
         // given
@@ -106,6 +234,7 @@ public class LibraryEventConsumerIntegrationTest {
         LibraryEvent libraryEvent = objectMapper.readValue(json, LibraryEvent.class);
         libraryEvent.getBook().setLibraryEvent(libraryEvent);
         repository.save(libraryEvent);
+        libraryEventIndex.add(libraryEvent.getId()); // saved behind the LibraryService's back
 
         // sync produce message
         Book updatedBook = Book.builder().id(456).name("My Awesome Book").author("Marco").build();
@@ -120,13 +249,34 @@ public class LibraryEventConsumerIntegrationTest {
 
         // then
         verify(libraryConsumerSpy, times(1)).listener(isA(ConsumerRecord.class));
-        verify(libraryServiceSpy, times(1)).processMessage(isA(String.class));
+        verify(libraryServiceSpy, times(1)).processMessage(isA(LibraryEvent.class));
 
         LibraryEvent persistedLibraryEvent = repository.findById(libraryEvent.getId()).get();
         assertEquals("My Awesome Book", persistedLibraryEvent.getBook().getName());
     }
 
 
+    @Test
+    void publishUpdateLibraryEvent_CachedIsWrittenWithoutReadingIt() throws ExecutionException, InterruptedException {
+        // given a book created by the consumer, hence cached
+        kafkaTemplate.sendDefault("{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":457,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}").get();
+        new CountDownLatch(1).await(3, TimeUnit.SECONDS);
+        Integer libraryEventId = repository.findAll().get(0).getId();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // when
+        kafkaTemplate.sendDefault(libraryEventId, "{\"id\":" + libraryEventId + ",\"type\":\"UPDATE\",\"book\":{\"id\":457,\"name\":\"My Updated Book\",\"author\":\"Marco\"}}").get();
+        new CountDownLatch(1).await(3, TimeUnit.SECONDS);
+
+        // then the UPDATE is written in place, the merge would have loaded the LibraryEvent and its Book
+        verify(libraryServiceSpy, times(2)).processMessage(isA(LibraryEvent.class));
+        assertEquals(0, statistics.getEntityLoadCount());
+        LibraryEvent persistedLibraryEvent = repository.findById(libraryEventId).get();
+        assertEquals(LibraryEvent.Type.UPDATE, persistedLibraryEvent.getType());
+        assertEquals("My Updated Book", persistedLibraryEvent.getBook().getName());
+    }
+
     @Test
     void publishModifyLibraryEvent_Not_A_Valid_LibraryEventId() throws JsonProcessingException, InterruptedException, ExecutionException {
 
@@ -140,7 +290,7 @@ public class LibraryEventConsumerIntegrationTest {
         latch.await(3, TimeUnit.SECONDS);
 
         verify(libraryConsumerSpy, atLeast(1)).listener(isA(ConsumerRecord.class));
-        verify(libraryServiceSpy, atLeast(1)).processMessage(isA(String.class));
+        verify(libraryServiceSpy, atLeast(1)).processMessage(isA(LibraryEvent.class));
 
         Optional<LibraryEvent> libraryEventOptional = repository.findById(libraryEventId);
         assertFalse(libraryEventOptional.isPresent());
@@ -160,7 +310,7 @@ public class LibraryEventConsumerIntegrationTest {
 
         // 1 time because IllegalArgumentException shall not kick retries
         verify(libraryConsumerSpy, atLeast(1)).listener(isA(ConsumerRecord.class));
-        verify(libraryServiceSpy, atLeast(1)).processMessage(isA(String.class));
+        verify(libraryServiceSpy, atLeast(1)).processMessage(isA(LibraryEvent.class));
     }
 
 
@@ -175,9 +325,10 @@ public class LibraryEventConsumerIntegrationTest {
         CountDownLatch latch = new CountDownLatch(1);
         latch.await(3, TimeUnit.SECONDS);
 
-        // 3 times due to retries (see LibraryConsumerConfig)
-        verify(libraryConsumerSpy, atLeast(3)).listener(isA(ConsumerRecord.class));
-        verify(libraryServiceSpy, atLeast(3)).processMessage(isA(String.class));
+        // the main topic does not retry, the record goes through the 3 retry topics (see RetryTopics)
+        verify(libraryConsumerSpy, times(1)).listener(isA(ConsumerRecord.class));
+        verify(libraryRetryConsumerSpy, times(3)).listener(isA(ConsumerRecord.class));
+        verify(libraryServiceSpy, times(4)).processMessage(isA(LibraryEvent.class));
     }
 
 
@@ -189,12 +340,48 @@ public class LibraryEventConsumerIntegrationTest {
         String json = "{\"id\":" + libraryEventId + ",\"type\":\"UPDATE\",\"book\":{\"id\":456,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
         kafkaTemplate.sendDefault(libraryEventId, json).get();
 
+        //when, the last retry topic gives up after 200 + 400 + 800 ms
+        ConsumerRecord<Integer, byte[]> deadLetter = KafkaTestUtils.getSingleRecord(deadLetterConsumer, "library-events-dlt", 10000);
+
+        //then, re-published in the binary format
+        LibraryEvent libraryEvent = new LibraryEventDeserializer().deserialize(deadLetter.topic(), deadLetter.headers(), deadLetter.value());
+        assertEquals(libraryEventId, libraryEvent.getId());
+        assertEquals(LibraryEvent.Type.UPDATE, libraryEvent.getType());
+        assertEquals(456, libraryEvent.getBook().getId());
+    }
+
+
+    @Test
+    void testInvalidRecordGoesStraightToDeadLetterTopic() throws InterruptedException, ExecutionException {
+        //given
+        Integer libraryEventId = 123; // random number
+        String json = "{\"id\":" + libraryEventId + ",\"type\":\"UPDATE\",\"book\":{\"id\":456,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+        kafkaTemplate.sendDefault(libraryEventId, json).get();
+
         //when
-        CountDownLatch latch = new CountDownLatch(1);
-        latch.await(3, TimeUnit.SECONDS);
+        ConsumerRecord<Integer, byte[]> deadLetter = KafkaTestUtils.getSingleRecord(deadLetterConsumer, "library-events-dlt", 5000);
+
+        //then IllegalArgumentException is not retried
+        LibraryEvent libraryEvent = new LibraryEventDeserializer().deserialize(deadLetter.topic(), deadLetter.headers(), deadLetter.value());
+        assertEquals(libraryEventId, libraryEvent.getId());
+        assertEquals("My Awesome Book", libraryEvent.getBook().getName());
+        verify(libraryRetryConsumerSpy, never()).listener(isA(ConsumerRecord.class));
+    }
+
+
+    @Test
+    void testUnreadableRecordGoesStraightToDeadLetterTopic() throws InterruptedException, ExecutionException {
+        //given
+        String garbage = "{\"id\":";
+        kafkaTemplate.sendDefault(garbage).get();
+
+        //when
+        ConsumerRecord<Integer, byte[]> deadLetter = KafkaTestUtils.getSingleRecord(deadLetterConsumer, "library-events-dlt", 5000);
 
-        verify(libraryConsumerSpy, atLeast(3)).listener(isA(ConsumerRecord.class));  // 3 times due to retries (see LibraryConsumerConfig)
-        verify(libraryServiceSpy, atLeast(1)).handleRecovery(isA(ConsumerRecord.class));
+        //then the listener never sees it, and the original bytes are kept
+        assertEquals(garbage, new String(deadLetter.value(), StandardCharsets.UTF_8));
+        verify(libraryConsumerSpy, never()).listener(isA(ConsumerRecord.class));
+        verify(libraryRetryConsumerSpy, never()).listener(isA(ConsumerRecord.class));
     }
 
 }
@@ -0,0 +1,118 @@
+package com.practice.libraryinventoryconsumer;
+
+import com.practice.libraryinventoryconsumer.entity.ConsumerOffset;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.repository.ConsumerOffsetRepository;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@SpringBootTest
+@EmbeddedKafka(topics = {"library-events", "library-events-retry-1", "library-events-retry-2", "library-events-retry-3",
+        "library-events-dlt"}, partitions = 1)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+        "custom.kafka.consumer.offsets-in-database=true"})
+public class LibraryEventOffsetStoreIntegrationTest {
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaTemplate<Integer, String> kafkaTemplate;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @SpyBean
+    private LibraryService libraryServiceSpy;
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    @Autowired
+    private ConsumerOffsetRepository consumerOffsetRepository;
+
+    @BeforeEach
+    void setUp() {
+        for (MessageListenerContainer messageListenerContainer : endpointRegistry.getListenerContainers()){
+            ContainerTestUtils.waitForAssignment(messageListenerContainer, embeddedKafkaBroker.getPartitionsPerTopic());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void restart_resumesFromTheOffsetStoredWithTheLibraryEvents() throws Exception {
+        //given two records persisted along with their offsets
+        send(1);
+        long offset = send(2);
+        new CountDownLatch(1).await(3, TimeUnit.SECONDS);
+        assertEquals(2, repository.count());
+        assertEquals(offset + 1, storedOffset());
+
+        //when the consumer stops, and the next record is persisted but its Kafka commit is lost in the crash
+        endpointRegistry.getListenerContainers().forEach(MessageListenerContainer::stop);
+        offset = send(3);
+        send(4);
+        consumerOffsetRepository.save(new ConsumerOffset("library-events", 0, offset + 1));
+
+        endpointRegistry.getListenerContainers().forEach(MessageListenerContainer::start);
+        setUp();
+        new CountDownLatch(1).await(3, TimeUnit.SECONDS);
+
+        //then only the record after the stored offset is processed
+        verify(libraryServiceSpy, never()).processMessage(argThat(libraryEvent -> libraryEvent.getBook().getId() == 3));
+        verify(libraryServiceSpy, times(1)).processMessage(argThat(libraryEvent -> libraryEvent.getBook().getId() == 4));
+        verify(libraryServiceSpy, times(3)).processMessage(isA(LibraryEvent.class));
+        assertEquals(offset + 2, storedOffset());
+    }
+
+    @Test
+    void invalidRecord_offsetStoredOnceHandedOver() throws Exception {
+        //given an UPDATE of a LibraryEvent that does not exist
+        long offset = kafkaTemplate.sendDefault("{\"id\":123,\"type\":\"UPDATE\",\"book\":{\"id\":456,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}")
+                .get().getRecordMetadata().offset();
+        new CountDownLatch(1).await(3, TimeUnit.SECONDS);
+
+        //then nothing is persisted, but the record is not replayed after a restart
+        assertEquals(0, repository.count());
+        assertEquals(offset + 1, storedOffset());
+    }
+
+    private long send(int bookId) throws Exception {
+        return kafkaTemplate.sendDefault("{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":" + bookId + ",\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}")
+                .get().getRecordMetadata().offset();
+    }
+
+    private long storedOffset() {
+        return consumerOffsetRepository.findById(new ConsumerOffset.Key("library-events", 0)).get().getNextOffset();
+    }
+
+}
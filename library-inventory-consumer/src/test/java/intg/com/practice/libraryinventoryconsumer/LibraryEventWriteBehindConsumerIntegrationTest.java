@@ -0,0 +1,110 @@
+package com.practice.libraryinventoryconsumer;
+
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import com.practice.libraryinventoryconsumer.service.LibraryEventIndex;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.verify;
+
+@SpringBootTest
+@EmbeddedKafka(topics = {"library-events", "library-events-retry-1", "library-events-retry-2", "library-events-retry-3",
+        "library-events-dlt"}, partitions = 1)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+        "custom.kafka.consumer.mode=write-behind",
+        "custom.kafka.consumer.write-behind.max-delay-ms=500"})
+public class LibraryEventWriteBehindConsumerIntegrationTest {
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaTemplate<Integer, String> kafkaTemplate;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @SpyBean
+    private LibraryService libraryServiceSpy;
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    @Autowired
+    private LibraryEventIndex libraryEventIndex;
+
+    @BeforeEach
+    void setUp() {
+        for (MessageListenerContainer messageListenerContainer : endpointRegistry.getListenerContainers()){
+            ContainerTestUtils.waitForAssignment(messageListenerContainer, embeddedKafkaBroker.getPartitionsPerTopic());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void publishUpdateLibraryEvents_SameBookIsWrittenOnce() throws ExecutionException, InterruptedException {
+        //given a persisted book, updated 10 times in a row
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder().id(456).name("My Awesome Book").author("Marco").build())
+                .build();
+        libraryEvent.getBook().setLibraryEvent(libraryEvent);
+        repository.save(libraryEvent);
+        libraryEventIndex.add(libraryEvent.getId()); // saved behind the LibraryService's back
+
+        for (int i = 1; i <= 10; i++) {
+            String json = "{\"id\":" + libraryEvent.getId() + ",\"type\":\"UPDATE\",\"book\":{\"id\":456,\"name\":\"Edition " + i + "\",\"author\":\"Marco\"}}";
+            kafkaTemplate.sendDefault(libraryEvent.getId(), json).get();
+        }
+
+        //when
+        CountDownLatch latch = new CountDownLatch(1);
+        latch.await(3, TimeUnit.SECONDS);
+
+        //then only the latest edition is written, and the offsets are committed up to the last record
+        verify(libraryServiceSpy, atMost(3)).flush(anyCollection());
+        assertEquals("Edition 10", repository.findById(libraryEvent.getId()).get().getBook().getName());
+        assertEquals(1, repository.count());
+
+        try (AdminClient adminClient = AdminClient.create(
+                Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, embeddedKafkaBroker.getBrokersAsString()))) {
+            Map<TopicPartition, OffsetAndMetadata> committedOffsets = adminClient
+                    .listConsumerGroupOffsets("library-inventory-consumer-group")
+                    .partitionsToOffsetAndMetadata().get();
+            assertEquals(10, committedOffsets.get(new TopicPartition("library-events", 0)).offset());
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.practice.libraryinventoryconsumer;
+
+import com.practice.libraryinventoryconsumer.consumer.LibraryRetryConsumer;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import com.practice.libraryinventoryconsumer.service.PersistenceCircuitBreaker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+
+@SpringBootTest
+@EmbeddedKafka(topics = {"library-events", "library-events-retry-1", "library-events-retry-2", "library-events-retry-3",
+        "library-events-dlt"}, partitions = 1)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+        "custom.kafka.retry.initial-delay-ms=200",
+        "custom.persistence.circuit-breaker.min-calls=2",
+        "custom.persistence.circuit-breaker.open-ms=1500",
+        "custom.persistence.circuit-breaker.ramp-up-ms=1000"})
+public class PersistenceCircuitBreakerIntegrationTest {
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaTemplate<Integer, String> kafkaTemplate;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @Autowired
+    private LibraryRetryConsumer libraryRetryConsumer;
+
+    @Autowired
+    private PersistenceCircuitBreaker persistenceCircuitBreaker;
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    @SpyBean
+    private DataSource dataSourceSpy;
+
+    @BeforeEach
+    void setUp() {
+        for (MessageListenerContainer messageListenerContainer : endpointRegistry.getListenerContainers()){
+            ContainerTestUtils.waitForAssignment(messageListenerContainer, embeddedKafkaBroker.getPartitionsPerTopic());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void databaseDown_containersPausedThenRecordsPersisted() throws ExecutionException, InterruptedException, SQLException {
+        //given a database refusing the next two connections
+        doThrow(new SQLTransientConnectionException("database down"))
+                .doThrow(new SQLTransientConnectionException("database down"))
+                .doCallRealMethod()
+                .when(dataSourceSpy).getConnection();
+
+        //when
+        sendNewLibraryEvent(1);
+        sendNewLibraryEvent(2);
+        new CountDownLatch(1).await(1, TimeUnit.SECONDS);
+
+        //then the circuit is open and the consumption paused
+        assertEquals(PersistenceCircuitBreaker.State.OPEN, persistenceCircuitBreaker.getState());
+        endpointRegistry.getListenerContainers().forEach(container -> assertTrue(container.isPauseRequested()));
+        libraryRetryConsumer.getContainers().forEach(container -> assertTrue(container.isPauseRequested()));
+
+        //and once it ramps up, the failed records and the ones sent meanwhile are persisted
+        sendNewLibraryEvent(3);
+        new CountDownLatch(1).await(5, TimeUnit.SECONDS);
+
+        assertEquals(3, repository.count());
+        endpointRegistry.getListenerContainers().forEach(container -> assertFalse(container.isPauseRequested()));
+    }
+
+    private void sendNewLibraryEvent(int bookId) throws ExecutionException, InterruptedException {
+        kafkaTemplate.sendDefault("{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":" + bookId + ",\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}").get();
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.practice.libraryinventoryconsumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * Producer-to-database load test: NEW LibraryEvents are sent at load.rate records/s through the KafkaTemplate and the
+ * time from the scheduled send to the end of LibraryService.processMessage(s), i.e. the event being persisted, is
+ * recorded in an HDR histogram. Latencies are measured from the time a record was due, not from the time it was
+ * actually sent, so that a stalled sender does not hide the stall (coordinated omission).
+ * The first load.warmup-records are not measured. The report (throughput and latency percentiles) is written to
+ * load.report-dir as consumer-[mode].json, with the full percentile distribution in consumer-[mode].hgrm.
+ * Run with ./gradlew loadTest [-Dload.mode=record|batch|parallel] [-Dload.rate=...] [-Dload.records=...]; the run fails
+ * below load.min-records-per-second or above load.max-p99-ms when they are set.
+ */
+@Tag("load")
+@SpringBootTest
+@EmbeddedKafka(topics = {"library-events", "library-events-retry-1", "library-events-retry-2", "library-events-retry-3",
+        "library-events-dlt"}, partitions = 4)
+@TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+        "custom.kafka.consumer.mode=${load.mode:record}",
+        "spring.kafka.producer.properties.linger.ms=5",
+        "logging.level.com.practice=WARN",
+        "logging.level.org.apache.kafka=WARN"})
+public class LibraryEventConsumerLoadTest {
+
+    private static final String NAME_PREFIX = "load-";
+
+    @Value("${load.mode:record}")
+    private String mode;
+
+    @Value("${load.rate:2000}")
+    private int rate;
+
+    @Value("${load.records:20000}")
+    private int records;
+
+    @Value("${load.warmup-records:2000}")
+    private int warmupRecords;
+
+    @Value("${load.timeout-seconds:300}")
+    private int timeoutSeconds;
+
+    @Value("${load.min-records-per-second:0}")
+    private double minRecordsPerSecond;
+
+    @Value("${load.max-p99-ms:0}")
+    private double maxP99Ms;
+
+    @Value("${load.report-dir:build/reports/load}")
+    private String reportDir;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaTemplate<Integer, String> kafkaTemplate;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @SpyBean
+    private LibraryService libraryServiceSpy;
+
+    @Autowired
+    private LibraryInventoryRepository repository;
+
+    // microseconds, from the scheduled send to the persisted event
+    private final Histogram latency = new ConcurrentHistogram(3);
+
+    private final AtomicInteger persisted = new AtomicInteger();
+
+    private final AtomicLong lastPersistedNanos = new AtomicLong();
+
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+
+    @BeforeEach
+    void setUp() {
+        for (MessageListenerContainer messageListenerContainer : endpointRegistry.getListenerContainers()){
+            ContainerTestUtils.waitForAssignment(messageListenerContainer, embeddedKafkaBroker.getPartitionsPerTopic());
+        }
+
+        doAnswer(invocation -> {
+            invocation.callRealMethod();
+            onPersisted(invocation.<LibraryEvent>getArgument(0));
+            return null;
+        }).when(libraryServiceSpy).processMessage(any(LibraryEvent.class));
+
+        doAnswer(invocation -> {
+            invocation.callRealMethod();
+            invocation.<List<ConsumerRecord<Integer, LibraryEvent>>>getArgument(0)
+                    .forEach(consumerRecord -> onPersisted(consumerRecord.value()));
+            return null;
+        }).when(libraryServiceSpy).processMessages(anyList());
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void sustainedLoad() throws InterruptedException, IOException {
+        //given
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long startNanos = System.nanoTime();
+
+        //when
+        for (int i = 0; i < records; i++) {
+            long dueNanos = startNanos + i * intervalNanos;
+            if (i == warmupRecords)
+                measureFromNanos = dueNanos;
+
+            long waitNanos = dueNanos - System.nanoTime();
+            if (waitNanos > 0)
+                LockSupport.parkNanos(waitNanos);
+
+            int bookId = i + 1;
+            String json = "{\"id\":null,\"type\":\"NEW\",\"book\":{\"id\":" + bookId + ",\"name\":\"" + NAME_PREFIX + dueNanos
+                    + "\",\"author\":\"Marco\"}}";
+            kafkaTemplate.sendDefault(bookId, json);
+        }
+        kafkaTemplate.flush();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (persisted.get() < records && System.nanoTime() < deadline)
+            Thread.sleep(100);
+
+        //then
+        Map<String, Object> report = report();
+        writeReport(report);
+
+        assertEquals(records, persisted.get());
+        assertEquals(records, repository.count());
+        if (minRecordsPerSecond > 0)
+            assertTrue((double) report.get("recordsPerSecond") >= minRecordsPerSecond,
+                    "throughput under " + minRecordsPerSecond + " records/s: " + report.get("recordsPerSecond"));
+        if (maxP99Ms > 0)
+            assertTrue(latency.getValueAtPercentile(99) / 1000.0 <= maxP99Ms,
+                    "p99 latency over " + maxP99Ms + " ms: " + latency.getValueAtPercentile(99) / 1000.0);
+    }
+
+    private void onPersisted(LibraryEvent libraryEvent) {
+        long now = System.nanoTime();
+        persisted.incrementAndGet();
+        lastPersistedNanos.accumulateAndGet(now, Math::max);
+
+        long dueNanos = Long.parseLong(libraryEvent.getBook().getName().substring(NAME_PREFIX.length()));
+        if (dueNanos >= measureFromNanos)
+            latency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(now - dueNanos)));
+    }
+
+    private Map<String, Object> report() {
+        double seconds = (lastPersistedNanos.get() - measureFromNanos) / 1e9;
+
+        Map<String, Object> latencyMs = new LinkedHashMap<>();
+        latencyMs.put("mean", latency.getMean() / 1000.0);
+        latencyMs.put("p50", latency.getValueAtPercentile(50) / 1000.0);
+        latencyMs.put("p90", latency.getValueAtPercentile(90) / 1000.0);
+        latencyMs.put("p99", latency.getValueAtPercentile(99) / 1000.0);
+        latencyMs.put("p999", latency.getValueAtPercentile(99.9) / 1000.0);
+        latencyMs.put("max", latency.getMaxValue() / 1000.0);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("mode", mode);
+        report.put("partitions", embeddedKafkaBroker.getPartitionsPerTopic());
+        report.put("targetRecordsPerSecond", rate);
+        report.put("records", records);
+        report.put("warmupRecords", warmupRecords);
+        report.put("persisted", persisted.get());
+        report.put("measuredRecords", latency.getTotalCount());
+        report.put("durationSeconds", seconds);
+        report.put("recordsPerSecond", seconds > 0 ? latency.getTotalCount() / seconds : 0d);
+        report.put("latencyMs", latencyMs);
+        return report;
+    }
+
+    private void writeReport(Map<String, Object> report) throws IOException {
+        Path directory = Paths.get(reportDir);
+        Files.createDirectories(directory);
+
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(directory.resolve("consumer-" + mode + ".json").toFile(), report);
+        try (PrintStream out = new PrintStream(directory.resolve("consumer-" + mode + ".hgrm").toFile())) {
+            latency.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.practice.libraryinventoryconsumer.codec;
+
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LibraryEventDeserializerUnitTest {
+
+    private final LibraryEventDeserializer deserializer = new LibraryEventDeserializer();
+
+
+    @Test
+    public void deserialize_json_withoutHeader() {
+        String json = "{\"id\":7,\"type\":\"UPDATE\",\"book\":{\"id\":456,\"name\":\"My Awesome Book\",\"author\":\"Marco\"}}";
+
+        LibraryEvent libraryEvent = deserializer.deserialize("library-events", new RecordHeaders(), json.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(7, libraryEvent.getId());
+        assertEquals(LibraryEvent.Type.UPDATE, libraryEvent.getType());
+        assertEquals("My Awesome Book", libraryEvent.getBook().getName());
+    }
+
+
+    @Test
+    public void deserialize_binary_retryRoundTrip() {
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(-3)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder().id(346).name("Master and Commander").author("Patrick O'Brian").build())
+                .build();
+        Headers headers = new RecordHeaders();
+
+        byte[] data = new LibraryEventSerializer().serialize("library-events-retry-1", headers, libraryEvent);
+        LibraryEvent decoded = deserializer.deserialize("library-events-retry-1", headers, data);
+
+        assertEquals(-3, decoded.getId());
+        assertEquals(LibraryEvent.Type.NEW, decoded.getType());
+        assertEquals(346, decoded.getBook().getId());
+        assertEquals("Patrick O'Brian", decoded.getBook().getAuthor());
+    }
+
+
+    @Test
+    public void deserialize_invalid() {
+        Headers headers = new RecordHeaders();
+        headers.add(LibraryEventCodec.CONTENT_TYPE_HEADER, LibraryEventCodec.BINARY.getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(SerializationException.class, () -> deserializer.deserialize("library-events", headers, new byte[]{1, 2}));
+        assertThrows(SerializationException.class, () -> deserializer.deserialize("library-events", new RecordHeaders(), "{".getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
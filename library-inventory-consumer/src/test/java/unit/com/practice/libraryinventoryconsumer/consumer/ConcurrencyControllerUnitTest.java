@@ -0,0 +1,91 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ConcurrencyControllerUnitTest {
+
+    @Mock
+    private KafkaListenerEndpointRegistry endpointRegistry;
+
+    @Mock
+    private LibraryParallelConsumer libraryParallelConsumer;
+
+    @Mock
+    private ConsumerFactory<Object, Object> consumerFactory;
+
+    @InjectMocks
+    private ConcurrencyController concurrencyController;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(concurrencyController, "topic", "library-events");
+        ReflectionTestUtils.setField(concurrencyController, "highLag", 1000L);
+        ReflectionTestUtils.setField(concurrencyController, "lowLag", 100L);
+        ReflectionTestUtils.setField(concurrencyController, "upChecks", 2);
+        ReflectionTestUtils.setField(concurrencyController, "downChecks", 3);
+        ReflectionTestUtils.setField(concurrencyController, "maxPersistMs", 500d);
+    }
+
+
+    @Test
+    public void decide_withHysteresis() {
+        // one lagging partition, twice in a row
+        assertEquals(0, concurrencyController.decide(List.of(5000L, 0L), 20));
+        assertEquals(1, concurrencyController.decide(List.of(5000L, 0L), 20));
+
+        // between the two thresholds: unchanged, and the streaks start over
+        assertEquals(0, concurrencyController.decide(List.of(500L), 20));
+        assertEquals(0, concurrencyController.decide(List.of(5000L), 20));
+        assertEquals(0, concurrencyController.decide(List.of(500L), 20));
+        assertEquals(0, concurrencyController.decide(List.of(5000L), 20));
+
+        // lagging, but the database is slow: more threads would not help
+        assertEquals(0, concurrencyController.decide(List.of(5000L), 800));
+        assertEquals(0, concurrencyController.decide(List.of(5000L), 800));
+
+        // caught up
+        assertEquals(0, concurrencyController.decide(List.of(10L, 0L), 20));
+        assertEquals(0, concurrencyController.decide(List.of(10L, 0L), 0));
+        assertEquals(-1, concurrencyController.decide(List.of(), 0));
+        assertEquals(0, concurrencyController.decide(List.of(), 0));
+    }
+
+
+    @Test
+    public void scale_mainTopicContainersOnly() {
+        ConcurrentMessageListenerContainer<Object, Object> mainContainer =
+                new ConcurrentMessageListenerContainer<>(consumerFactory, new ContainerProperties("library-events"));
+        ConcurrentMessageListenerContainer<Object, Object> retryContainer =
+                new ConcurrentMessageListenerContainer<>(consumerFactory, new ContainerProperties("library-events-retry-1"));
+        when(endpointRegistry.getListenerContainers()).thenReturn(List.of(mainContainer, retryContainer));
+        when(libraryParallelConsumer.getWorkers()).thenReturn(8);
+
+        concurrencyController.scale(2, 16);
+
+        verify(libraryParallelConsumer).resize(16);
+        assertEquals(2, mainContainer.getConcurrency());
+        assertEquals(1, retryContainer.getConcurrency());
+        assertEquals(2, concurrencyController.concurrency());
+        // not running: left stopped
+        assertFalse(mainContainer.isRunning());
+    }
+
+}
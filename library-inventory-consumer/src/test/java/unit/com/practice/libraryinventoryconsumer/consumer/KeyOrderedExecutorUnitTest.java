@@ -0,0 +1,57 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KeyOrderedExecutorUnitTest {
+
+    @Test
+    public void resize_keepsTheOrderOfEachKey() throws InterruptedException {
+        KeyOrderedExecutor executor = new KeyOrderedExecutor(2, "test-lane-");
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch slow = new CountDownLatch(1);
+
+        // the first task of key 1 is still running when the lanes change
+        executor.execute(1, () -> {
+            await(slow);
+            processed.add(1);
+        });
+        executor.resize(5);
+        assertEquals(5, executor.size());
+        for (int i = 2; i <= 10; i++) {
+            int task = i;
+            executor.execute(1, () -> processed.add(task));
+        }
+
+        slow.countDown();
+        executor.shutdown(10, TimeUnit.SECONDS);
+        assertTrue(waitFor(processed, 10));
+        assertEquals(IntStream.rangeClosed(1, 10).boxed().collect(Collectors.toList()), processed);
+    }
+
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean waitFor(List<Integer> processed, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && processed.size() < size; i++)
+            Thread.sleep(100);
+        return processed.size() == size;
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.metrics.EndToEndLatency;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class LibraryParallelConsumerUnitTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("library-events", 0);
+
+    @Mock
+    private LibraryService libraryService;
+
+    @Mock
+    private DeadLetterPublishingRecoverer retryTopicsRecoverer;
+
+    @Mock
+    private ConsumerMetrics consumerMetrics;
+
+    @Mock
+    private EndToEndLatency endToEndLatency;
+
+    @Mock
+    private Consumer<Integer, LibraryEvent> consumer;
+
+    @InjectMocks
+    private LibraryParallelConsumer libraryParallelConsumer;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(libraryParallelConsumer, "workers", 2);
+        ReflectionTestUtils.setField(libraryParallelConsumer, "maxInFlight", 2);
+        ReflectionTestUtils.setField(libraryParallelConsumer, "revokeTimeoutMs", 5000L);
+        libraryParallelConsumer.init();
+        when(consumer.assignment()).thenReturn(Set.of(PARTITION));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        libraryParallelConsumer.shutdown();
+    }
+
+
+    @Test
+    public void listener_pausesInsteadOfBlocking() throws InterruptedException {
+        CountDownLatch persisted = new CountDownLatch(1);
+        doAnswer(invocation -> persisted.await(5, TimeUnit.SECONDS)).when(libraryService).processMessage(any());
+
+        // more records than max-in-flight: all dispatched, the consumer thread goes back to poll
+        libraryParallelConsumer.listener(List.of(record(0, 1), record(1, 2), record(2, 3)), consumer);
+        verify(consumer).pause(Set.of(PARTITION));
+
+        // still full: left paused
+        libraryParallelConsumer.onIdle(idle(false));
+        verify(consumer, never()).resume(any());
+
+        persisted.countDown();
+        verify(consumerMetrics, timeout(5000).times(3)).processed(1);
+
+        // paused by the container meanwhile (see ConsumerBackpressure): left to it
+        libraryParallelConsumer.onIdle(idle(true));
+        verify(consumer, never()).resume(any());
+
+        libraryParallelConsumer.onIdle(idle(false));
+        verify(consumer).resume(Set.of(PARTITION));
+    }
+
+
+    @Test
+    public void onPartitionsRevoked_waitsForTheRecordsInFlight() {
+        CountDownLatch persisted = new CountDownLatch(1);
+        doAnswer(invocation -> persisted.await(5, TimeUnit.SECONDS)).when(libraryService).processMessage(any());
+        libraryParallelConsumer.listener(List.of(record(0, 1)), consumer);
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            persisted.countDown();
+        }).start();
+
+        // committed once the record is processed, not before, so that the new owner does not process it again
+        libraryParallelConsumer.onPartitionsRevokedBeforeCommit(consumer, List.of(PARTITION));
+        verify(consumer).commitSync(Map.of(PARTITION, new OffsetAndMetadata(1)));
+    }
+
+
+    private ListenerContainerIdleEvent idle(boolean paused) {
+        return new ListenerContainerIdleEvent(this, this, 1000L, "library", List.of(PARTITION), consumer, paused);
+    }
+
+    private static ConsumerRecord<Integer, LibraryEvent> record(long offset, int bookId) {
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder().id(bookId).name("Book").author("Author").build())
+                .build();
+        return new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, null, libraryEvent);
+    }
+
+}
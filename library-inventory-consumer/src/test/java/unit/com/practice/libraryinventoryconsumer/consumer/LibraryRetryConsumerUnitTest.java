@@ -0,0 +1,108 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.config.RetryTopics;
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.metrics.ConsumerMetrics;
+import com.practice.libraryinventoryconsumer.service.LibraryService;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class LibraryRetryConsumerUnitTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("library-events-retry-1", 0);
+
+    @Mock
+    private LibraryService libraryService;
+
+    @Mock
+    private ConsumerMetrics consumerMetrics;
+
+    @Mock
+    private RetryTopics retryTopics;
+
+    @Mock
+    private Consumer<Integer, LibraryEvent> consumer;
+
+    @Mock
+    private Acknowledgment acknowledgment;
+
+    @InjectMocks
+    private LibraryRetryConsumer libraryRetryConsumer;
+
+    @BeforeEach
+    void setUp() {
+        when(consumer.assignment()).thenReturn(Set.of(PARTITION));
+    }
+
+
+    @Test
+    public void onMessage_pausesThePartitionUntilTheRecordIsDue() {
+        ConsumerRecord<Integer, LibraryEvent> first = record(5);
+        ConsumerRecord<Integer, LibraryEvent> second = record(6);
+        long dueAt = System.currentTimeMillis() + 200;
+        when(retryTopics.dueAt(first)).thenReturn(dueAt);
+
+        // not due: sought back and paused, the next record of the poll is left to the next poll as well
+        libraryRetryConsumer.onMessage(first, acknowledgment, consumer);
+        verify(consumer).seek(PARTITION, 5);
+        verify(consumer).pause(List.of(PARTITION));
+        when(consumer.paused()).thenReturn(Set.of(PARTITION));
+        libraryRetryConsumer.onMessage(second, acknowledgment, consumer);
+        verify(libraryService, never()).processMessage(any());
+        verify(acknowledgment, never()).acknowledge();
+
+        // not resumed before it is due, nor while the container is paused
+        libraryRetryConsumer.onIdle(idle(false));
+        libraryRetryConsumer.onIdle(idle(true));
+        verify(consumer, never()).resume(any());
+
+        while (System.currentTimeMillis() < dueAt)
+            Thread.onSpinWait();
+        libraryRetryConsumer.onIdle(idle(true));
+        verify(consumer, never()).resume(any());
+        libraryRetryConsumer.onIdle(idle(false));
+        verify(consumer).resume(List.of(PARTITION));
+
+        // polled again once resumed
+        when(consumerMetrics.retry()).thenReturn(Timer.builder("retry").register(new SimpleMeterRegistry()));
+        libraryRetryConsumer.onMessage(first, acknowledgment, consumer);
+        verify(libraryService).processMessage(first.value());
+        verify(acknowledgment, times(1)).acknowledge();
+    }
+
+
+    private ListenerContainerIdleEvent idle(boolean paused) {
+        return new ListenerContainerIdleEvent(this, this, 100L, "library-events-retry-1-listener", List.of(PARTITION), consumer, paused);
+    }
+
+    private static ConsumerRecord<Integer, LibraryEvent> record(long offset) {
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder().id(1).name("Book").author("Author").build())
+                .build();
+        return new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, null, libraryEvent);
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffsetTrackerUnitTest {
+
+    private final TopicPartition partition0 = new TopicPartition("library-events", 0);
+    private final TopicPartition partition1 = new TopicPartition("library-events", 1);
+
+    private final OffsetTracker offsetTracker = new OffsetTracker();
+
+
+    @Test
+    public void committableOffsets_stopAtLowestInFlightOffset() {
+        Runnable completion10 = offsetTracker.register(partition0, 10);
+        Runnable completion11 = offsetTracker.register(partition0, 11);
+        Runnable completion12 = offsetTracker.register(partition0, 12);
+
+        // 11 and 12 completed before 10
+        completion11.run();
+        completion12.run();
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committableOffsets(List.of(partition0));
+        assertEquals(10, offsets.get(partition0).offset());
+
+        completion10.run();
+
+        offsets = offsetTracker.committableOffsets(List.of(partition0));
+        assertEquals(13, offsets.get(partition0).offset());
+    }
+
+
+    @Test
+    public void committableOffsets_onlyPartitionsThatMovedForward() {
+        offsetTracker.register(partition0, 0).run();
+        offsetTracker.register(partition1, 0).run();
+
+        assertEquals(2, offsetTracker.committableOffsets(List.of(partition0, partition1)).size());
+        assertTrue(offsetTracker.committableOffsets(List.of(partition0, partition1)).isEmpty());
+
+        offsetTracker.register(partition1, 1).run();
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committableOffsets(List.of(partition0, partition1));
+        assertEquals(1, offsets.size());
+        assertEquals(2, offsets.get(partition1).offset());
+    }
+
+
+    @Test
+    public void committableOffsets_ignoreRemovedPartitions() {
+        offsetTracker.register(partition0, 5).run();
+        offsetTracker.remove(List.of(partition0));
+
+        assertTrue(offsetTracker.committableOffsets(List.of(partition0)).isEmpty());
+    }
+
+
+    @Test
+    public void complete_ignoredOnceThePartitionWasRemoved() {
+        Runnable staleCompletion = offsetTracker.register(partition0, 5);
+        offsetTracker.remove(List.of(partition0));
+
+        // assigned again, the record delivered again and still being processed
+        offsetTracker.register(partition0, 5);
+        staleCompletion.run();
+
+        assertEquals(5, offsetTracker.committableOffsets(List.of(partition0)).get(partition0).offset());
+    }
+
+
+    @Test
+    public void awaitCompletion_boundedByTheTimeout() throws InterruptedException {
+        Runnable completion = offsetTracker.register(partition0, 5);
+        offsetTracker.register(partition1, 5).run();
+
+        assertTrue(offsetTracker.awaitCompletion(List.of(partition1), 100));
+        assertFalse(offsetTracker.awaitCompletion(List.of(partition0, partition1), 100));
+
+        new Thread(completion).start();
+        assertTrue(offsetTracker.awaitCompletion(List.of(partition0, partition1), 5000));
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.practice.libraryinventoryconsumer.consumer;
+
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteBehindBufferUnitTest {
+
+    private final TopicPartition partition0 = new TopicPartition("library-events", 0);
+
+    private final WriteBehindBuffer buffer = new WriteBehindBuffer();
+
+
+    @Test
+    public void add_keepsTheLatestEventOfEachBook() {
+        assertTrue(buffer.add(consumerRecord(0, 1, "First"), 0));
+        assertTrue(buffer.add(consumerRecord(1, 2, "Other"), 0));
+        assertFalse(buffer.add(consumerRecord(2, 1, "Second"), 0));
+
+        List<WriteBehindBuffer.Pending> pending = buffer.pending();
+        assertEquals(2, pending.size());
+        assertEquals("Second", pending.get(0).getLibraryEvent().getBook().getName());
+        assertEquals("Other", pending.get(1).getLibraryEvent().getBook().getName());
+        assertEquals(1, buffer.coalesced());
+
+        // committed up to the last record, coalesced or not
+        assertEquals(3, buffer.offsets().get(partition0).offset());
+    }
+
+
+    @Test
+    public void done_onlyMovesTheOffset() {
+        buffer.add(consumerRecord(0, 1, "First"), 0);
+        buffer.done(consumerRecord(1, 2, "Failed"));
+
+        assertEquals(1, buffer.size());
+        assertEquals(2, buffer.offsets().get(partition0).offset());
+
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.offsets().isEmpty());
+    }
+
+
+    @Test
+    public void isDue_onSizeOrDelay() throws InterruptedException {
+        assertFalse(buffer.isDue(2, 0));
+
+        buffer.add(consumerRecord(0, 1, "First"), 0);
+        assertFalse(buffer.isDue(2, 60_000));
+        buffer.add(consumerRecord(1, 2, "Second"), 0);
+        assertTrue(buffer.isDue(2, 60_000));
+
+        buffer.clear();
+        buffer.add(consumerRecord(2, 3, "Third"), 0);
+        Thread.sleep(20);
+        assertTrue(buffer.isDue(100, 10));
+    }
+
+
+    private ConsumerRecord<Integer, LibraryEvent> consumerRecord(long offset, int bookId, String name) {
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder().id(bookId).name(name).author("Marco").build())
+                .build();
+        return new ConsumerRecord<>(partition0.topic(), partition0.partition(), offset, bookId, libraryEvent);
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.model.BookHit;
+import com.practice.libraryinventoryconsumer.model.BookView;
+import com.practice.libraryinventoryconsumer.repository.BookRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+public class BookSearchIndexUnitTest {
+
+    @TempDir
+    Path dir;
+
+    private final BookRepository bookRepository = Mockito.mock(BookRepository.class);
+
+
+    @Test
+    public void tokenize() {
+        assertEquals(List.of("the", "far", "side", "of", "the", "world", "o", "brian"),
+                BookSearchIndex.tokenize("The Far Side of the World - O'Brian"));
+        assertEquals(List.of("les", "miserables", "1862"), BookSearchIndex.tokenize("Les Misérables (1862)"));
+    }
+
+
+    @Test
+    public void search_everyWordMustMatch_rankedByRelevance() {
+        BookSearchIndex index = open("");
+        index.index(book(1, "Master and Commander", "Patrick O'Brian"));
+        index.index(book(2, "Post Captain", "Patrick O'Brian"));
+        index.index(book(3, "Captain Blood", "Rafael Sabatini"));
+        index.index(book(4, "Captain Captain", "Anonymous"));
+
+        // the more occurrences the better, then the shorter the better
+        assertEquals(List.of(4, 3, 2), ids(index.search("captain ", 10)));
+        assertEquals(List.of(2), ids(index.search("patrick captain ", 10)));
+        assertEquals(List.of(), ids(index.search("sabatini commander ", 10)));
+        assertEquals(List.of(1, 2), ids(index.search("patrick ", 10)).stream().sorted().collect(Collectors.toList()));
+        assertEquals(List.of(4), ids(index.search("captain ", 1)));
+    }
+
+
+    @Test
+    public void search_lastWordIsAPrefix() {
+        BookSearchIndex index = open("");
+        index.index(book(1, "Master and Commander", "Patrick O'Brian"));
+        index.index(book(2, "The Mauritius Command", "Patrick O'Brian"));
+        index.index(book(3, "Desolation Island", "Patrick O'Brian"));
+
+        assertEquals(List.of(1, 2), ids(index.search("o'brian comm", 10)).stream().sorted().collect(Collectors.toList()));
+        // unless the query ends with a space
+        assertEquals(List.of(), ids(index.search("comm ", 10)));
+    }
+
+
+    @Test
+    public void index_replacesThePreviousVersion() {
+        BookSearchIndex index = open("");
+        index.index(book(1, "Master and Commander", "Patrick O'Brian"));
+        index.index(book(1, "Post Captain", "Patrick O'Brian"));
+
+        assertEquals(1, index.size());
+        assertEquals(List.of(), ids(index.search("commander", 10)));
+        assertEquals("Post Captain", index.search("captain", 10).get(0).getName());
+
+        index.remove(1);
+        assertEquals(List.of(), ids(index.search("captain", 10)));
+    }
+
+
+    @Test
+    public void snapshot_reloadedThenReconciled() {
+        String file = dir.resolve("search.snapshot").toString();
+        BookSearchIndex index = open(file);
+        index.index(book(1, "Master and Commander", "Patrick O'Brian"));
+        index.index(book(2, "Post Captain", "Patrick O'Brian"));
+        index.stop();
+
+        BookSearchIndex reopened = open(file);
+        assertEquals(2, reopened.size());
+        assertEquals(List.of(2), ids(reopened.search("post captain", 10)));
+
+        // book 2 was deleted meanwhile, book 1 renamed
+        when(bookRepository.findViewsAfter(eq(Integer.MIN_VALUE), any(Pageable.class)))
+                .thenReturn(List.of(new BookView(1, "HMS Surprise", "Patrick O'Brian", 10)));
+        when(bookRepository.findViewsAfter(eq(1), any(Pageable.class))).thenReturn(List.of());
+        reopened.reconcile();
+
+        assertEquals(1, reopened.size());
+        assertEquals(List.of(1), ids(reopened.search("surprise", 10)));
+        assertTrue(reopened.search("captain", 10).isEmpty());
+        reopened.stop();
+    }
+
+
+    @Test
+    public void snapshot_longerThan64KB() {
+        String file = dir.resolve("search.snapshot").toString();
+        String name = "Les Misérables ".repeat(5000);
+        BookSearchIndex index = open(file);
+        index.index(book(1, name, "Victor Hugo"));
+        index.stop();
+
+        BookSearchIndex reopened = open(file);
+        assertEquals(1, reopened.size());
+        assertEquals(name, reopened.search("miserables hugo", 10).get(0).getName());
+        reopened.stop();
+    }
+
+
+    private BookSearchIndex open(String snapshotFile) {
+        BookSearchIndex index = new BookSearchIndex();
+        ReflectionTestUtils.setField(index, "bookRepository", bookRepository);
+        ReflectionTestUtils.setField(index, "snapshotFile", snapshotFile);
+        ReflectionTestUtils.setField(index, "snapshotIntervalMs", 60000L);
+        index.start();
+        return index;
+    }
+
+    private static List<Integer> ids(List<BookHit> hits) {
+        return hits.stream().map(BookHit::getId).collect(Collectors.toList());
+    }
+
+    private static Book book(int id, String name, String author) {
+        return Book.builder().id(id).name(name).author(author).build();
+    }
+
+}
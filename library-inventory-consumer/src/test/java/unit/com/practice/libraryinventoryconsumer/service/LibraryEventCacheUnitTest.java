@@ -0,0 +1,117 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.practice.libraryinventoryconsumer.entity.Book;
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class LibraryEventCacheUnitTest {
+
+    @Mock
+    private LibraryInventoryRepository repository;
+
+    private CaffeineCacheManager cacheManager;
+
+    private LibraryEventCache libraryEventCache;
+
+    @BeforeEach
+    void setUp() {
+        cacheManager = new CaffeineCacheManager(LibraryEventCache.CACHE_NAME);
+        cacheManager.setCacheSpecification("maximumSize=2,recordStats");
+
+        libraryEventCache = new LibraryEventCache();
+        ReflectionTestUtils.setField(libraryEventCache, "repository", repository);
+        ReflectionTestUtils.setField(libraryEventCache, "cacheManager", cacheManager);
+        ReflectionTestUtils.invokeMethod(libraryEventCache, "init");
+    }
+
+
+    @Test
+    public void findById_readThrough() {
+        when(repository.findById(1)).thenReturn(Optional.of(libraryEvent(1, "Master and Commander")));
+        when(repository.findById(2)).thenReturn(Optional.empty());
+
+        assertEquals("Master and Commander", libraryEventCache.findById(1).get().getBook().getName());
+        assertEquals("Master and Commander", libraryEventCache.findById(1).get().getBook().getName());
+        // misses are cached as well
+        assertFalse(libraryEventCache.findById(2).isPresent());
+        assertFalse(libraryEventCache.findById(2).isPresent());
+
+        verify(repository, times(1)).findById(1);
+        verify(repository, times(1)).findById(2);
+
+        CacheStats stats = stats();
+        assertEquals(2, stats.hitCount());
+        assertEquals(2, stats.missCount());
+    }
+
+
+    @Test
+    public void put_replacesTheCachedEvent() {
+        when(repository.findById(1)).thenReturn(Optional.empty());
+        assertFalse(libraryEventCache.findById(1).isPresent());
+
+        // written by the consumer
+        libraryEventCache.put(libraryEvent(1, "Post Captain"));
+
+        assertEquals("Post Captain", libraryEventCache.findById(1).get().getBook().getName());
+        verify(repository, times(1)).findById(1);
+
+        libraryEventCache.evict(1);
+        assertFalse(libraryEventCache.findById(1).isPresent());
+        verify(repository, times(2)).findById(1);
+    }
+
+
+    @Test
+    public void boundedInSize() {
+        for (int id = 1; id <= 10; id++)
+            libraryEventCache.put(libraryEvent(id, "HMS Surprise"));
+
+        Cache<Object, Object> nativeCache = nativeCache();
+        nativeCache.cleanUp();
+        assertTrue(nativeCache.estimatedSize() <= 2);
+        assertEquals(8, stats().evictionCount());
+        verify(repository, never()).findById(1);
+    }
+
+
+    private CacheStats stats() {
+        return nativeCache().stats();
+    }
+
+    private Cache<Object, Object> nativeCache() {
+        return ((CaffeineCache) cacheManager.getCache(LibraryEventCache.CACHE_NAME)).getNativeCache();
+    }
+
+    private static LibraryEvent libraryEvent(int id, String name) {
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(id)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder().id(id).name(name).author("Patrick O'Brian").build())
+                .build();
+        libraryEvent.getBook().setLibraryEvent(libraryEvent);
+        return libraryEvent;
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import com.practice.libraryinventoryconsumer.repository.LibraryInventoryRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class LibraryEventIndexUnitTest {
+
+    @Mock
+    private LibraryInventoryRepository repository;
+
+    @InjectMocks
+    private LibraryEventIndex libraryEventIndex;
+
+
+    @Test
+    public void exists_afterRebuild_noQuery() {
+        when(repository.findIdsAfter(eq(Integer.MIN_VALUE), any(Pageable.class))).thenReturn(List.of(1, 64, 65536, 200_000));
+        when(repository.findIdsAfter(eq(200_000), any(Pageable.class))).thenReturn(List.of());
+
+        libraryEventIndex.rebuild();
+
+        assertTrue(libraryEventIndex.isWarm());
+        assertTrue(libraryEventIndex.exists(1));
+        assertTrue(libraryEventIndex.exists(64));
+        assertTrue(libraryEventIndex.exists(65536));
+        assertTrue(libraryEventIndex.exists(200_000));
+        assertFalse(libraryEventIndex.exists(2));
+        assertFalse(libraryEventIndex.exists(65537));
+        verify(repository, never()).existsById(any());
+    }
+
+
+    @Test
+    public void exists_whileWarming_fallsBackToDatabase() {
+        when(repository.existsById(7)).thenReturn(true);
+
+        assertTrue(libraryEventIndex.exists(7));
+        // the id found in the database is now indexed
+        assertTrue(libraryEventIndex.exists(7));
+
+        verify(repository).existsById(7);
+    }
+
+
+    @Test
+    public void existing_onlyQueriesUnknownIds() {
+        libraryEventIndex.add(3);
+        when(repository.findAllById(anyCollection())).thenReturn(List.of(LibraryEvent.builder().id(5).build()));
+
+        Set<Integer> existing = libraryEventIndex.existing(List.of(3, 5, 9));
+
+        assertEquals(Set.of(3, 5), existing);
+        verify(repository).findAllById(Set.of(5, 9));
+    }
+
+}
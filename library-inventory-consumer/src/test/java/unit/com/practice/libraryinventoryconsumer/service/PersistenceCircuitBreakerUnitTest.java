@@ -0,0 +1,116 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class PersistenceCircuitBreakerUnitTest {
+
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private PersistenceCircuitBreaker persistenceCircuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(persistenceCircuitBreaker, "windowSize", 10);
+        ReflectionTestUtils.setField(persistenceCircuitBreaker, "minCalls", 4);
+        ReflectionTestUtils.setField(persistenceCircuitBreaker, "failureRate", 0.5);
+        ReflectionTestUtils.setField(persistenceCircuitBreaker, "slowRate", 0.5);
+        ReflectionTestUtils.setField(persistenceCircuitBreaker, "slowCallMs", 1000L);
+        ReflectionTestUtils.setField(persistenceCircuitBreaker, "openMs", 200L);
+        ReflectionTestUtils.setField(persistenceCircuitBreaker, "rampUpMs", 200L);
+        ReflectionTestUtils.setField(persistenceCircuitBreaker, "rampStartRate", 1000d);
+        persistenceCircuitBreaker.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        persistenceCircuitBreaker.stop();
+    }
+
+
+    @Test
+    public void recordErrors_doNotOpenTheCircuit() {
+        for (int i = 0; i < 10; i++)
+            assertThrows(DataIntegrityViolationException.class, () -> persistenceCircuitBreaker.call(() -> {
+                throw new DataIntegrityViolationException("duplicate key");
+            }));
+
+        assertEquals(PersistenceCircuitBreaker.State.CLOSED, persistenceCircuitBreaker.getState());
+    }
+
+
+    @Test
+    public void databaseErrors_openThenRampUpThenClose() {
+        assertEquals("ok", persistenceCircuitBreaker.call(() -> "ok"));
+        assertEquals("ok", persistenceCircuitBreaker.call(() -> "ok"));
+        for (int i = 0; i < 2; i++)
+            assertThrows(DataAccessResourceFailureException.class, () -> persistenceCircuitBreaker.call(() -> {
+                throw new DataAccessResourceFailureException("connection refused");
+            }));
+
+        // 2 failures out of 4 calls
+        assertEquals(PersistenceCircuitBreaker.State.OPEN, persistenceCircuitBreaker.getState());
+        PersistenceUnavailableException rejected = assertThrows(PersistenceUnavailableException.class,
+                () -> persistenceCircuitBreaker.call(() -> "not called"));
+        assertTrue(rejected.getRetryAfterMs() <= 200);
+        assertEquals(1, meterRegistry.get("library.persistence.circuit.rejected").counter().count());
+
+        ArgumentCaptor<PersistenceCircuitBreaker.StateChange> stateChanges = ArgumentCaptor.forClass(PersistenceCircuitBreaker.StateChange.class);
+        verify(applicationEventPublisher, timeout(2000).times(3)).publishEvent(stateChanges.capture());
+        assertEquals(List.of(PersistenceCircuitBreaker.State.OPEN, PersistenceCircuitBreaker.State.RAMP_UP, PersistenceCircuitBreaker.State.CLOSED),
+                stateChanges.getAllValues().stream().map(PersistenceCircuitBreaker.StateChange::getState).collect(Collectors.toList()));
+        assertEquals("ok", persistenceCircuitBreaker.call(() -> "ok"));
+    }
+
+
+    @Test
+    public void failingDuringTheRampUp_opensAgain() {
+        ReflectionTestUtils.setField(persistenceCircuitBreaker, "rampUpMs", 60000L);
+        for (int i = 0; i < 4; i++)
+            assertThrows(DataAccessResourceFailureException.class, () -> persistenceCircuitBreaker.call(() -> {
+                throw new DataAccessResourceFailureException("connection refused");
+            }));
+        verify(applicationEventPublisher, timeout(2000).times(2)).publishEvent(any(PersistenceCircuitBreaker.StateChange.class));
+        assertEquals(PersistenceCircuitBreaker.State.RAMP_UP, persistenceCircuitBreaker.getState());
+
+        // throttled, but let through
+        for (int i = 0; i < 4; i++)
+            assertThrows(DataAccessResourceFailureException.class, () -> persistenceCircuitBreaker.call(() -> {
+                throw new DataAccessResourceFailureException("connection refused");
+            }));
+
+        assertEquals(PersistenceCircuitBreaker.State.OPEN, persistenceCircuitBreaker.getState());
+        verify(applicationEventPublisher, times(3)).publishEvent(any(PersistenceCircuitBreaker.StateChange.class));
+    }
+
+}
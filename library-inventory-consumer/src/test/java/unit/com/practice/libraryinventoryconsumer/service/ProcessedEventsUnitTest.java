@@ -0,0 +1,89 @@
+package com.practice.libraryinventoryconsumer.service;
+
+import com.practice.libraryinventoryconsumer.entity.LibraryEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(MockitoExtension.class)
+public class ProcessedEventsUnitTest {
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private ProcessedEvents processedEvents;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(processedEvents, "maxEvents", 8);
+        ReflectionTestUtils.setField(processedEvents, "windowMs", 600_000L);
+        processedEvents.init();
+    }
+
+
+    @Test
+    public void contains_keysOfTheLastTwoGenerations() {
+        for (long key = 0; key < 8; key++)
+            processedEvents.add(key);
+
+        // 4 keys per generation: the first ones are dropped once two newer generations are full
+        assertTrue(processedEvents.contains(0));
+        processedEvents.add(8);
+        assertFalse(processedEvents.contains(0));
+        assertFalse(processedEvents.contains(3));
+        for (long key = 4; key <= 8; key++)
+            assertTrue(processedEvents.contains(key));
+        assertEquals(5, processedEvents.size());
+    }
+
+
+    @Test
+    public void contains_expiredWithTheWindow() {
+        ReflectionTestUtils.setField(processedEvents, "windowMs", 0L);
+        processedEvents.add(42);
+
+        // each call starts a new generation
+        assertTrue(processedEvents.contains(42));
+        assertFalse(processedEvents.contains(42));
+    }
+
+
+    @Test
+    public void isDuplicate_byOffsetWithoutEventId() {
+        LibraryEvent libraryEvent = LibraryEvent.builder().type(LibraryEvent.Type.NEW).build();
+        ConsumerRecord<Integer, LibraryEvent> consumerRecord = new ConsumerRecord<>("library-events", 0, 10, null, libraryEvent);
+
+        assertFalse(processedEvents.isDuplicate(consumerRecord));
+        processedEvents.processed(libraryEvent);
+
+        // delivered again after a rebalance
+        LibraryEvent redelivered = LibraryEvent.builder().type(LibraryEvent.Type.NEW).build();
+        assertTrue(processedEvents.isDuplicate(new ConsumerRecord<>("library-events", 0, 10, null, redelivered)));
+        assertFalse(processedEvents.isDuplicate(new ConsumerRecord<>("library-events", 1, 10, null, redelivered)));
+        assertEquals(1, meterRegistry.get("library.consumer.duplicates").counter().count());
+    }
+
+
+    @Test
+    public void key_spreadsEventIds() {
+        assertEquals(ProcessedEvents.key("a1b2".getBytes(StandardCharsets.UTF_8)), ProcessedEvents.key("a1b2".getBytes(StandardCharsets.UTF_8)));
+        assertNotEquals(ProcessedEvents.key("a1b2".getBytes(StandardCharsets.UTF_8)), ProcessedEvents.key("a1b3".getBytes(StandardCharsets.UTF_8)));
+        assertNotEquals(ProcessedEvents.key("library-events", 0, 1), ProcessedEvents.key("library-events", 1, 0));
+    }
+
+}
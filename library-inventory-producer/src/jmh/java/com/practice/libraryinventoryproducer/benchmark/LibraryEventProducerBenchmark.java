@@ -0,0 +1,77 @@
+package com.practice.libraryinventoryproducer.benchmark;
+
+import com.practice.libraryinventoryproducer.codec.LibraryEventSerializer;
+import com.practice.libraryinventoryproducer.model.Book;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import com.practice.libraryinventoryproducer.producer.LibraryEventProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the producer does for every LibraryEvent before handing it over to Kafka: encoding the value (JSON and binary,
+ * see library.wire-format) and building the ProducerRecord with its trace headers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class LibraryEventProducerBenchmark {
+
+    private LibraryEvent libraryEvent;
+
+    private LibraryEventSerializer jsonSerializer;
+
+    private LibraryEventSerializer binarySerializer;
+
+    private LibraryEventProducer libraryEventProducer;
+
+    private RecordTrace trace;
+
+    @Setup
+    public void setUp() {
+        libraryEvent = LibraryEvent.builder()
+                .id(1234)
+                .type(LibraryEvent.Type.UPDATE)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+
+        jsonSerializer = new LibraryEventSerializer();
+        jsonSerializer.configure(Map.of(LibraryEventSerializer.WIRE_FORMAT_CONFIG, "json"), false);
+        binarySerializer = new LibraryEventSerializer();
+        binarySerializer.configure(Map.of(LibraryEventSerializer.WIRE_FORMAT_CONFIG, "binary"), false);
+
+        // buildProducerRecord does not need the KafkaTemplate
+        libraryEventProducer = new LibraryEventProducer();
+        trace = RecordTrace.start(null);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return jsonSerializer.serialize("library-events", new RecordHeaders(), libraryEvent);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return binarySerializer.serialize("library-events", new RecordHeaders(), libraryEvent);
+    }
+
+    @Benchmark
+    public ProducerRecord<Integer, LibraryEvent> buildProducerRecord() {
+        return libraryEventProducer.buildProducerRecord(libraryEvent.getId(), libraryEvent, "library-events", trace);
+    }
+
+}
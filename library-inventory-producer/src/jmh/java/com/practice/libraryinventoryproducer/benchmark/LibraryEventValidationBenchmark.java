@@ -0,0 +1,62 @@
+package com.practice.libraryinventoryproducer.benchmark;
+
+import com.practice.libraryinventoryproducer.model.Book;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bean Validation of a LibraryEvent, as done by @Valid on the controller and by the bulk upload: a valid event, and
+ * one with every Book constraint violated (building the violations is the expensive part).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class LibraryEventValidationBenchmark {
+
+    private Validator validator;
+
+    private LibraryEvent validLibraryEvent;
+
+    private LibraryEvent invalidLibraryEvent;
+
+    @Setup
+    public void setUp() {
+        validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+        validLibraryEvent = LibraryEvent.builder()
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+        invalidLibraryEvent = LibraryEvent.builder()
+                .type(LibraryEvent.Type.NEW)
+                .book(new Book())
+                .build();
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<LibraryEvent>> validateValid() {
+        return validator.validate(validLibraryEvent);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<LibraryEvent>> validateInvalid() {
+        return validator.validate(invalidLibraryEvent);
+    }
+
+}
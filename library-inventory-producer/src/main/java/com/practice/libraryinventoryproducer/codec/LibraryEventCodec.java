@@ -0,0 +1,189 @@
+package com.practice.libraryinventoryproducer.codec;
+
+import com.practice.libraryinventoryproducer.model.Book;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary wire format of a LibraryEvent, shared with the consumer (which has its own copy of this class):
+ * <pre>
+ * version    1 byte, currently 1
+ * presence   1 byte, one bit per nullable field: id, type, book, book.id, book.name, book.author
+ * id         zig-zag varint
+ * type       1 byte, 0 = NEW, 1 = UPDATE
+ * book.id    zig-zag varint
+ * book.name  varint length + UTF-8 bytes
+ * book.author varint length + UTF-8 bytes
+ * </pre>
+ * Absent fields take no space. A new version must keep decoding the previous ones.
+ */
+public final class LibraryEventCodec {
+
+    public static final String CONTENT_TYPE_HEADER = "content-type";
+    public static final String JSON = "application/json";
+    public static final String BINARY = "application/x-library-event";
+
+    static final byte VERSION = 1;
+
+    private static final int ID = 1;
+    private static final int TYPE = 1 << 1;
+    private static final int BOOK = 1 << 2;
+    private static final int BOOK_ID = 1 << 3;
+    private static final int BOOK_NAME = 1 << 4;
+    private static final int BOOK_AUTHOR = 1 << 5;
+
+    private LibraryEventCodec() {
+    }
+
+    public static byte[] encode(LibraryEvent libraryEvent) {
+        Book book = libraryEvent.getBook();
+        byte[] name = book == null || book.getName() == null ? null : book.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] author = book == null || book.getAuthor() == null ? null : book.getAuthor().getBytes(StandardCharsets.UTF_8);
+
+        int presence = 0;
+        int size = 2;
+        if (libraryEvent.getId() != null) {
+            presence |= ID;
+            size += varIntSize(zigZag(libraryEvent.getId()));
+        }
+        if (libraryEvent.getType() != null) {
+            presence |= TYPE;
+            size += 1;
+        }
+        if (book != null) {
+            presence |= BOOK;
+            if (book.getId() != null) {
+                presence |= BOOK_ID;
+                size += varIntSize(zigZag(book.getId()));
+            }
+            if (name != null) {
+                presence |= BOOK_NAME;
+                size += varIntSize(name.length) + name.length;
+            }
+            if (author != null) {
+                presence |= BOOK_AUTHOR;
+                size += varIntSize(author.length) + author.length;
+            }
+        }
+
+        byte[] data = new byte[size];
+        int position = 0;
+        data[position++] = VERSION;
+        data[position++] = (byte) presence;
+        if ((presence & ID) != 0)
+            position = writeVarInt(data, position, zigZag(libraryEvent.getId()));
+        if ((presence & TYPE) != 0)
+            data[position++] = (byte) libraryEvent.getType().ordinal();
+        if ((presence & BOOK_ID) != 0)
+            position = writeVarInt(data, position, zigZag(book.getId()));
+        if ((presence & BOOK_NAME) != 0)
+            position = writeBytes(data, position, name);
+        if ((presence & BOOK_AUTHOR) != 0)
+            writeBytes(data, position, author);
+        return data;
+    }
+
+    public static LibraryEvent decode(byte[] data) {
+        Reader reader = new Reader(data);
+        byte version = reader.readByte();
+        if (version != VERSION)
+            throw new SerializationException("Unsupported LibraryEvent version: " + version);
+
+        int presence = reader.readByte();
+        LibraryEvent libraryEvent = new LibraryEvent();
+        if ((presence & ID) != 0)
+            libraryEvent.setId(unZigZag(reader.readVarInt()));
+        if ((presence & TYPE) != 0)
+            libraryEvent.setType(readType(reader.readByte()));
+        if ((presence & BOOK) != 0) {
+            Book book = new Book();
+            if ((presence & BOOK_ID) != 0)
+                book.setId(unZigZag(reader.readVarInt()));
+            if ((presence & BOOK_NAME) != 0)
+                book.setName(reader.readString());
+            if ((presence & BOOK_AUTHOR) != 0)
+                book.setAuthor(reader.readString());
+            libraryEvent.setBook(book);
+        }
+        return libraryEvent;
+    }
+
+    private static LibraryEvent.Type readType(byte ordinal) {
+        LibraryEvent.Type[] types = LibraryEvent.Type.values();
+        if (ordinal < 0 || ordinal >= types.length)
+            throw new SerializationException("Unknown LibraryEvent type: " + ordinal);
+        return types[ordinal];
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarInt(byte[] data, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+
+    private static int writeBytes(byte[] data, int position, byte[] bytes) {
+        position = writeVarInt(data, position, bytes.length);
+        System.arraycopy(bytes, 0, data, position, bytes.length);
+        return position + bytes.length;
+    }
+
+
+    private static class Reader {
+
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        byte readByte() {
+            if (position >= data.length)
+                throw new SerializationException("Truncated LibraryEvent");
+            return data[position++];
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new SerializationException("Malformed varint in LibraryEvent");
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (length < 0 || length > data.length - position)
+                throw new SerializationException("Truncated LibraryEvent");
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+
+}
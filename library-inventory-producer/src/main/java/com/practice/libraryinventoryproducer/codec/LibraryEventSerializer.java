@@ -0,0 +1,56 @@
+package com.practice.libraryinventoryproducer.codec;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes a LibraryEvent either as JSON or in the LibraryEventCodec binary format, according to the
+ * library.wire-format producer property (json by default), and tells the consumer which one through the
+ * content-type header, so that both formats can coexist on the topic while rolling out the binary one.
+ */
+public class LibraryEventSerializer implements Serializer<LibraryEvent> {
+
+    public static final String WIRE_FORMAT_CONFIG = "library.wire-format";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private boolean binary;
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object wireFormat = configs.get(WIRE_FORMAT_CONFIG);
+        binary = wireFormat != null && "binary".equalsIgnoreCase(wireFormat.toString().trim());
+    }
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, LibraryEvent libraryEvent) {
+        if (libraryEvent == null)
+            return null;
+
+        headers.remove(LibraryEventCodec.CONTENT_TYPE_HEADER);
+        headers.add(LibraryEventCodec.CONTENT_TYPE_HEADER,
+                (binary ? LibraryEventCodec.BINARY : LibraryEventCodec.JSON).getBytes(StandardCharsets.UTF_8));
+        return binary ? LibraryEventCodec.encode(libraryEvent) : serialize(topic, libraryEvent);
+    }
+
+    // without headers the consumer assumes JSON
+    @Override
+    public byte[] serialize(String topic, LibraryEvent libraryEvent) {
+        if (libraryEvent == null)
+            return null;
+
+        try {
+            return objectMapper.writeValueAsBytes(libraryEvent);
+        } catch (JsonProcessingException ex) {
+            throw new SerializationException("Could not serialize LibraryEvent", ex);
+        }
+    }
+
+}
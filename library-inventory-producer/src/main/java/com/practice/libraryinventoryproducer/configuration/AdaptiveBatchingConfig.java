@@ -0,0 +1,36 @@
+package com.practice.libraryinventoryproducer.configuration;
+
+import com.practice.libraryinventoryproducer.producer.AdaptiveKafkaTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.ProducerListener;
+import org.springframework.kafka.support.converter.RecordMessageConverter;
+
+@Configuration
+@ConditionalOnProperty(name = "custom.producer.adaptive.enabled", havingValue = "true")
+public class AdaptiveBatchingConfig {
+
+    // in place of the Spring Boot KafkaTemplate, set up the same way
+    @Bean
+    AdaptiveKafkaTemplate<?, ?> kafkaTemplate(ProducerFactory<Object, Object> kafkaProducerFactory,
+                                              ProducerListener<Object, Object> kafkaProducerListener,
+                                              ObjectProvider<RecordMessageConverter> messageConverter,
+                                              KafkaProperties properties) {
+        if (!(kafkaProducerFactory instanceof DefaultKafkaProducerFactory))
+            throw new IllegalStateException("Adaptive batching needs a DefaultKafkaProducerFactory, found "
+                    + kafkaProducerFactory.getClass().getName());
+
+        AdaptiveKafkaTemplate<Object, Object> kafkaTemplate =
+                new AdaptiveKafkaTemplate<>((DefaultKafkaProducerFactory<Object, Object>) kafkaProducerFactory);
+        messageConverter.ifUnique(kafkaTemplate::setMessageConverter);
+        kafkaTemplate.setProducerListener(kafkaProducerListener);
+        kafkaTemplate.setDefaultTopic(properties.getTemplate().getDefaultTopic());
+        return kafkaTemplate;
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.practice.libraryinventoryproducer.configuration;
+
+import com.practice.libraryinventoryproducer.partitioner.BookPartitioner;
+import com.practice.libraryinventoryproducer.partitioner.PartitionLoadStats;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.DefaultKafkaProducerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Map;
+
+@Configuration
+@ConditionalOnProperty(name = "custom.partitioner.by-book", havingValue = "true", matchIfMissing = true)
+public class PartitionerConfig {
+
+    // the partitioner is created by the Kafka producer: the Spring managed stats are handed over through its configs
+    @Bean
+    DefaultKafkaProducerFactoryCustomizer bookPartitionerCustomizer(PartitionLoadStats partitionLoadStats) {
+        return producerFactory -> producerFactory.updateConfigs(Map.of(
+                ProducerConfig.PARTITIONER_CLASS_CONFIG, BookPartitioner.class,
+                BookPartitioner.STATS_CONFIG, partitionLoadStats));
+    }
+
+}
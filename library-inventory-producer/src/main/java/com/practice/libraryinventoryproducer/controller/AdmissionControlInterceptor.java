@@ -0,0 +1,98 @@
+package com.practice.libraryinventoryproducer.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.practice.libraryinventoryproducer.producer.ProducerLoadMonitor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control in front of the LibraryEventController, so that a burst is turned away before the Kafka producer
+ * starts blocking request threads:
+ * - 503 while the producer is overloaded (see ProducerLoadMonitor);
+ * - 429 once a client has used its token bucket (custom.admission.client.burst requests, refilled at
+ * custom.admission.client.rate-per-second). Clients are told apart by their authenticated principal, or by address
+ * (behind a proxy, see server.forward-headers-strategy), never by a header they could change at will. The buckets
+ * are kept in a Caffeine cache bounded by custom.admission.client.max-tracked, and dropped once idle for a minute.
+ * Both come with a Retry-After header.
+ */
+@Component
+@Slf4j
+public class AdmissionControlInterceptor implements HandlerInterceptor {
+
+    @Autowired
+    private ProducerLoadMonitor producerLoadMonitor;
+
+    @Value("${custom.admission.client.burst:200}")
+    private double burst;
+
+    @Value("${custom.admission.client.rate-per-second:100}")
+    private double ratePerSecond;
+
+    // above it, the least recently used buckets are dropped
+    @Value("${custom.admission.client.max-tracked:10000}")
+    private int maxTracked;
+
+    private Cache<String, TokenBucket> buckets;
+
+    // an idle bucket is full again long before: a new one would be the same
+    @PostConstruct
+    void init() {
+        buckets = Caffeine.newBuilder()
+                .maximumSize(maxTracked)
+                .expireAfterAccess(1, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        // already admitted: this is the dispatch writing the response of an async request
+        if (request.getDispatcherType() == DispatcherType.ASYNC)
+            return true;
+
+        if (producerLoadMonitor.isOverloaded()) {
+            log.warn("Request rejected, producer overloaded: {} {}", request.getMethod(), request.getRequestURI());
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, 1, "Kafka producer overloaded, retry later");
+            return false;
+        }
+
+        long now = System.nanoTime();
+        long waitNanos = bucket(clientId(request), now).tryConsume(now);
+        if (waitNanos > 0) {
+            long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999));
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, retryAfterSeconds, "Too many requests, retry later");
+            return false;
+        }
+        return true;
+    }
+
+    private TokenBucket bucket(String clientId, long now) {
+        return buckets.get(clientId, id -> new TokenBucket(burst, ratePerSecond, now));
+    }
+
+    private static String clientId(HttpServletRequest request) {
+        Principal principal = request.getUserPrincipal();
+        return principal != null ? "principal:" + principal.getName() : request.getRemoteAddr();
+    }
+
+    private static void reject(HttpServletResponse response, HttpStatus status, long retryAfterSeconds, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType("text/plain");
+        response.getWriter().write(message);
+    }
+
+}
@@ -1,17 +1,22 @@
 package com.practice.libraryinventoryproducer.controller;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.practice.libraryinventoryproducer.model.BulkIngestResult;
 import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import com.practice.libraryinventoryproducer.producer.LibraryEventBulkProducer;
 import com.practice.libraryinventoryproducer.producer.LibraryEventProducer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.ZonedDateTime;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @RequestMapping("/api/v1")
@@ -21,27 +26,55 @@ public class LibraryEventController {
     @Autowired
     private LibraryEventProducer libraryEventProducer;
 
+    @Autowired
+    private LibraryEventBulkProducer libraryEventBulkProducer;
+
+    // The response is written once the broker acks the record, without holding the request thread in the meantime;
+    // a failed or timed out send is answered by the LibraryEventControllerAdvice.
+    // 202 means that the event was stored in the local outbox, to be sent as soon as the brokers are back.
+    // The X-Request-Id (or a generated one) follows the event up to the consumer, see RecordTrace.
     @PostMapping("/library-event")
-    public ResponseEntity<HttpStatus> postLibraryEvent(@Valid @RequestBody LibraryEvent libraryEvent) throws JsonProcessingException {
-        log.info("New postLibraryEvent - timestamp: {}", ZonedDateTime.now().toString());
+    public CompletableFuture<ResponseEntity<HttpStatus>> postLibraryEvent(@Valid @RequestBody LibraryEvent libraryEvent,
+            @RequestHeader(value = RecordTrace.REQUEST_ID_HEADER, required = false) String requestId) {
+        RecordTrace trace = RecordTrace.start(requestId);
+        log.info("New postLibraryEvent - timestamp: {}, trace-id: {}", ZonedDateTime.now().toString(), trace.getTraceId());
 
         libraryEvent.setType(LibraryEvent.Type.NEW);
-        libraryEventProducer.sendLibraryEvent(libraryEvent);
-
-        return new ResponseEntity<>(HttpStatus.CREATED);
+        return libraryEventProducer.sendLibraryEventAsync(libraryEvent, trace)
+                .thenApply(result -> ResponseEntity.status(result == null ? HttpStatus.ACCEPTED : HttpStatus.CREATED)
+                        .header(RecordTrace.REQUEST_ID_HEADER, trace.getTraceId())
+                        .build());
     }
 
     @PutMapping("/library-event")
-    public ResponseEntity<?> putLibraryEvent(@RequestBody @Valid LibraryEvent libraryEvent) throws JsonProcessingException, ExecutionException, InterruptedException {
-        log.info("New putLibraryEvent - timestamp: {}", ZonedDateTime.now().toString());
+    public CompletableFuture<ResponseEntity<?>> putLibraryEvent(@RequestBody @Valid LibraryEvent libraryEvent,
+            @RequestHeader(value = RecordTrace.REQUEST_ID_HEADER, required = false) String requestId) {
+        RecordTrace trace = RecordTrace.start(requestId);
+        log.info("New putLibraryEvent - timestamp: {}, trace-id: {}", ZonedDateTime.now().toString(), trace.getTraceId());
 
         if (libraryEvent.getId()==null) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("LibraryEvent's ID is required");
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("LibraryEvent's ID is required"));
         }
 
         libraryEvent.setType(LibraryEvent.Type.UPDATE);
-        libraryEventProducer.sendLibraryEvent(libraryEvent);
-        return new ResponseEntity<>(HttpStatus.OK);
+        return libraryEventProducer.sendLibraryEventAsync(libraryEvent, trace)
+                .thenApply(result -> ResponseEntity.status(result == null ? HttpStatus.ACCEPTED : HttpStatus.OK)
+                        .header(RecordTrace.REQUEST_ID_HEADER, trace.getTraceId())
+                        .build());
+    }
+
+    // one LibraryEvent per line, read as a stream: see LibraryEventBulkProducer;
+    // 202 when some records were not acknowledged by the broker yet; all the records share the upload's trace-id
+    @PostMapping(value = "/library-events:bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<BulkIngestResult> postLibraryEvents(InputStream ndjson,
+            @RequestHeader(value = RecordTrace.REQUEST_ID_HEADER, required = false) String requestId) throws IOException, InterruptedException {
+        RecordTrace trace = RecordTrace.start(requestId);
+        log.info("New postLibraryEvents - timestamp: {}, trace-id: {}", ZonedDateTime.now().toString(), trace.getTraceId());
+
+        BulkIngestResult result = libraryEventBulkProducer.sendLibraryEvents(ndjson, trace);
+        return ResponseEntity.status(result.getPending() > 0 ? HttpStatus.ACCEPTED : HttpStatus.OK)
+                .header(RecordTrace.REQUEST_ID_HEADER, trace.getTraceId())
+                .body(result);
     }
 
 
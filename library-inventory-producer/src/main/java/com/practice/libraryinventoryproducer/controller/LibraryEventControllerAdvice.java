@@ -1,7 +1,10 @@
 package com.practice.libraryinventoryproducer.controller;
 
+import com.practice.libraryinventoryproducer.outbox.OutboxFullException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.kafka.KafkaException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -9,6 +12,7 @@ import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
 import java.util.List;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -30,4 +34,33 @@ public class LibraryEventControllerAdvice {
         return new ResponseEntity<>(errorMessage, HttpStatus.BAD_REQUEST);
     }
 
+    // the broker did not ack the LibraryEvent in time (see LibraryEventProducer.sendLibraryEventAsync)
+    @ExceptionHandler({TimeoutException.class, org.apache.kafka.common.errors.TimeoutException.class})
+    public ResponseEntity<?> handleSendTimeout(Exception ex) {
+        log.error("LibraryEvent not acknowledged in time: {}", ex.getMessage());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        return new ResponseEntity<>("Kafka did not acknowledge the LibraryEvent in time", headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    // the event could not be sent right away, and the outbox is full (see LibraryEventOutbox)
+    @ExceptionHandler(OutboxFullException.class)
+    public ResponseEntity<?> handleOutboxFull(OutboxFullException ex) {
+        log.error("LibraryEvent not stored: {}", ex.getMessage());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        return new ResponseEntity<>("LibraryEvent could not be sent to Kafka nor stored, retry later", headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @ExceptionHandler(KafkaException.class)
+    public ResponseEntity<?> handleSendFailure(KafkaException ex) {
+        if (ex.getCause() instanceof org.apache.kafka.common.errors.TimeoutException)
+            return handleSendTimeout(ex);
+
+        log.error("LibraryEvent not sent: {}", ex.getMessage());
+        return new ResponseEntity<>("LibraryEvent could not be sent to Kafka", HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
 }
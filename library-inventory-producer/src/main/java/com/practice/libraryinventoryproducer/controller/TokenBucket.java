@@ -0,0 +1,38 @@
+package com.practice.libraryinventoryproducer.controller;
+
+/**
+ * Classic token bucket: up to capacity requests in a burst, refilled at ratePerSecond.
+ */
+class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(double capacity, double ratePerSecond, long now) {
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.refilledAt = now;
+    }
+
+    /**
+     * Takes a token; returns 0 if one was available, otherwise the nanos to wait for the next one.
+     */
+    synchronized long tryConsume(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.practice.libraryinventoryproducer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk upload: rejected lines failed parsing or validation and were never sent, failed lines were
+ * rejected by the broker. Pending records were sent but not acknowledged within custom.bulk.drain-timeout-ms: they
+ * may still be written or fail. At most custom.bulk.max-reported-errors errors are listed.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkIngestResult {
+
+    private long lines;
+    private long accepted;
+    private long rejected;
+    private long failed;
+    private long pending;
+    private List<LineError> errors;
+    private boolean errorsTruncated;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class LineError {
+        private long line;
+        private String error;
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.practice.libraryinventoryproducer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Follows a LibraryEvent from the HTTP request to the consumer's database, in the record headers:
+ * - trace-id: the X-Request-Id of the request (echoed in the response), or a random UUID;
+ * - ingest-time-us: when the controller received the request;
+ * - send-time-us: when the record was handed over to the Kafka producer.
+ * Times are wall clock microseconds since the epoch, so that the consumer can compare them with its own clock.
+ */
+@Getter
+@AllArgsConstructor
+public class RecordTrace {
+
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+    public static final String TRACE_ID_HEADER = "trace-id";
+    public static final String INGEST_TIME_HEADER = "ingest-time-us";
+    public static final String SEND_TIME_HEADER = "send-time-us";
+
+    private static final int MAX_TRACE_ID_LENGTH = 128;
+
+    private final String traceId;
+    private final long ingestTimeMicros;
+
+    public static RecordTrace start(String requestId) {
+        String traceId = requestId == null || requestId.isBlank() ? UUID.randomUUID().toString()
+                : requestId.length() > MAX_TRACE_ID_LENGTH ? requestId.substring(0, MAX_TRACE_ID_LENGTH)
+                : requestId;
+        return new RecordTrace(traceId, nowMicros());
+    }
+
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+    }
+
+}
@@ -0,0 +1,314 @@
+package com.practice.libraryinventoryproducer.outbox;
+
+import com.practice.libraryinventoryproducer.codec.LibraryEventCodec;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local store of the LibraryEvents that could not be handed over to Kafka, replayed in order by the
+ * OutboxDrainer.
+ * Events are kept in memory-mapped segment files of custom.outbox.segment-bytes bytes (00000000000000000001.segment,
+ * ...), each record being:
+ * <pre>
+ * length  4 bytes, 0 marks the end of the written records
+ * crc     4 bytes, CRC32 of the payload
+ * payload the event id, trace id (each 2 bytes length + UTF-8 bytes) and ingest time (8 bytes) of the record the
+ *         event was meant for, then the event in the LibraryEventCodec binary format
+ * </pre>
+ * Every delivery of an event thus carries the same event-id and trace headers (see LibraryEventProducer).
+ * The position of the first record not yet delivered is kept in a checkpoint file; segments entirely delivered are
+ * deleted. After a crash the segments are scanned up to the first invalid record, and the records delivered after the
+ * last checkpoint are sent again (at least once).
+ * The segments take at most custom.outbox.max-bytes: past it, append throws an OutboxFullException.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.outbox.enabled", havingValue = "true")
+public class LibraryEventOutbox {
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+
+    @Value("${custom.outbox.dir:${java.io.tmpdir}/library-inventory-outbox}")
+    private String dir;
+
+    @Value("${custom.outbox.segment-bytes:16777216}")
+    private int segmentBytes;
+
+    // at least one segment
+    @Value("${custom.outbox.max-bytes:1073741824}")
+    private long maxBytes;
+
+    // msync every append: survives an OS crash as well, at the cost of a disk flush per event
+    @Value("${custom.outbox.force-on-append:false}")
+    private boolean forceOnAppend;
+
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+
+    private MappedByteBuffer checkpoint;
+
+    private long writeSegment;
+    private int writePosition;
+
+    private long readSegment;
+    private int readPosition;
+
+    private long pending;
+
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        Path directory = Paths.get(dir);
+        Files.createDirectories(directory);
+
+        try (FileChannel channel = FileChannel.open(directory.resolve("checkpoint"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            checkpoint = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX))
+                    segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), map(file));
+            }
+        }
+
+        if (segments.isEmpty())
+            segments.put(1L, map(segmentPath(1L)));
+
+        // segment index and position in one long, so that a checkpoint is never half written
+        long position = checkpoint.getLong(0);
+        readSegment = Math.max(position >>> 32, segments.firstKey());
+        readPosition = readSegment == position >>> 32 ? (int) position : 0;
+        while (segments.firstKey() < readSegment)
+            delete(segments.firstKey());
+
+        writeSegment = segments.lastKey();
+        writePosition = 0;
+        for (long segment : segments.keySet()) {
+            int end = recover(segment);
+            if (segment == writeSegment)
+                writePosition = end;
+        }
+
+        log.info("Outbox opened in {}; {} events pending", directory.toAbsolutePath(), pending);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        segments.values().forEach(MappedByteBuffer::force);
+        checkpoint.force();
+    }
+
+
+    public synchronized void append(LibraryEvent libraryEvent, RecordTrace trace, String eventId) {
+        byte[] payload = encode(libraryEvent, trace, eventId);
+        if (RECORD_HEADER_BYTES + payload.length > segmentBytes)
+            throw new IllegalArgumentException("LibraryEvent too large for the outbox: " + payload.length + " bytes");
+
+        if (writePosition + RECORD_HEADER_BYTES + payload.length > segmentBytes)
+            roll();
+
+        MappedByteBuffer segment = segments.get(writeSegment);
+        int next = writePosition + RECORD_HEADER_BYTES + payload.length;
+        if (next + RECORD_HEADER_BYTES <= segmentBytes)
+            segment.putInt(next, 0); // in case of leftovers of a record dropped by recover
+        segment.putInt(writePosition + Integer.BYTES, crc(payload));
+        segment.duplicate().position(writePosition + RECORD_HEADER_BYTES).put(payload);
+        // the length goes last: a reader never sees a record that is not complete
+        segment.putInt(writePosition, payload.length);
+        writePosition = next;
+        pending++;
+
+        if (forceOnAppend)
+            segment.force();
+    }
+
+    public synchronized boolean isEmpty() {
+        return pending == 0;
+    }
+
+    public synchronized long pending() {
+        return pending;
+    }
+
+    /**
+     * Oldest events not yet delivered, at most max of them; nothing changes until they are committed.
+     */
+    public synchronized List<Entry> peek(int max) {
+        List<Entry> entries = new ArrayList<>(Math.min(max, (int) Math.min(pending, Integer.MAX_VALUE)));
+        long segment = readSegment;
+        int position = readPosition;
+
+        while (entries.size() < max) {
+            MappedByteBuffer buffer = segments.get(segment);
+            int length = position + RECORD_HEADER_BYTES <= segmentBytes ? buffer.getInt(position) : 0;
+            if (length == 0) {
+                if (segment == writeSegment)
+                    break;
+                segment = segments.higherKey(segment);
+                position = 0;
+                continue;
+            }
+
+            byte[] payload = read(buffer, position, length);
+            position += RECORD_HEADER_BYTES + length;
+            entries.add(decode(payload, segment, position));
+        }
+        return entries;
+    }
+
+    /**
+     * Marks the entries returned by peek as delivered, possibly only the first ones of them.
+     */
+    public synchronized void commit(List<Entry> delivered) {
+        if (delivered.isEmpty())
+            return;
+
+        Entry last = delivered.get(delivered.size() - 1);
+        while (readSegment < last.getSegment()) {
+            delete(readSegment);
+            readSegment = segments.firstKey();
+        }
+        readPosition = last.getNextPosition();
+        pending -= delivered.size();
+        checkpoint.putLong(0, readSegment << 32 | readPosition);
+    }
+
+
+    private void roll() {
+        if ((segments.size() + 1L) * segmentBytes > maxBytes)
+            throw new OutboxFullException("Outbox full: " + pending + " events pending in " + segments.size() + " segments");
+
+        segments.get(writeSegment).force();
+        writeSegment++;
+        writePosition = 0;
+        try {
+            segments.put(writeSegment, map(segmentPath(writeSegment)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        log.info("Outbox rolled to segment {}", writeSegment);
+    }
+
+    private void delete(long segment) {
+        segments.remove(segment);
+        try {
+            Files.deleteIfExists(segmentPath(segment));
+        } catch (IOException ex) {
+            log.warn("Outbox segment {} not deleted: {}", segment, ex.getMessage());
+        }
+    }
+
+    // end of the valid records of a segment, a torn or corrupted record and what follows it are overwritten
+    private int recover(long segment) {
+        MappedByteBuffer buffer = segments.get(segment);
+        int position = 0;
+        while (position + RECORD_HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_BYTES + length > segmentBytes)
+                break;
+
+            byte[] payload = read(buffer, position, length);
+            if (crc(payload) != buffer.getInt(position + Integer.BYTES)) {
+                log.warn("Outbox segment {}: invalid record at {}, dropping the rest of the segment", segment, position);
+                break;
+            }
+
+            if (segment > readSegment || position >= readPosition)
+                pending++;
+            position += RECORD_HEADER_BYTES + length;
+        }
+
+        if (position + RECORD_HEADER_BYTES <= segmentBytes)
+            buffer.putInt(position, 0);
+        return position;
+    }
+
+    private static byte[] encode(LibraryEvent libraryEvent, RecordTrace trace, String eventId) {
+        byte[] id = eventId.getBytes(StandardCharsets.UTF_8);
+        byte[] traceId = trace.getTraceId().getBytes(StandardCharsets.UTF_8);
+        byte[] event = LibraryEventCodec.encode(libraryEvent);
+        return ByteBuffer.allocate(2 * Short.BYTES + id.length + traceId.length + Long.BYTES + event.length)
+                .putShort((short) id.length).put(id)
+                .putShort((short) traceId.length).put(traceId)
+                .putLong(trace.getIngestTimeMicros())
+                .put(event)
+                .array();
+    }
+
+    private static Entry decode(byte[] payload, long segment, int nextPosition) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        String eventId = string(buffer);
+        RecordTrace trace = new RecordTrace(string(buffer), buffer.getLong());
+        byte[] event = new byte[buffer.remaining()];
+        buffer.get(event);
+        return new Entry(LibraryEventCodec.decode(event), trace, eventId, segment, nextPosition);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(MappedByteBuffer buffer, int position, int length) {
+        byte[] payload = new byte[length];
+        buffer.duplicate().position(position + RECORD_HEADER_BYTES).get(payload);
+        return payload;
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return Paths.get(dir).resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final LibraryEvent libraryEvent;
+        private final RecordTrace trace;
+        private final String eventId;
+        private final long segment;
+        private final int nextPosition;
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.practice.libraryinventoryproducer.outbox;
+
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.producer.LibraryEventProducer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Replays the LibraryEventOutbox to Kafka on a background thread: up to custom.outbox.drain-batch events are sent at
+ * once. The outbox is committed up to the first event not acknowledged; the events acknowledged after it are
+ * remembered, and only the others are sent again, so that none is written twice (unless the drainer restarts in
+ * between, or a send timed out here but was written after all). The producer is idempotent with at most 5 requests in
+ * flight (see application.properties), so that its own retries neither duplicate nor reorder the records of a
+ * partition.
+ * While the brokers are unreachable it retries every custom.outbox.retry-backoff-ms.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.outbox.enabled", havingValue = "true")
+public class OutboxDrainer {
+
+    @Autowired
+    private LibraryEventOutbox outbox;
+
+    @Autowired
+    private KafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    // the headers of the records, the same ones as the first attempt
+    @Autowired
+    private LibraryEventProducer libraryEventProducer;
+
+    @Value("${custom.outbox.drain-batch:100}")
+    private int drainBatch;
+
+    @Value("${custom.outbox.idle-interval-ms:200}")
+    private long idleIntervalMs;
+
+    @Value("${custom.outbox.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    @Value("${custom.kafka.send-timeout-ms:3000}")
+    private long sendTimeoutMs;
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+    // acknowledged, but after an event that was not: by segment and position, read by the drainer thread only
+    private final Set<Long> acknowledged = new HashSet<>();
+
+
+    @PostConstruct
+    void start() {
+        running = true;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-outbox-drainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::run);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+
+    private void run() {
+        while (running) {
+            try {
+                if (!drain())
+                    Thread.sleep(idleIntervalMs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                log.warn("Outbox not drained, {} events pending: {}", outbox.pending(), ex.getMessage());
+                try {
+                    Thread.sleep(retryBackoffMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the next batch of the outbox; returns false when there was nothing to send.
+     */
+    boolean drain() throws Exception {
+        List<LibraryEventOutbox.Entry> entries = outbox.peek(drainBatch);
+        if (entries.isEmpty())
+            return false;
+
+        List<CompletableFuture<SendResult<Integer, LibraryEvent>>> futures = new ArrayList<>(entries.size());
+        for (LibraryEventOutbox.Entry entry : entries) {
+            if (acknowledged.contains(position(entry))) {
+                futures.add(null);
+                continue;
+            }
+            LibraryEvent libraryEvent = entry.getLibraryEvent();
+            try {
+                futures.add(kafkaTemplate.send(libraryEventProducer.buildProducerRecord(libraryEvent.getId(), libraryEvent,
+                        kafkaTemplate.getDefaultTopic(), entry.getTrace(), entry.getEventId())).completable());
+            } catch (Exception ex) { // e.g. no metadata within max.block.ms: the events sent before are still waited for
+                futures.add(CompletableFuture.failedFuture(ex));
+            }
+        }
+
+        Exception failure = null;
+        for (int i = 0; i < entries.size(); i++) {
+            if (futures.get(i) == null)
+                continue;
+            try {
+                futures.get(i).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+                acknowledged.add(position(entries.get(i)));
+            } catch (ExecutionException | TimeoutException ex) {
+                if (failure == null)
+                    failure = ex;
+            }
+        }
+
+        int delivered = 0;
+        while (delivered < entries.size() && acknowledged.remove(position(entries.get(delivered))))
+            delivered++;
+        outbox.commit(entries.subList(0, delivered));
+
+        if (failure != null)
+            throw failure;
+
+        log.info("Outbox: {} events sent to Kafka, {} pending", delivered, outbox.pending());
+        return true;
+    }
+
+    private static long position(LibraryEventOutbox.Entry entry) {
+        return entry.getSegment() << 32 | entry.getNextPosition();
+    }
+
+}
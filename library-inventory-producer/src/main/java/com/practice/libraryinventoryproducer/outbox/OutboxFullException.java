@@ -0,0 +1,12 @@
+package com.practice.libraryinventoryproducer.outbox;
+
+/**
+ * The LibraryEventOutbox reached custom.outbox.max-bytes: the event was not stored, the caller has to retry later.
+ */
+public class OutboxFullException extends RuntimeException {
+
+    public OutboxFullException(String message) {
+        super(message);
+    }
+
+}
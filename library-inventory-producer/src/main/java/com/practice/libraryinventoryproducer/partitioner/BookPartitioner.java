@@ -0,0 +1,69 @@
+package com.practice.libraryinventoryproducer.partitioner;
+
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes every LibraryEvent of a book to the same partition, by murmur2 hash of Book.id like the default partitioner
+ * does with keys: NEW events have no id yet, so keying them by LibraryEvent id would scatter the events of a book.
+ * Records without a book fall back to the key, or round-robin.
+ * A hot book is kept on its partition, to keep its order: it is reported by the PartitionLoadStats passed in the
+ * STATS_CONFIG property (see PartitionerConfig).
+ */
+public class BookPartitioner implements Partitioner {
+
+    public static final String STATS_CONFIG = "library.partitioner.stats";
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    private PartitionLoadStats stats;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        stats = (PartitionLoadStats) configs.get(STATS_CONFIG);
+    }
+
+    @Override
+    public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+        int numPartitions = cluster.partitionsForTopic(topic).size();
+        Integer bookId = bookId(value);
+
+        int partition;
+        if (bookId != null) {
+            partition = hash(ByteBuffer.allocate(Integer.BYTES).putInt(bookId).array(), numPartitions);
+        } else if (keyBytes != null) {
+            partition = hash(keyBytes, numPartitions);
+        } else {
+            List<PartitionInfo> available = cluster.availablePartitionsForTopic(topic);
+            int next = Utils.toPositive(roundRobin.getAndIncrement());
+            partition = available.isEmpty() ? next % numPartitions : available.get(next % available.size()).partition();
+        }
+
+        if (stats != null)
+            stats.record(topic, partition, bookId);
+        return partition;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static Integer bookId(Object value) {
+        if (value instanceof LibraryEvent && ((LibraryEvent) value).getBook() != null)
+            return ((LibraryEvent) value).getBook().getId();
+        return null;
+    }
+
+    private static int hash(byte[] bytes, int numPartitions) {
+        return Utils.toPositive(Utils.murmur2(bytes)) % numPartitions;
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.practice.libraryinventoryproducer.partitioner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Space-Saving sketch of the most frequent keys of a stream, in a fixed number of counters: every key occurring more
+ * than total / capacity times is guaranteed to be tracked, and its count is overestimated by at most its error.
+ * The counters are kept in the Stream-Summary layout, a list of buckets of equal count in increasing order, so that
+ * offer is O(1), the least frequent key to evict being in the first bucket.
+ * Not thread safe.
+ */
+class HeavyHitters<K> {
+
+    static class Entry<K> {
+        final K key;
+        long count;
+        long error;
+
+        private Bucket<K> bucket;
+
+        Entry(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        // lower bound of the real count
+        long guaranteedCount() {
+            return count - error;
+        }
+    }
+
+    private static class Bucket<K> {
+        final long count;
+        final Set<Entry<K>> entries = new LinkedHashSet<>();
+        Bucket<K> previous;
+        Bucket<K> next;
+
+        Bucket(long count) {
+            this.count = count;
+        }
+    }
+
+    private final int capacity;
+    private final Map<K, Entry<K>> entries;
+    // least frequent keys
+    private Bucket<K> first;
+    private long total;
+
+    HeavyHitters(int capacity) {
+        this.capacity = capacity;
+        this.entries = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Counts one occurrence of key; returns its guaranteed count.
+     */
+    long offer(K key) {
+        total++;
+        Entry<K> entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() < capacity) {
+                entry = new Entry<>(key, 0, 0);
+            } else {
+                // the least frequent key makes room, the new key inherits its count as error
+                Entry<K> min = first.entries.iterator().next();
+                entries.remove(min.key);
+                entry = new Entry<>(key, min.count, min.count);
+                first.entries.remove(min);
+                first.entries.add(entry);
+                entry.bucket = first;
+            }
+            entries.put(key, entry);
+        }
+        increment(entry);
+        return entry.guaranteedCount();
+    }
+
+    long total() {
+        return total;
+    }
+
+    /**
+     * Keys certainly seen more than share * total times, most frequent first.
+     */
+    List<Entry<K>> above(double share) {
+        return moreThan(share * total);
+    }
+
+    /**
+     * Keys certainly seen more than count times, most frequent first.
+     */
+    List<Entry<K>> moreThan(double count) {
+        List<Entry<K>> result = new ArrayList<>();
+        for (Entry<K> entry : entries.values()) {
+            if (entry.guaranteedCount() > count)
+                result.add(new Entry<>(entry.key, entry.count, entry.error));
+        }
+        result.sort((first, second) -> Long.compare(second.count, first.count));
+        return result;
+    }
+
+    // moves the entry to the bucket of its count + 1, right after its own
+    private void increment(Entry<K> entry) {
+        Bucket<K> current = entry.bucket;
+        long count = entry.count + 1;
+        Bucket<K> next = current == null ? first : current.next;
+        if (next == null || next.count != count) {
+            Bucket<K> bucket = new Bucket<>(count);
+            bucket.previous = current;
+            bucket.next = next;
+            if (next != null)
+                next.previous = bucket;
+            if (current == null)
+                first = bucket;
+            else
+                current.next = bucket;
+            next = bucket;
+        }
+
+        if (current != null) {
+            current.entries.remove(entry);
+            if (current.entries.isEmpty())
+                unlink(current);
+        }
+        next.entries.add(entry);
+        entry.bucket = next;
+        entry.count = count;
+    }
+
+    private void unlink(Bucket<K> bucket) {
+        if (bucket.previous == null)
+            first = bucket.next;
+        else
+            bucket.previous.next = bucket.next;
+        if (bucket.next != null)
+            bucket.next.previous = bucket.previous;
+    }
+
+}
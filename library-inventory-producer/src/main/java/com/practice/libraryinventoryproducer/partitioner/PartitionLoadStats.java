@@ -0,0 +1,146 @@
+package com.practice.libraryinventoryproducer.partitioner;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Load seen by the BookPartitioner:
+ * - library.producer.partition.records, records sent per topic and partition;
+ * - hot books, books taking more than custom.partitioner.hot-key-share of the records of a
+ * custom.partitioner.window-ms window, tracked with HeavyHitters sketches, logged when they turn hot and counted by
+ * the library.producer.hot.keys gauge.
+ * record is called by the partitioner on every send: the books are spread over STRIPES sketches by id, each with its
+ * own lock, so that concurrent sends seldom wait for each other; as a book always goes to the same sketch its count
+ * is that of a single sketch, the sketches being merged only when a book turns hot.
+ */
+@Component
+@Slf4j
+public class PartitionLoadStats {
+
+    private static final int STRIPES = 16;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${custom.partitioner.hot-key-share:0.05}")
+    private double hotKeyShare;
+
+    @Value("${custom.partitioner.window-ms:60000}")
+    private long windowMs;
+
+    // per sketch
+    @Value("${custom.partitioner.sketch-capacity:100}")
+    private int sketchCapacity;
+
+    // no hot key before this many records in a window
+    @Value("${custom.partitioner.min-records:1000}")
+    private long minRecords;
+
+    private final Map<String, Counter> partitionCounters = new ConcurrentHashMap<>();
+
+    private volatile Window window;
+    private volatile List<Integer> hotBooks = List.of();
+
+
+    @PostConstruct
+    void init() {
+        window = new Window(System.currentTimeMillis());
+        Gauge.builder("library.producer.hot.keys", () -> hotBooks.size())
+                .description("Books above custom.partitioner.hot-key-share of the records in the current window")
+                .register(meterRegistry);
+    }
+
+    void record(String topic, int partition, Integer bookId) {
+        partitionCounters.computeIfAbsent(topic + "-" + partition, name -> Counter.builder("library.producer.partition.records")
+                .description("Records sent per partition")
+                .tag("topic", topic)
+                .tag("partition", String.valueOf(partition))
+                .register(meterRegistry))
+                .increment();
+
+        if (bookId != null)
+            offer(bookId);
+    }
+
+    public List<Integer> hotBooks() {
+        return hotBooks;
+    }
+
+    private void offer(Integer bookId) {
+        Window current = currentWindow();
+        HeavyHitters<Integer> sketch = current.sketch(bookId);
+        long count;
+        synchronized (sketch) {
+            count = sketch.offer(bookId);
+        }
+        current.total.increment();
+
+        if (count > hotKeyShare * minRecords && !hotBooks.contains(bookId)) {
+            long total = current.total.sum();
+            if (total >= minRecords && count > hotKeyShare * total)
+                hot(current, bookId, count, total);
+        }
+    }
+
+    private Window currentWindow() {
+        Window current = window;
+        long now = System.currentTimeMillis();
+        if (now - current.start < windowMs)
+            return current;
+
+        synchronized (this) {
+            if (window == current) {
+                window = new Window(now);
+                hotBooks = List.of();
+            }
+            return window;
+        }
+    }
+
+    private synchronized void hot(Window current, Integer bookId, long count, long total) {
+        if (window != current || hotBooks.contains(bookId))
+            return;
+
+        List<HeavyHitters.Entry<Integer>> hot = new ArrayList<>();
+        for (HeavyHitters<Integer> sketch : current.sketches) {
+            synchronized (sketch) {
+                hot.addAll(sketch.moreThan(hotKeyShare * total));
+            }
+        }
+        hot.sort((first, second) -> Long.compare(second.count, first.count));
+        hotBooks = hot.stream().map(entry -> entry.key).collect(Collectors.toUnmodifiableList());
+        log.warn("Hot book {}: at least {} of the last {} records, its partition may be overloaded", bookId, count, total);
+    }
+
+
+    private class Window {
+
+        final long start;
+        final List<HeavyHitters<Integer>> sketches = new ArrayList<>(STRIPES);
+        final LongAdder total = new LongAdder();
+
+        Window(long start) {
+            this.start = start;
+            for (int i = 0; i < STRIPES; i++)
+                sketches.add(new HeavyHitters<>(sketchCapacity));
+        }
+
+        HeavyHitters<Integer> sketch(Integer bookId) {
+            return sketches.get(Math.floorMod(bookId, STRIPES));
+        }
+    }
+
+}
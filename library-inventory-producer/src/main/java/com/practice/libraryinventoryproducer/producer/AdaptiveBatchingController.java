@@ -0,0 +1,184 @@
+package com.practice.libraryinventoryproducer.producer;
+
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive batching: every custom.producer.adaptive.interval-ms the producer's send rate and batch fill ratio
+ * (batch-size-avg / batch.size) are checked, and batching moves one level up or down between level 0 (min-linger-ms,
+ * min-batch-size, no compression) and the last level (max-linger-ms, max-batch-size, compression-type):
+ * - up when more than high-record-rate records/s are sent and the batches are filled at least at fill-ratio;
+ * - down when less than low-record-rate records/s are sent, so that a quiet producer does not linger.
+ * The request latency is no trigger: a slow broker is no reason to replace the producer. A new level is applied by a
+ * new producer (see AdaptiveKafkaTemplate), whose windowed metrics start from scratch: no level is changed within
+ * cooldown-ms of the previous change, which should span the producer's metrics.sample.window.ms samples (2 x 30 s by
+ * default). The current settings are exposed as library.producer.batching.* gauges.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "custom.producer.adaptive.enabled", havingValue = "true")
+public class AdaptiveBatchingController {
+
+    @Autowired
+    private AdaptiveKafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${custom.producer.adaptive.interval-ms:10000}")
+    private long intervalMs;
+
+    @Value("${custom.producer.adaptive.levels:4}")
+    private int levels;
+
+    @Value("${custom.producer.adaptive.min-linger-ms:0}")
+    private int minLingerMs;
+
+    @Value("${custom.producer.adaptive.max-linger-ms:20}")
+    private int maxLingerMs;
+
+    @Value("${custom.producer.adaptive.min-batch-size:16384}")
+    private int minBatchSize;
+
+    @Value("${custom.producer.adaptive.max-batch-size:262144}")
+    private int maxBatchSize;
+
+    @Value("${custom.producer.adaptive.compression-type:lz4}")
+    private String compressionType;
+
+    @Value("${custom.producer.adaptive.high-record-rate:1000}")
+    private double highRecordRate;
+
+    @Value("${custom.producer.adaptive.low-record-rate:100}")
+    private double lowRecordRate;
+
+    @Value("${custom.producer.adaptive.fill-ratio:0.7}")
+    private double fillRatio;
+
+    @Value("${custom.producer.adaptive.cooldown-ms:60000}")
+    private long cooldownMs;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile int level;
+
+    private long appliedAt;
+
+
+    @PostConstruct
+    void start() {
+        Gauge.builder("library.producer.batching.level", () -> level)
+                .description("Adaptive batching level, 0 = lowest latency")
+                .register(meterRegistry);
+        Gauge.builder("library.producer.batching.linger.ms", () -> lingerMs(level))
+                .description("linger.ms of the Kafka producer")
+                .register(meterRegistry);
+        Gauge.builder("library.producer.batching.batch.size", () -> batchSize(level))
+                .description("batch.size of the Kafka producer, in bytes")
+                .register(meterRegistry);
+        Gauge.builder("library.producer.batching.compressed", () -> compression(level).equals("none") ? 0 : 1)
+                .description("1 when the Kafka producer compresses its batches")
+                .tag("type", compressionType)
+                .register(meterRegistry);
+
+        apply(0);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-adaptive-batching");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::adjust, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+
+    public int getLevel() {
+        return level;
+    }
+
+    void adjust() {
+        if (System.currentTimeMillis() - appliedAt < cooldownMs)
+            return;
+
+        try {
+            Map<String, Double> metrics = producerMetrics();
+            int next = nextLevel(level,
+                    metrics.getOrDefault("record-send-rate", 0d),
+                    metrics.getOrDefault("batch-size-avg", 0d) / batchSize(level));
+            if (next != level)
+                apply(next);
+        } catch (Exception ex) {
+            log.warn("Adaptive batching not adjusted: {}", ex.getMessage());
+        }
+    }
+
+    int nextLevel(int current, double recordRate, double batchFillRatio) {
+        if (current < levels - 1 && recordRate >= highRecordRate && batchFillRatio >= fillRatio)
+            return current + 1;
+
+        if (current > 0 && recordRate < lowRecordRate)
+            return current - 1;
+
+        return current;
+    }
+
+    private void apply(int next) {
+        kafkaTemplate.switchProducer(Map.of(
+                ProducerConfig.LINGER_MS_CONFIG, lingerMs(next),
+                ProducerConfig.BATCH_SIZE_CONFIG, batchSize(next),
+                ProducerConfig.COMPRESSION_TYPE_CONFIG, compression(next)));
+        appliedAt = System.currentTimeMillis();
+
+        log.info("Adaptive batching level {} -> {}: linger.ms {}, batch.size {}, compression {}",
+                level, next, lingerMs(next), batchSize(next), compression(next));
+        level = next;
+    }
+
+    // linear steps for linger, geometric steps for the batch size
+    int lingerMs(int level) {
+        return levels == 1 ? minLingerMs : minLingerMs + (maxLingerMs - minLingerMs) * level / (levels - 1);
+    }
+
+    int batchSize(int level) {
+        return levels == 1 ? minBatchSize
+                : (int) Math.round(minBatchSize * Math.pow((double) maxBatchSize / minBatchSize, (double) level / (levels - 1)));
+    }
+
+    String compression(int level) {
+        return level == 0 ? "none" : compressionType;
+    }
+
+    private Map<String, Double> producerMetrics() {
+        Map<String, Double> values = new HashMap<>();
+        for (Map.Entry<MetricName, ? extends Metric> metric : kafkaTemplate.metrics().entrySet()) {
+            if (metric.getKey().group().equals("producer-metrics") && metric.getValue().metricValue() instanceof Number) {
+                double value = ((Number) metric.getValue().metricValue()).doubleValue();
+                values.put(metric.getKey().name(), Double.isNaN(value) ? 0 : value);
+            }
+        }
+        return values;
+    }
+
+}
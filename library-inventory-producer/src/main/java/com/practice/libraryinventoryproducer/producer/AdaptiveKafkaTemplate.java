@@ -0,0 +1,91 @@
+package com.practice.libraryinventoryproducer.producer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * KafkaTemplate of the adaptive batching (see AdaptiveBatchingController): switchProducer builds a producer factory
+ * with the new settings, creates its producer and swaps it in with a single write, so that sends never wait for a
+ * switch; the previous factory is destroyed afterwards on another thread, its close flushing the records already
+ * handed over. A send that got the previous producer just before it was closed fails without its record being
+ * accepted, and is sent again on the current one.
+ */
+@Slf4j
+public class AdaptiveKafkaTemplate<K, V> extends KafkaTemplate<K, V> {
+
+    private final DefaultKafkaProducerFactory<K, V> baseFactory;
+
+    private final ExecutorService closer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "library-adaptive-producer-close");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile DefaultKafkaProducerFactory<K, V> currentFactory;
+
+    public AdaptiveKafkaTemplate(DefaultKafkaProducerFactory<K, V> producerFactory) {
+        super(producerFactory);
+        this.baseFactory = producerFactory;
+        this.currentFactory = producerFactory;
+    }
+
+    // the settings of the base factory (see application.properties) overridden by configs
+    public void switchProducer(Map<String, Object> configs) {
+        Map<String, Object> merged = new HashMap<>(baseFactory.getConfigurationProperties());
+        merged.putAll(configs);
+        DefaultKafkaProducerFactory<K, V> next = new DefaultKafkaProducerFactory<>(merged,
+                baseFactory.getKeySerializerSupplier(), baseFactory.getValueSerializerSupplier());
+        next.setPhysicalCloseTimeout((int) baseFactory.getPhysicalCloseTimeout().getSeconds());
+        baseFactory.getListeners().forEach(next::addListener);
+        baseFactory.getPostProcessors().forEach(next::addPostProcessor);
+        next.createProducer();
+
+        DefaultKafkaProducerFactory<K, V> previous = currentFactory;
+        currentFactory = next;
+        closer.execute(() -> {
+            previous.destroy();
+            log.info("Previous producer closed");
+        });
+    }
+
+    @Override
+    public ProducerFactory<K, V> getProducerFactory() {
+        return currentFactory;
+    }
+
+    @Override
+    protected ProducerFactory<K, V> getProducerFactory(String topic) {
+        return currentFactory;
+    }
+
+    @Override
+    protected ListenableFuture<SendResult<K, V>> doSend(ProducerRecord<K, V> producerRecord) {
+        ProducerFactory<K, V> factory = currentFactory;
+        try {
+            return super.doSend(producerRecord);
+        } catch (IllegalStateException ex) { // "Cannot perform operation after producer has been closed"
+            if (factory == currentFactory)
+                throw ex;
+            return super.doSend(producerRecord);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        closer.shutdown();
+        if (currentFactory != baseFactory)
+            currentFactory.destroy();
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.practice.libraryinventoryproducer.producer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.practice.libraryinventoryproducer.model.BulkIngestResult;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Streams newline-delimited JSON LibraryEvents to the default topic: each line is parsed and validated on its own and
+ * sent right away, with at most custom.bulk.max-in-flight records waiting for the broker, so that memory does not
+ * depend on the size of the upload.
+ * A line without type is a NEW event; an UPDATE requires the LibraryEvent's ID, as for the single event endpoints.
+ * Lines longer than custom.bulk.max-line-length characters are rejected without being buffered whole.
+ * The records carry the same headers as the single events, with the upload's RecordTrace and an event id each.
+ */
+@Component
+@Slf4j
+public class LibraryEventBulkProducer {
+
+    @Autowired
+    private KafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    @Autowired
+    private LibraryEventProducer libraryEventProducer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Value("${custom.bulk.max-in-flight:500}")
+    private int maxInFlight;
+
+    @Value("${custom.bulk.max-reported-errors:1000}")
+    private int maxReportedErrors;
+
+    // should not be lower than the producer's delivery.timeout.ms
+    @Value("${custom.bulk.drain-timeout-ms:120000}")
+    private long drainTimeoutMs;
+
+    @Value("${custom.bulk.max-line-length:65536}")
+    private int maxLineLength;
+
+
+    public BulkIngestResult sendLibraryEvents(final InputStream ndjson, final RecordTrace trace) throws IOException, InterruptedException {
+        ObjectReader reader = objectMapper.readerFor(LibraryEvent.class);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Summary summary = new Summary(maxReportedErrors);
+        String topic = kafkaTemplate.getDefaultTopic();
+
+        Lines lines = new Lines(new InputStreamReader(ndjson, StandardCharsets.UTF_8), maxLineLength);
+        long lineNumber = 0;
+        String line;
+        while ((line = lines.next()) != null) {
+            lineNumber++;
+            if (lines.tooLong()) {
+                summary.rejected(lineNumber, "line longer than " + maxLineLength + " characters");
+                continue;
+            }
+            if (line.isBlank())
+                continue;
+
+            LibraryEvent libraryEvent;
+            try {
+                libraryEvent = parse(reader, line);
+            } catch (IllegalArgumentException ex) {
+                summary.rejected(lineNumber, ex.getMessage());
+                continue;
+            }
+
+            final long sentLine = lineNumber;
+            inFlight.acquire();
+            summary.sent();
+            try {
+                kafkaTemplate.send(libraryEventProducer.buildProducerRecord(libraryEvent.getId(), libraryEvent, topic, trace)).addCallback(
+                        result -> {
+                            summary.accepted();
+                            inFlight.release();
+                        },
+                        ex -> {
+                            summary.failed(sentLine, ex.getMessage());
+                            inFlight.release();
+                        });
+            } catch (RuntimeException ex) {
+                summary.failed(sentLine, ex.getMessage());
+                inFlight.release();
+            }
+        }
+
+        // wait for the broker to acknowledge the last records; the ones it did not are reported as pending
+        boolean drained = inFlight.tryAcquire(maxInFlight, drainTimeoutMs, TimeUnit.MILLISECONDS);
+
+        BulkIngestResult result = summary.toResult(lineNumber);
+        if (!drained)
+            log.warn("Bulk upload: {} records still waiting for the broker after {} ms", result.getPending(), drainTimeoutMs);
+        log.info("Bulk upload completed; lines: {}, accepted: {}, rejected: {}, failed: {}, pending: {}",
+                result.getLines(), result.getAccepted(), result.getRejected(), result.getFailed(), result.getPending());
+        return result;
+    }
+
+    private LibraryEvent parse(ObjectReader reader, String line) {
+        LibraryEvent libraryEvent;
+        try {
+            libraryEvent = reader.readValue(line);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("invalid JSON: " + ex.getOriginalMessage());
+        }
+
+        Set<ConstraintViolation<LibraryEvent>> violations = validator.validate(libraryEvent);
+        if (!violations.isEmpty()) {
+            // same format as LibraryEventControllerAdvice
+            throw new IllegalArgumentException(violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining("; ")));
+        }
+
+        if (libraryEvent.getType() == null)
+            libraryEvent.setType(LibraryEvent.Type.NEW);
+
+        if (libraryEvent.getType() == LibraryEvent.Type.UPDATE && libraryEvent.getId() == null)
+            throw new IllegalArgumentException("LibraryEvent's ID is required");
+
+        return libraryEvent;
+    }
+
+
+    // updated by the request thread and by the producer's callbacks
+    private static class Summary {
+
+        private final int maxReportedErrors;
+        private final List<BulkIngestResult.LineError> errors = new ArrayList<>();
+        private long sent;
+        private long accepted;
+        private long rejected;
+        private long failed;
+
+        Summary(int maxReportedErrors) {
+            this.maxReportedErrors = maxReportedErrors;
+        }
+
+        synchronized void sent() {
+            sent++;
+        }
+
+        synchronized void accepted() {
+            accepted++;
+        }
+
+        synchronized void rejected(long line, String error) {
+            rejected++;
+            addError(line, error);
+        }
+
+        synchronized void failed(long line, String error) {
+            failed++;
+            addError(line, error);
+        }
+
+        synchronized BulkIngestResult toResult(long lines) {
+            List<BulkIngestResult.LineError> sortedErrors = new ArrayList<>(errors);
+            sortedErrors.sort((first, second) -> Long.compare(first.getLine(), second.getLine()));
+            return new BulkIngestResult(lines, accepted, rejected, failed, sent - accepted - failed, sortedErrors, rejected + failed > errors.size());
+        }
+
+        private void addError(long line, String error) {
+            if (errors.size() < maxReportedErrors)
+                errors.add(new BulkIngestResult.LineError(line, error));
+        }
+    }
+
+
+    // the lines of the upload, ended by \n or \r\n as for BufferedReader; past maxLength characters the rest of a line
+    // is skipped and the line flagged as too long
+    private static class Lines {
+
+        private final Reader reader;
+        private final int maxLength;
+        private final char[] buffer = new char[8192];
+        private final StringBuilder line = new StringBuilder();
+        private int position;
+        private int limit;
+        private boolean tooLong;
+
+        Lines(Reader reader, int maxLength) {
+            this.reader = reader;
+            this.maxLength = maxLength;
+        }
+
+        // null at the end of the upload
+        String next() throws IOException {
+            line.setLength(0);
+            tooLong = false;
+            boolean read = false;
+            while (position < limit || fill()) {
+                read = true;
+                char c = buffer[position++];
+                if (c == '\n')
+                    break;
+                // one more than maxLength, for a \r to strip
+                if (line.length() <= maxLength)
+                    line.append(c);
+                else
+                    tooLong = true;
+            }
+            if (!read)
+                return null;
+
+            if (line.length() > 0 && line.charAt(line.length() - 1) == '\r')
+                line.setLength(line.length() - 1);
+            tooLong |= line.length() > maxLength;
+            return tooLong ? "" : line.toString();
+        }
+
+        boolean tooLong() {
+            return tooLong;
+        }
+
+        private boolean fill() throws IOException {
+            limit = reader.read(buffer);
+            position = 0;
+            return limit > 0;
+        }
+    }
+
+}
@@ -1,82 +1,168 @@
 package com.practice.libraryinventoryproducer.producer;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import com.practice.libraryinventoryproducer.outbox.LibraryEventOutbox;
+import com.practice.libraryinventoryproducer.outbox.OutboxFullException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.kafka.core.KafkaFailureCallback;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 
-// Here you will find common different ways to produce a message, for demonstration purpose
+// Here you will find common different ways to produce a message, for demonstration purpose.
+// The value is serialized by the LibraryEventSerializer (JSON or binary, see application.properties)
 @Component
 @Slf4j
 public class LibraryEventProducer {
 
+    // random id of every event sent, kept by its retries from the outbox, so that the consumer can drop the records
+    // it is delivered again
+    public static final String EVENT_ID_HEADER = "event-id";
+
     @Autowired
-    private KafkaTemplate<Integer, String> kafkaTemplate;
+    private KafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    @Value("${custom.kafka.send-timeout-ms:3000}")
+    private long sendTimeoutMs;
+
+    // present with custom.outbox.enabled=true
+    @Autowired(required = false)
+    private LibraryEventOutbox outbox;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private ProducerLoadMonitor producerLoadMonitor;
 
+    // below it, a send would block until the producer's buffer drains: the event goes to the outbox, or fails without it
+    @Value("${custom.outbox.min-buffer-available-bytes:1048576}")
+    private long minBufferAvailableBytes;
 
-    // async produce
-    public void sendLibraryEvent(final LibraryEvent libraryEvent) throws JsonProcessingException {
-        Integer key = libraryEvent.getId();
-        String value = objectMapper.writeValueAsString(libraryEvent);
 
-        kafkaTemplate.sendDefault(key, value).addCallback(
-                result -> handleSuccess(key, value, result),
-                ex -> handleFailure(key, value, ex)
+    // async produce; a failed event is stored in the outbox with the event id of the failed record, which may still be
+    // written, and is lost when the outbox is full
+    public void sendLibraryEvent(final LibraryEvent libraryEvent) {
+        Integer key = libraryEvent.getId();
+        RecordTrace trace = RecordTrace.start(null);
+        String eventId = newEventId();
+
+        kafkaTemplate.send(buildProducerRecord(key, libraryEvent, kafkaTemplate.getDefaultTopic(), trace, eventId)).addCallback(
+                result -> handleSuccess(key, libraryEvent, result),
+                ex -> {
+                    handleFailure(key, libraryEvent, ex);
+                    try {
+                        storeInOutbox(key, libraryEvent, trace, eventId);
+                    } catch (OutboxFullException full) {
+                        log.error("LibraryEvent lost; key: {}, value: {}, exception: {}", key, libraryEvent, full.getMessage());
+                    }
+                }
         );
     }
 
 
+    // async produce, completed once the broker acks the record or exceptionally (a TimeoutException after the send
+    // timeout): nobody waits for it, the caller just chains on it.
+    // A timed out record may still be written by the producer later on.
+    // With the outbox enabled, an event that cannot be sent right away is stored in it instead, and the future is
+    // completed with a null SendResult: while the outbox is not empty, every event goes through it to keep the order.
+    // Once the outbox is full, the future fails with an OutboxFullException.
+    // Without the outbox, an event that would wait for buffer space fails right away with a TimeoutException instead
+    // of holding the request thread: the remaining blocking is the metadata fetch of the first send to the topic (or
+    // after the metadata expired), bounded by max.block.ms.
+    // The record carries the RecordTrace headers, and so do the events replayed from the outbox, with the same event id.
+    public CompletableFuture<SendResult<Integer, LibraryEvent>> sendLibraryEventAsync(final LibraryEvent libraryEvent) {
+        return sendLibraryEventAsync(libraryEvent, RecordTrace.start(null));
+    }
+
+    public CompletableFuture<SendResult<Integer, LibraryEvent>> sendLibraryEventAsync(final LibraryEvent libraryEvent, final RecordTrace trace) {
+        Integer key = libraryEvent.getId();
+        // a timed out record may have been written after all: its retry must be recognized as the same event
+        String eventId = newEventId();
+
+        if (outbox != null && (!outbox.isEmpty() || bufferSaturated())) {
+            try {
+                storeInOutbox(key, libraryEvent, trace, eventId);
+            } catch (OutboxFullException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        if (outbox == null && bufferSaturated()) {
+            TimeoutException ex = new TimeoutException("producer buffer full, LibraryEvent not sent");
+            handleFailure(key, libraryEvent, ex);
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        CompletableFuture<SendResult<Integer, LibraryEvent>> future;
+        try {
+            future = kafkaTemplate.send(buildProducerRecord(key, libraryEvent, kafkaTemplate.getDefaultTopic(), trace, eventId)).completable();
+        } catch (Exception ex) { // e.g. no metadata within max.block.ms
+            future = CompletableFuture.failedFuture(ex);
+        }
+
+        return future
+                .orTimeout(sendTimeoutMs, TimeUnit.MILLISECONDS)
+                .whenComplete((result, ex) -> {
+                    if (ex == null)
+                        handleSuccess(key, libraryEvent, result);
+                    else
+                        handleFailure(key, libraryEvent, ex);
+                })
+                .exceptionally(ex -> {
+                    if (!storeInOutbox(key, libraryEvent, trace, eventId))
+                        throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+                    return null;
+                });
+    }
+
+
     // sync produce
-    public void sendLibraryEventSync(final LibraryEvent libraryEvent) throws JsonProcessingException {
+    public void sendLibraryEventSync(final LibraryEvent libraryEvent) {
         Integer key = libraryEvent.getId();
-        String value = objectMapper.writeValueAsString(libraryEvent);
 
         try {
-            kafkaTemplate.sendDefault(key, value).get(3, TimeUnit.SECONDS);
+            kafkaTemplate.sendDefault(key, libraryEvent).get(3, TimeUnit.SECONDS);
         } catch (ExecutionException | InterruptedException ex) {
-            log.error("ExecutionException/InterruptedException sending LibraryEvent; key: {}, value: {}, exception: {}", key, value, ex.getMessage());
+            log.error("ExecutionException/InterruptedException sending LibraryEvent; key: {}, value: {}, exception: {}", key, libraryEvent, ex.getMessage());
         } catch (Exception ex) {
-            log.error("Exception sending LibraryEvent; key: {}, value: {}, exception: {}", key, value, ex.getMessage());
+            log.error("Exception sending LibraryEvent; key: {}, value: {}, exception: {}", key, libraryEvent, ex.getMessage());
         }
     }
 
 
     // async produce using ProducerRecord and no lambda expression (java 7-)
-    public ListenableFuture<SendResult<Integer, String>> sendLibraryEventsWithHeaders_usingProducerRecord(final LibraryEvent libraryEvent) throws JsonProcessingException {
+    public ListenableFuture<SendResult<Integer, LibraryEvent>> sendLibraryEventsWithHeaders_usingProducerRecord(final LibraryEvent libraryEvent) {
         final String topic = "library-events";
         final Integer key = libraryEvent.getId();
-        final String value = objectMapper.writeValueAsString(libraryEvent);
 
-        ListenableFuture<SendResult<Integer, String>> listenableFuture = kafkaTemplate.send(buildProducerRecord(key, value, topic));
+        ListenableFuture<SendResult<Integer, LibraryEvent>> listenableFuture = kafkaTemplate.send(buildProducerRecord(key, libraryEvent, topic));
 
-        listenableFuture.addCallback(new ListenableFutureCallback<SendResult<Integer, String>>() {
+        listenableFuture.addCallback(new ListenableFutureCallback<SendResult<Integer, LibraryEvent>>() {
             @Override
             public void onFailure(Throwable ex) {
-                handleFailure(key, value, ex);
+                handleFailure(key, libraryEvent, ex);
             }
 
             @Override
-            public void onSuccess(SendResult<Integer, String> result) {
-                handleSuccess(key, value, result);
+            public void onSuccess(SendResult<Integer, LibraryEvent> result) {
+                handleSuccess(key, libraryEvent, result);
             }
         });
 
@@ -86,19 +172,54 @@ public class LibraryEventProducer {
 
 
 
-    public ProducerRecord<Integer, String> buildProducerRecord(Integer key, String value, String topic) {
-        List<Header> recordHeaders = List.of(new RecordHeader("event-source", "scanner".getBytes()));
+    public ProducerRecord<Integer, LibraryEvent> buildProducerRecord(Integer key, LibraryEvent value, String topic) {
+        List<Header> recordHeaders = List.of(new RecordHeader("event-source", "scanner".getBytes()), eventId(newEventId()));
+        return new ProducerRecord<>(topic, null, key, value, recordHeaders);
+    }
+
+    public ProducerRecord<Integer, LibraryEvent> buildProducerRecord(Integer key, LibraryEvent value, String topic, RecordTrace trace) {
+        return buildProducerRecord(key, value, topic, trace, newEventId());
+    }
+
+    public ProducerRecord<Integer, LibraryEvent> buildProducerRecord(Integer key, LibraryEvent value, String topic, RecordTrace trace, String eventId) {
+        RecordHeaders recordHeaders = new RecordHeaders();
+        recordHeaders.add("event-source", "scanner".getBytes());
+        recordHeaders.add(eventId(eventId));
+        recordHeaders.add(RecordTrace.TRACE_ID_HEADER, trace.getTraceId().getBytes(StandardCharsets.UTF_8));
+        recordHeaders.add(RecordTrace.INGEST_TIME_HEADER, ByteBuffer.allocate(Long.BYTES).putLong(trace.getIngestTimeMicros()).array());
+        recordHeaders.add(RecordTrace.SEND_TIME_HEADER, ByteBuffer.allocate(Long.BYTES).putLong(RecordTrace.nowMicros()).array());
         return new ProducerRecord<>(topic, null, key, value, recordHeaders);
     }
 
-    private void handleSuccess(Integer key, String value, SendResult<Integer, String> result) {
+    private static String newEventId() {
+        return UUID.randomUUID().toString();
+    }
+
+    private static Header eventId(String eventId) {
+        return new RecordHeader(EVENT_ID_HEADER, eventId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handleSuccess(Integer key, LibraryEvent value, SendResult<Integer, LibraryEvent> result) {
         log.info("Message LibraryEvent sent successfully; key: {}, value: {}, partition: {}",
                 key, value, result.getRecordMetadata().partition());
     }
 
-    private void handleFailure(Integer key, String value, Throwable ex) {
+    private void handleFailure(Integer key, LibraryEvent value, Throwable ex) {
         log.error("Error sending LibraryEvent; key: {}, value: {}, exception: {}", key, value, ex.getMessage());
     }
 
+    private boolean storeInOutbox(Integer key, LibraryEvent value, RecordTrace trace, String eventId) {
+        if (outbox == null)
+            return false;
+
+        outbox.append(value, trace, eventId);
+        log.info("LibraryEvent stored in the outbox; key: {}, value: {}", key, value);
+        return true;
+    }
+
+    private boolean bufferSaturated() {
+        return producerLoadMonitor.bufferAvailableBytes() < minBufferAvailableBytes;
+    }
+
 
 }
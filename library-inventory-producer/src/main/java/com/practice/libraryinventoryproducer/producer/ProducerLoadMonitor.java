@@ -0,0 +1,113 @@
+package com.practice.libraryinventoryproducer.producer;
+
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.Metric;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+
+/**
+ * Live load of the Kafka producer, read from its metrics: the producer is overloaded when less than
+ * custom.admission.min-buffer-available-ratio of buffer.memory is free, or when records wait more than
+ * custom.admission.max-record-queue-time-ms on average in the accumulator. Past that point a send would soon block.
+ */
+@Component
+public class ProducerLoadMonitor {
+
+    @Autowired
+    private KafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    @Value("${custom.admission.min-buffer-available-ratio:0.2}")
+    private double minBufferAvailableRatio;
+
+    @Value("${custom.admission.max-record-queue-time-ms:500}")
+    private double maxRecordQueueTimeMs;
+
+    @Autowired
+    private ProducerFactory<?, ?> producerFactory;
+
+    // looked up once per producer, which updates them in place
+    private volatile ProducerFactory<?, ?> metricsFactory;
+    private volatile Metric bufferAvailableBytes;
+    private volatile Metric bufferTotalBytes;
+    private volatile Metric recordQueueTimeAvg;
+
+    // those of a closed producer are no longer updated: looked up again on the next producer, created by the same
+    // factory or by a new one (see AdaptiveKafkaTemplate)
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    void init() {
+        ((ProducerFactory<Object, Object>) producerFactory).addListener(new ProducerFactory.Listener<>() {
+            @Override
+            public void producerRemoved(String id, Producer<Object, Object> producer) {
+                clear();
+            }
+        });
+    }
+
+    public boolean isOverloaded() {
+        checkFactory();
+        double total = value(bufferTotalBytes());
+        if (total > 0 && bufferAvailableBytes() < total * minBufferAvailableRatio)
+            return true;
+
+        return value(recordQueueTimeAvg()) > maxRecordQueueTimeMs;
+    }
+
+    public double bufferAvailableBytes() {
+        checkFactory();
+        if (bufferAvailableBytes == null)
+            bufferAvailableBytes = metric("buffer-available-bytes");
+        // no producer yet: nothing buffered
+        return bufferAvailableBytes == null ? Double.MAX_VALUE : value(bufferAvailableBytes);
+    }
+
+    private Metric bufferTotalBytes() {
+        if (bufferTotalBytes == null)
+            bufferTotalBytes = metric("buffer-total-bytes");
+        return bufferTotalBytes;
+    }
+
+    private Metric recordQueueTimeAvg() {
+        if (recordQueueTimeAvg == null)
+            recordQueueTimeAvg = metric("record-queue-time-avg");
+        return recordQueueTimeAvg;
+    }
+
+    private void checkFactory() {
+        ProducerFactory<?, ?> factory = kafkaTemplate.getProducerFactory();
+        if (factory != metricsFactory) {
+            clear();
+            metricsFactory = factory;
+        }
+    }
+
+    private void clear() {
+        bufferAvailableBytes = null;
+        bufferTotalBytes = null;
+        recordQueueTimeAvg = null;
+    }
+
+    private Metric metric(String name) {
+        return kafkaTemplate.metrics().entrySet().stream()
+                .filter(metric -> metric.getKey().group().equals("producer-metrics") && metric.getKey().name().equals(name))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+
+    // NaN until the first record has been sent
+    private static double value(Metric metric) {
+        if (metric == null)
+            return 0;
+        double value = ((Number) metric.metricValue()).doubleValue();
+        return Double.isNaN(value) ? 0 : value;
+    }
+
+}
@@ -2,8 +2,14 @@ package com.practice.libraryinventoryproducer;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.practice.libraryinventoryproducer.model.BulkIngestResult;
 import com.practice.libraryinventoryproducer.model.Book;
 import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import com.practice.libraryinventoryproducer.outbox.LibraryEventOutbox;
+import com.practice.libraryinventoryproducer.producer.LibraryEventProducer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.serialization.IntegerDeserializer;
@@ -16,8 +22,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.test.EmbeddedKafkaBroker;
@@ -25,15 +33,18 @@ import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.kafka.test.utils.KafkaTestUtils;
 import org.springframework.test.context.TestPropertySource;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @EmbeddedKafka(topics = {"library-events"}, partitions = 3)
 @TestPropertySource(properties = {"spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
-									"spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}"} )
+									"spring.kafka.admin.properties.bootstrap.servers=${spring.embedded.kafka.brokers}",
+									"custom.outbox.dir=${java.io.tmpdir}/library-inventory-outbox-${random.uuid}"} )
 class LibraryEventControllerIntegrationTest {
 
 	@Autowired
@@ -45,6 +56,12 @@ class LibraryEventControllerIntegrationTest {
 	@Autowired
 	private ObjectMapper objectMapper;
 
+	@Autowired
+	private LibraryEventOutbox outbox;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
 	private Consumer<Integer, String> consumer;
 
 
@@ -117,4 +134,63 @@ class LibraryEventControllerIntegrationTest {
 		assertEquals(libraryEvent, objectMapper.readValue(consumerRecord.value(), LibraryEvent.class));
 	}
 
+
+
+	@Test
+	@Timeout(10)
+	void postLibraryEvents() {
+		String ndjson = "{\"book\":{\"id\":346,\"name\":\"Master and Commander\",\"author\":\"Patrick O'Brian\"}}\n"
+				+ "{\"book\":{\"id\":347}}\n"
+				+ "{\"id\":100,\"type\":\"UPDATE\",\"book\":{\"id\":348,\"name\":\"Post Captain\",\"author\":\"Patrick O'Brian\"}}\n";
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_NDJSON);
+
+		// call API to write on Topic
+		ResponseEntity<BulkIngestResult> response = testRestTemplate.exchange("/api/v1/library-events:bulk", HttpMethod.POST,
+				new HttpEntity<>(ndjson, headers), BulkIngestResult.class);
+
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals(2, response.getBody().getAccepted());
+		assertEquals(1, response.getBody().getRejected());
+		assertEquals(2, response.getBody().getErrors().get(0).getLine());
+
+		// the valid lines only reach the topic
+		int count = 0;
+		while (count < 2) {
+			count += KafkaTestUtils.getRecords(consumer, 5000).count();
+		}
+		assertEquals(2, count);
+
+		// routed by the BookPartitioner
+		assertTrue(meterRegistry.find("library.producer.partition.records").counters().stream()
+				.mapToDouble(Counter::count).sum() >= 2);
+	}
+
+
+
+	@Test
+	@Timeout(10)
+	void outboxIsDrained() throws JsonProcessingException {
+		LibraryEvent libraryEvent = LibraryEvent.builder()
+				.id(200)
+				.type(LibraryEvent.Type.UPDATE)
+				.book(Book.builder()
+						.author("Patrick O'Brian")
+						.name("The Far Side of the World")
+						.id(350)
+						.build())
+				.build();
+
+		// as if the brokers had been unreachable
+		outbox.append(libraryEvent, RecordTrace.start("request-350"), "event-350");
+
+		// replayed by the OutboxDrainer, with the headers of the first attempt
+		ConsumerRecord<Integer, String> consumerRecord = KafkaTestUtils.getSingleRecord(consumer, "library-events");
+
+		assertEquals(libraryEvent, objectMapper.readValue(consumerRecord.value(), LibraryEvent.class));
+		assertEquals("event-350", new String(consumerRecord.headers().lastHeader(LibraryEventProducer.EVENT_ID_HEADER).value(), StandardCharsets.UTF_8));
+		assertEquals("request-350", new String(consumerRecord.headers().lastHeader(RecordTrace.TRACE_ID_HEADER).value(), StandardCharsets.UTF_8));
+	}
+
 }
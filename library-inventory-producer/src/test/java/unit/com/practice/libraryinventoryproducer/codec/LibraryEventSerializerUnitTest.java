@@ -0,0 +1,67 @@
+package com.practice.libraryinventoryproducer.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.practice.libraryinventoryproducer.model.Book;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LibraryEventSerializerUnitTest {
+
+    private final LibraryEvent libraryEvent = LibraryEvent.builder()
+            .id(null)
+            .type(LibraryEvent.Type.NEW)
+            .book(Book.builder()
+                    .author("Patrick O'Brian")
+                    .name("Master and Commander")
+                    .id(346)
+                    .build())
+            .build();
+
+
+    @Test
+    public void serialize_json() throws Exception {
+        LibraryEventSerializer serializer = new LibraryEventSerializer();
+        serializer.configure(Map.of(), false);
+        Headers headers = new RecordHeaders();
+
+        byte[] data = serializer.serialize("library-events", headers, libraryEvent);
+
+        assertEquals(LibraryEventCodec.JSON, new String(headers.lastHeader(LibraryEventCodec.CONTENT_TYPE_HEADER).value()));
+        assertEquals(libraryEvent, new ObjectMapper().readValue(data, LibraryEvent.class));
+    }
+
+
+    @Test
+    public void serialize_binary() throws Exception {
+        LibraryEventSerializer serializer = new LibraryEventSerializer();
+        serializer.configure(Map.of(LibraryEventSerializer.WIRE_FORMAT_CONFIG, "binary"), false);
+        Headers headers = new RecordHeaders();
+
+        byte[] data = serializer.serialize("library-events", headers, libraryEvent);
+
+        assertEquals(LibraryEventCodec.BINARY, new String(headers.lastHeader(LibraryEventCodec.CONTENT_TYPE_HEADER).value()));
+        assertEquals(libraryEvent, LibraryEventCodec.decode(data));
+        assertTrue(data.length < new ObjectMapper().writeValueAsBytes(libraryEvent).length / 2);
+    }
+
+
+    @Test
+    public void codec_roundTrip_negativeIdsAndMissingFields() {
+        LibraryEvent update = LibraryEvent.builder()
+                .id(-12345)
+                .type(LibraryEvent.Type.UPDATE)
+                .book(Book.builder().id(Integer.MAX_VALUE).name("Ünïcödé").build())
+                .build();
+
+        assertEquals(update, LibraryEventCodec.decode(LibraryEventCodec.encode(update)));
+        assertEquals(new LibraryEvent(), LibraryEventCodec.decode(LibraryEventCodec.encode(new LibraryEvent())));
+    }
+
+}
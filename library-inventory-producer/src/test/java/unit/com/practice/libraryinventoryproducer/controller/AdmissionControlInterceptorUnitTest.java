@@ -0,0 +1,115 @@
+package com.practice.libraryinventoryproducer.controller;
+
+import com.practice.libraryinventoryproducer.producer.LibraryEventBulkProducer;
+import com.practice.libraryinventoryproducer.producer.LibraryEventProducer;
+import com.practice.libraryinventoryproducer.producer.ProducerLoadMonitor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(LibraryEventController.class)
+@AutoConfigureMockMvc
+@TestPropertySource(properties = {"custom.admission.client.burst=2", "custom.admission.client.rate-per-second=0.1"})
+public class AdmissionControlInterceptorUnitTest {
+
+    // the body is not valid: admitted requests get a 400 without reaching the producer
+    private static final String INVALID_LIBRARY_EVENT = "{\"id\":null,\"type\":\"NEW\",\"book\":null}";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private LibraryEventProducer libraryEventProducer;
+
+    @MockBean
+    private LibraryEventBulkProducer libraryEventBulkProducer;
+
+    @MockBean
+    private ProducerLoadMonitor producerLoadMonitor;
+
+
+    @Test
+    public void tooManyRequests() throws Exception {
+        mockMvc.perform(request("10.0.0.1")).andExpect(status().isBadRequest());
+        mockMvc.perform(request("10.0.0.1")).andExpect(status().isBadRequest());
+
+        mockMvc.perform(request("10.0.0.1"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "10"));
+
+        // each client has its own bucket
+        mockMvc.perform(request("10.0.0.2")).andExpect(status().isBadRequest());
+    }
+
+
+    @Test
+    public void tooManyRequests_whateverTheClientIdHeader() throws Exception {
+        mockMvc.perform(request("10.0.0.4").header("X-Client-Id", "client-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(request("10.0.0.4").header("X-Client-Id", "client-2")).andExpect(status().isBadRequest());
+
+        mockMvc.perform(request("10.0.0.4").header("X-Client-Id", "client-3")).andExpect(status().isTooManyRequests());
+    }
+
+
+    @Test
+    public void tooManyRequests_perPrincipal() throws Exception {
+        mockMvc.perform(request("10.0.0.5").principal(() -> "alice")).andExpect(status().isBadRequest());
+        mockMvc.perform(request("10.0.0.6").principal(() -> "alice")).andExpect(status().isBadRequest());
+
+        mockMvc.perform(request("10.0.0.7").principal(() -> "alice")).andExpect(status().isTooManyRequests());
+        mockMvc.perform(request("10.0.0.7").principal(() -> "bob")).andExpect(status().isBadRequest());
+    }
+
+
+    @Test
+    public void producerOverloaded() throws Exception {
+        when(producerLoadMonitor.isOverloaded()).thenReturn(true);
+
+        mockMvc.perform(request("10.0.0.3"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+
+        verifyNoInteractions(libraryEventProducer);
+    }
+
+
+    @Test
+    public void tokenBucket_refill() {
+        long start = 0;
+        TokenBucket bucket = new TokenBucket(2, 10, start);
+
+        assertEquals(0, bucket.tryConsume(start));
+        assertEquals(0, bucket.tryConsume(start));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.tryConsume(start));
+
+        // one token every 100 ms
+        assertEquals(0, bucket.tryConsume(start + TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+
+
+    private static MockHttpServletRequestBuilder request(String remoteAddress) {
+        return post("/api/v1/library-event")
+                .with(request -> {
+                    request.setRemoteAddr(remoteAddress);
+                    return request;
+                })
+                .content(INVALID_LIBRARY_EVENT)
+                .contentType(MediaType.APPLICATION_JSON);
+    }
+
+}
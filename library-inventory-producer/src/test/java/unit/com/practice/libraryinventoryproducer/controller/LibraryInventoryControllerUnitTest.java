@@ -4,7 +4,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.practice.libraryinventoryproducer.controller.LibraryEventController;
 import com.practice.libraryinventoryproducer.model.Book;
 import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import com.practice.libraryinventoryproducer.producer.LibraryEventBulkProducer;
 import com.practice.libraryinventoryproducer.producer.LibraryEventProducer;
+import com.practice.libraryinventoryproducer.producer.ProducerLoadMonitor;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,12 +17,20 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 import static org.mockito.ArgumentMatchers.isA;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(LibraryEventController.class)
@@ -32,6 +43,13 @@ public class LibraryInventoryControllerUnitTest {
     @MockBean
     private LibraryEventProducer libraryEventProducer;
 
+    @MockBean
+    private LibraryEventBulkProducer libraryEventBulkProducer;
+
+    // never overloaded
+    @MockBean
+    private ProducerLoadMonitor producerLoadMonitor;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -49,12 +67,73 @@ public class LibraryInventoryControllerUnitTest {
                         .build())
                 .build();
 
-        doNothing().when(libraryEventProducer).sendLibraryEvent(isA(LibraryEvent.class));
+        when(libraryEventProducer.sendLibraryEventAsync(isA(LibraryEvent.class), isA(RecordTrace.class))).thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
 
-        mockMvc.perform(post("/api/v1/library-event")
+        MvcResult mvcResult = mockMvc.perform(post("/api/v1/library-event")
+                .header(RecordTrace.REQUEST_ID_HEADER, "request-1")
                 .content(objectMapper.writeValueAsString(libraryEvent))
                 .contentType(MediaType.APPLICATION_JSON))
-                .andExpect(status().isCreated());
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // the request id is the trace id of the record
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isCreated())
+                .andExpect(header().string(RecordTrace.REQUEST_ID_HEADER, "request-1"));
+    }
+
+
+    @Test
+    public void postLibraryEvent_StoredInOutbox() throws Exception {
+
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(null)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+
+        // no SendResult: the event is waiting in the outbox
+        when(libraryEventProducer.sendLibraryEventAsync(isA(LibraryEvent.class), isA(RecordTrace.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        MvcResult mvcResult = mockMvc.perform(post("/api/v1/library-event")
+                .content(objectMapper.writeValueAsString(libraryEvent))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isAccepted());
+    }
+
+
+    @Test
+    public void postLibraryEvent_SendTimeout() throws Exception {
+
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(null)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+
+        when(libraryEventProducer.sendLibraryEventAsync(isA(LibraryEvent.class), isA(RecordTrace.class))).thenReturn(CompletableFuture.failedFuture(new TimeoutException()));
+
+        MvcResult mvcResult = mockMvc.perform(post("/api/v1/library-event")
+                .content(objectMapper.writeValueAsString(libraryEvent))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
     }
 
 
@@ -68,8 +147,6 @@ public class LibraryInventoryControllerUnitTest {
                 .book(null)
                 .build();
 
-        doNothing().when(libraryEventProducer).sendLibraryEvent(isA(LibraryEvent.class));
-
         mockMvc.perform(post("/api/v1/library-event")
                 .content(objectMapper.writeValueAsString(libraryEvent))
                 .contentType(MediaType.APPLICATION_JSON))
@@ -88,8 +165,6 @@ public class LibraryInventoryControllerUnitTest {
                 .book(new Book())
                 .build();
 
-        doNothing().when(libraryEventProducer).sendLibraryEvent(isA(LibraryEvent.class));
-
         mockMvc.perform(post("/api/v1/library-event")
                 .content(objectMapper.writeValueAsString(libraryEvent))
                 .contentType(MediaType.APPLICATION_JSON))
@@ -0,0 +1,145 @@
+package com.practice.libraryinventoryproducer.outbox;
+
+import com.practice.libraryinventoryproducer.model.Book;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LibraryEventOutboxUnitTest {
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    public void appendPeekCommit() throws IOException {
+        LibraryEventOutbox outbox = open(1024);
+
+        for (int i = 1; i <= 3; i++)
+            outbox.append(libraryEvent(i), RecordTrace.start("request-" + i), "event-" + i);
+
+        List<LibraryEventOutbox.Entry> entries = outbox.peek(2);
+        assertEquals(2, entries.size());
+        assertEquals(1, entries.get(0).getLibraryEvent().getBook().getId());
+        // sent again with the headers of the first attempt
+        assertEquals("event-1", entries.get(0).getEventId());
+        assertEquals("request-1", entries.get(0).getTrace().getTraceId());
+        assertEquals(3, outbox.pending());
+
+        // only the first one made it to Kafka
+        outbox.commit(entries.subList(0, 1));
+
+        entries = outbox.peek(10);
+        assertEquals(2, entries.size());
+        assertEquals(2, entries.get(0).getLibraryEvent().getBook().getId());
+
+        outbox.commit(entries);
+        assertTrue(outbox.isEmpty());
+        assertTrue(outbox.peek(10).isEmpty());
+    }
+
+
+    @Test
+    public void rolloverAndCleanup() throws IOException {
+        // about 4 events per segment
+        LibraryEventOutbox outbox = open(200);
+
+        for (int i = 1; i <= 10; i++)
+            outbox.append(libraryEvent(i), RecordTrace.start("request-" + i), "event-" + i);
+        assertTrue(segmentCount() > 1);
+
+        List<LibraryEventOutbox.Entry> entries = outbox.peek(100);
+        assertEquals(10, entries.size());
+        for (int i = 0; i < 10; i++)
+            assertEquals(i + 1, entries.get(i).getLibraryEvent().getBook().getId());
+
+        outbox.commit(entries);
+        assertEquals(1, segmentCount());
+    }
+
+
+    @Test
+    public void reopen_resumesAfterTheCheckpoint() throws IOException {
+        LibraryEventOutbox outbox = open(200);
+        for (int i = 1; i <= 6; i++)
+            outbox.append(libraryEvent(i), RecordTrace.start("request-" + i), "event-" + i);
+        outbox.commit(outbox.peek(5));
+        outbox.close();
+
+        LibraryEventOutbox reopened = open(200);
+        assertEquals(1, reopened.pending());
+
+        reopened.append(libraryEvent(7), RecordTrace.start("request-7"), "event-7");
+        List<LibraryEventOutbox.Entry> entries = reopened.peek(10);
+        assertEquals(2, entries.size());
+        assertEquals(6, entries.get(0).getLibraryEvent().getBook().getId());
+        assertEquals(7, entries.get(1).getLibraryEvent().getBook().getId());
+    }
+
+
+    @Test
+    public void append_failsOnceFull() throws IOException {
+        // two segments of a few events
+        LibraryEventOutbox outbox = open(200, 400);
+
+        int appended = 0;
+        try {
+            while (appended < 100) {
+                outbox.append(libraryEvent(appended + 1), RecordTrace.start("request"), "event-" + appended);
+                appended++;
+            }
+        } catch (OutboxFullException ex) {
+            // expected
+        }
+        assertTrue(appended >= 2 && appended < 100);
+        assertEquals(appended, outbox.pending());
+
+        // room again once delivered: the last segment is full, the next event goes to a new one
+        outbox.commit(outbox.peek(100));
+        outbox.append(libraryEvent(100), RecordTrace.start("request"), "event-100");
+        assertEquals(1, outbox.pending());
+    }
+
+
+    private LibraryEventOutbox open(int segmentBytes) throws IOException {
+        return open(segmentBytes, Long.MAX_VALUE);
+    }
+
+    private LibraryEventOutbox open(int segmentBytes, long maxBytes) throws IOException {
+        LibraryEventOutbox outbox = new LibraryEventOutbox();
+        ReflectionTestUtils.setField(outbox, "dir", dir.toString());
+        ReflectionTestUtils.setField(outbox, "segmentBytes", segmentBytes);
+        ReflectionTestUtils.setField(outbox, "maxBytes", maxBytes);
+        outbox.open();
+        return outbox;
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(".segment")).count();
+        }
+    }
+
+    private static LibraryEvent libraryEvent(int bookId) {
+        return LibraryEvent.builder()
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(bookId)
+                        .build())
+                .build();
+    }
+
+}
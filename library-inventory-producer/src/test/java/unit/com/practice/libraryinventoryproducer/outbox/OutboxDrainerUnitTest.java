@@ -0,0 +1,103 @@
+package com.practice.libraryinventoryproducer.outbox;
+
+import com.practice.libraryinventoryproducer.model.Book;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import com.practice.libraryinventoryproducer.producer.LibraryEventProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class OutboxDrainerUnitTest {
+
+    @TempDir
+    Path dir;
+
+    @Mock
+    private KafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    @Spy
+    private LibraryEventProducer libraryEventProducer;
+
+    @Spy
+    private LibraryEventOutbox outbox;
+
+    @InjectMocks
+    private OutboxDrainer outboxDrainer;
+
+    // book ids of the records sent, in order
+    private final List<Integer> sent = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ReflectionTestUtils.setField(outbox, "dir", dir.toString());
+        ReflectionTestUtils.setField(outbox, "segmentBytes", 4096);
+        ReflectionTestUtils.setField(outbox, "maxBytes", Long.MAX_VALUE);
+        outbox.open();
+        ReflectionTestUtils.setField(outboxDrainer, "drainBatch", 10);
+        ReflectionTestUtils.setField(outboxDrainer, "sendTimeoutMs", 1000L);
+        when(kafkaTemplate.getDefaultTopic()).thenReturn("library-events");
+    }
+
+
+    @Test
+    public void drain_sendsAgainOnlyTheEventsNotAcknowledged() throws Exception {
+        for (int i = 1; i <= 4; i++)
+            outbox.append(libraryEvent(i), RecordTrace.start("request-" + i), "event-" + i);
+
+        // book 2 fails, the ones after it go through
+        when(kafkaTemplate.send(isA(ProducerRecord.class))).thenAnswer(invocation -> {
+            ProducerRecord<Integer, LibraryEvent> producerRecord = invocation.getArgument(0);
+            int bookId = producerRecord.value().getBook().getId();
+            sent.add(bookId);
+            SettableListenableFuture<SendResult<Integer, LibraryEvent>> future = new SettableListenableFuture<>();
+            if (bookId == 2 && sent.size() == 2)
+                future.setException(new RuntimeException("Exception Calling Kafka"));
+            else
+                future.set(new SendResult<>(producerRecord, null));
+            return future;
+        });
+
+        assertThrows(Exception.class, () -> outboxDrainer.drain());
+        assertEquals(3, outbox.pending());
+
+        assertTrue(outboxDrainer.drain());
+        assertEquals(List.of(1, 2, 3, 4, 2), sent);
+        assertTrue(outbox.isEmpty());
+    }
+
+
+    private static LibraryEvent libraryEvent(int bookId) {
+        return LibraryEvent.builder()
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(bookId)
+                        .build())
+                .build();
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.practice.libraryinventoryproducer.partitioner;
+
+import com.practice.libraryinventoryproducer.model.Book;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BookPartitionerUnitTest {
+
+    private static final String TOPIC = "library-events";
+
+    private final Node node = new Node(0, "localhost", 9092);
+    private final Cluster cluster = new Cluster("cluster", List.of(node),
+            IntStream.range(0, 6).mapToObj(partition -> new PartitionInfo(TOPIC, partition, node, new Node[]{node}, new Node[]{node}))
+                    .collect(Collectors.toList()),
+            Set.of(), Set.of());
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private PartitionLoadStats stats;
+
+    private BookPartitioner partitioner;
+
+    @BeforeEach
+    void setUp() {
+        stats = new PartitionLoadStats();
+        ReflectionTestUtils.setField(stats, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(stats, "hotKeyShare", 0.2);
+        ReflectionTestUtils.setField(stats, "windowMs", 60000L);
+        ReflectionTestUtils.setField(stats, "sketchCapacity", 10);
+        ReflectionTestUtils.setField(stats, "minRecords", 100L);
+        stats.init();
+
+        partitioner = new BookPartitioner();
+        partitioner.configure(Map.of(BookPartitioner.STATS_CONFIG, stats));
+    }
+
+
+    @Test
+    public void sameBook_samePartition() {
+        // NEW has no id, UPDATE has one: the book decides
+        LibraryEvent newEvent = libraryEvent(null, LibraryEvent.Type.NEW, 346);
+        LibraryEvent updateEvent = libraryEvent(12, LibraryEvent.Type.UPDATE, 346);
+
+        int partition = partitioner.partition(TOPIC, null, null, newEvent, null, cluster);
+        for (int i = 0; i < 10; i++)
+            assertEquals(partition, partitioner.partition(TOPIC, 12, new byte[]{0, 0, 0, 12}, updateEvent, null, cluster));
+
+        assertEquals(11, meterRegistry.get("library.producer.partition.records")
+                .tag("partition", String.valueOf(partition)).counter().count());
+    }
+
+
+    @Test
+    public void booksAreSpread() {
+        Set<Integer> partitions = IntStream.range(0, 100)
+                .mapToObj(bookId -> partitioner.partition(TOPIC, null, null, libraryEvent(null, LibraryEvent.Type.NEW, bookId), null, cluster))
+                .collect(Collectors.toSet());
+
+        assertEquals(6, partitions.size());
+    }
+
+
+    @Test
+    public void hotBookIsDetected() {
+        for (int i = 0; i < 1000; i++) {
+            // one record in three is about book 7
+            int bookId = i % 3 == 0 ? 7 : 1000 + i;
+            partitioner.partition(TOPIC, null, null, libraryEvent(null, LibraryEvent.Type.NEW, bookId), null, cluster);
+        }
+
+        assertEquals(List.of(7), stats.hotBooks());
+        assertEquals(1, meterRegistry.get("library.producer.hot.keys").gauge().value());
+    }
+
+
+    @Test
+    public void heavyHitters_errorBound() {
+        HeavyHitters<Integer> sketch = new HeavyHitters<>(5);
+        for (int i = 0; i < 10000; i++)
+            sketch.offer(i % 2 == 0 ? -1 : i);
+
+        List<HeavyHitters.Entry<Integer>> top = sketch.above(0.3);
+        assertEquals(1, top.size());
+        assertEquals(-1, top.get(0).key);
+        assertTrue(top.get(0).guaranteedCount() <= 5000 && top.get(0).count >= 5000);
+    }
+
+
+    @Test
+    public void hotBookIsDetected_concurrentSends() throws InterruptedException {
+        ExecutorService senders = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            int offset = thread * 1000;
+            senders.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    int bookId = i % 3 == 0 ? 7 : 10000 + offset + i;
+                    partitioner.partition(TOPIC, null, null, libraryEvent(null, LibraryEvent.Type.NEW, bookId), null, cluster);
+                }
+            });
+        }
+        senders.shutdown();
+        assertTrue(senders.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(List.of(7), stats.hotBooks());
+    }
+
+
+    @Test
+    public void heavyHitters_evictsTheLeastFrequentKey() {
+        HeavyHitters<String> sketch = new HeavyHitters<>(3);
+        List.of("a", "a", "a", "b", "b", "c").forEach(sketch::offer);
+
+        // c makes room for d, which inherits its count as error, then b for e
+        assertEquals(1, sketch.offer("d"));
+        assertEquals(1, sketch.offer("e"));
+
+        List<HeavyHitters.Entry<String>> entries = sketch.moreThan(0);
+        assertEquals(List.of("a", "e", "d"), entries.stream().map(entry -> entry.key).collect(Collectors.toList()));
+        assertEquals(3, entries.get(1).count);
+        assertEquals(2, entries.get(1).error);
+    }
+
+
+    private static LibraryEvent libraryEvent(Integer id, LibraryEvent.Type type, int bookId) {
+        return LibraryEvent.builder()
+                .id(id)
+                .type(type)
+                .book(Book.builder().id(bookId).name("Master and Commander").author("Patrick O'Brian").build())
+                .build();
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.practice.libraryinventoryproducer.producer;
+
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class AdaptiveBatchingControllerUnitTest {
+
+    @Mock
+    private AdaptiveKafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private AdaptiveBatchingController adaptiveBatchingController;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(adaptiveBatchingController, "intervalMs", 60000L);
+        ReflectionTestUtils.setField(adaptiveBatchingController, "levels", 4);
+        ReflectionTestUtils.setField(adaptiveBatchingController, "minLingerMs", 0);
+        ReflectionTestUtils.setField(adaptiveBatchingController, "maxLingerMs", 30);
+        ReflectionTestUtils.setField(adaptiveBatchingController, "minBatchSize", 16384);
+        ReflectionTestUtils.setField(adaptiveBatchingController, "maxBatchSize", 131072);
+        ReflectionTestUtils.setField(adaptiveBatchingController, "compressionType", "lz4");
+        ReflectionTestUtils.setField(adaptiveBatchingController, "highRecordRate", 1000d);
+        ReflectionTestUtils.setField(adaptiveBatchingController, "lowRecordRate", 100d);
+        ReflectionTestUtils.setField(adaptiveBatchingController, "fillRatio", 0.7);
+        ReflectionTestUtils.setField(adaptiveBatchingController, "cooldownMs", 0L);
+        adaptiveBatchingController.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        adaptiveBatchingController.stop();
+    }
+
+
+    @Test
+    public void levels() {
+        assertEquals(0, adaptiveBatchingController.lingerMs(0));
+        assertEquals(30, adaptiveBatchingController.lingerMs(3));
+        assertEquals(16384, adaptiveBatchingController.batchSize(0));
+        assertEquals(32768, adaptiveBatchingController.batchSize(1));
+        assertEquals(131072, adaptiveBatchingController.batchSize(3));
+        assertEquals("none", adaptiveBatchingController.compression(0));
+        assertEquals("lz4", adaptiveBatchingController.compression(1));
+    }
+
+
+    @Test
+    public void nextLevel() {
+        // busy, full batches
+        assertEquals(1, adaptiveBatchingController.nextLevel(0, 5000, 0.9));
+        // busy, but the batches are not filled: lingering more would not help
+        assertEquals(0, adaptiveBatchingController.nextLevel(0, 5000, 0.2));
+        // between the two rates: unchanged
+        assertEquals(2, adaptiveBatchingController.nextLevel(2, 500, 0.5));
+        // quiet
+        assertEquals(1, adaptiveBatchingController.nextLevel(2, 10, 0.1));
+        // bounds
+        assertEquals(3, adaptiveBatchingController.nextLevel(3, 5000, 0.9));
+        assertEquals(0, adaptiveBatchingController.nextLevel(0, 0, 0));
+    }
+
+
+    @Test
+    public void adjust_appliesTheNextLevel() {
+        Map<MetricName, Metric> metrics = new HashMap<>();
+        metrics.put(metricName("record-send-rate"), metric(5000));
+        metrics.put(metricName("batch-size-avg"), metric(15000));
+        Mockito.<Map<MetricName, ? extends Metric>>when(kafkaTemplate.metrics()).thenReturn(metrics);
+
+        adaptiveBatchingController.adjust();
+
+        assertEquals(1, adaptiveBatchingController.getLevel());
+        // level 0 at start, then level 1
+        verify(kafkaTemplate, times(2)).switchProducer(anyMap());
+        verify(kafkaTemplate).switchProducer(Map.of(
+                ProducerConfig.LINGER_MS_CONFIG, 10,
+                ProducerConfig.BATCH_SIZE_CONFIG, 32768,
+                ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4"));
+        assertEquals(10, meterRegistry.get("library.producer.batching.linger.ms").gauge().value());
+    }
+
+
+    @Test
+    public void adjust_notWithinTheCooldown() {
+        ReflectionTestUtils.setField(adaptiveBatchingController, "cooldownMs", 60000L);
+
+        // the producer of level 0 was just created: its rates are not judged yet
+        adaptiveBatchingController.adjust();
+
+        assertEquals(0, adaptiveBatchingController.getLevel());
+        verify(kafkaTemplate).switchProducer(anyMap());
+        verify(kafkaTemplate, never()).metrics();
+    }
+
+
+    private static MetricName metricName(String name) {
+        return new MetricName(name, "producer-metrics", "", Map.of());
+    }
+
+    private static Metric metric(double value) {
+        Metric metric = Mockito.mock(Metric.class);
+        when(metric.metricValue()).thenReturn(value);
+        return metric;
+    }
+
+}
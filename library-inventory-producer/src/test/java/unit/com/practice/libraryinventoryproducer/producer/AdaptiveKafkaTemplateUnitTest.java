@@ -0,0 +1,66 @@
+package com.practice.libraryinventoryproducer.producer;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveKafkaTemplateUnitTest {
+
+    private final CountDownLatch closing = new CountDownLatch(1);
+
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    // its close lasts until the test lets it go
+    private final DefaultKafkaProducerFactory<String, String> baseFactory = new DefaultKafkaProducerFactory<>(Map.of(
+            ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092",
+            ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+            ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+            ProducerConfig.LINGER_MS_CONFIG, 0)) {
+        @Override
+        public void destroy() {
+            try {
+                closing.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            super.destroy();
+            closed.countDown();
+        }
+    };
+
+    private final AdaptiveKafkaTemplate<String, String> kafkaTemplate = new AdaptiveKafkaTemplate<>(baseFactory);
+
+    @AfterEach
+    void tearDown() {
+        closing.countDown();
+        kafkaTemplate.destroy();
+    }
+
+
+    @Test
+    public void switchProducer_doesNotWaitForTheClose() throws Exception {
+        kafkaTemplate.switchProducer(Map.of(ProducerConfig.LINGER_MS_CONFIG, 10));
+
+        // the previous producer is still closing, the new one is already in use
+        ProducerFactory<String, String> current = kafkaTemplate.getProducerFactory();
+        assertNotSame(baseFactory, current);
+        assertEquals(10, current.getConfigurationProperties().get(ProducerConfig.LINGER_MS_CONFIG));
+        assertEquals("localhost:9092", current.getConfigurationProperties().get(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG));
+        assertEquals(1, closed.getCount());
+
+        closing.countDown();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.practice.libraryinventoryproducer.producer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.practice.libraryinventoryproducer.model.BulkIngestResult;
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class LibraryEventBulkProducerUnitTest {
+
+    @Mock
+    private KafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    @Spy
+    private LibraryEventProducer libraryEventProducer;
+
+    @Spy
+    private ObjectMapper objectMapper;
+
+    @Spy
+    private Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+    @InjectMocks
+    private LibraryEventBulkProducer libraryEventBulkProducer;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(libraryEventBulkProducer, "maxInFlight", 2);
+        ReflectionTestUtils.setField(libraryEventBulkProducer, "maxReportedErrors", 2);
+        ReflectionTestUtils.setField(libraryEventBulkProducer, "drainTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(libraryEventBulkProducer, "maxLineLength", 1000);
+        when(kafkaTemplate.getDefaultTopic()).thenReturn("library-events");
+    }
+
+
+    @Test
+    public void sendLibraryEvents() throws Exception {
+        String ndjson = "{\"book\":{\"id\":1,\"name\":\"Master and Commander\",\"author\":\"Patrick O'Brian\"}}\n"
+                + "\n"
+                + "{\"id\":7,\"type\":\"UPDATE\",\"book\":{\"id\":2,\"name\":\"Post Captain\",\"author\":\"Patrick O'Brian\"}}\n"
+                + "{\"book\":{\"id\":3,\"name\":\"HMS Surprise\",\"author\":\"Patrick O'Brian\"}}";
+
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenAnswer(invocation -> acknowledged());
+
+        BulkIngestResult result = libraryEventBulkProducer.sendLibraryEvents(stream(ndjson), RecordTrace.start("upload-1"));
+
+        assertEquals(4, result.getLines());
+        assertEquals(3, result.getAccepted());
+        assertEquals(0, result.getRejected() + result.getFailed());
+        assertTrue(result.getErrors().isEmpty());
+        verify(kafkaTemplate, times(2)).send(argThat((ProducerRecord<Integer, LibraryEvent> record) -> record.value().getType() == LibraryEvent.Type.NEW));
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sendLibraryEvents_sameHeadersAsTheSingleEvents() throws Exception {
+        String ndjson = "{\"book\":{\"id\":1,\"name\":\"Master and Commander\",\"author\":\"Patrick O'Brian\"}}\n"
+                + "{\"book\":{\"id\":2,\"name\":\"Post Captain\",\"author\":\"Patrick O'Brian\"}}";
+
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenAnswer(invocation -> acknowledged());
+
+        libraryEventBulkProducer.sendLibraryEvents(stream(ndjson), RecordTrace.start("upload-1"));
+
+        ArgumentCaptor<ProducerRecord<Integer, LibraryEvent>> captor = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate, times(2)).send(captor.capture());
+        ProducerRecord<Integer, LibraryEvent> first = captor.getAllValues().get(0);
+        ProducerRecord<Integer, LibraryEvent> second = captor.getAllValues().get(1);
+        assertEquals("library-events", first.topic());
+        assertEquals("upload-1", new String(first.headers().lastHeader(RecordTrace.TRACE_ID_HEADER).value(), StandardCharsets.UTF_8));
+        assertNotNull(first.headers().lastHeader(RecordTrace.INGEST_TIME_HEADER));
+        assertNotNull(first.headers().lastHeader("event-source"));
+        // one event id per record
+        assertNotEquals(new String(first.headers().lastHeader(LibraryEventProducer.EVENT_ID_HEADER).value(), StandardCharsets.UTF_8),
+                new String(second.headers().lastHeader(LibraryEventProducer.EVENT_ID_HEADER).value(), StandardCharsets.UTF_8));
+    }
+
+
+    @Test
+    public void sendLibraryEvents_perLineErrors() throws Exception {
+        String ndjson = "{\"book\":{\"id\":1,\"name\":\"Master and Commander\",\"author\":\"Patrick O'Brian\"}}\n"
+                + "{\"book\":\n"
+                + "{\"book\":{\"id\":2,\"name\":\"\",\"author\":\"Patrick O'Brian\"}}\n"
+                + "{\"type\":\"UPDATE\",\"book\":{\"id\":3,\"name\":\"HMS Surprise\",\"author\":\"Patrick O'Brian\"}}\n";
+
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenAnswer(invocation -> acknowledged());
+
+        BulkIngestResult result = libraryEventBulkProducer.sendLibraryEvents(stream(ndjson), RecordTrace.start("upload-1"));
+
+        assertEquals(4, result.getLines());
+        assertEquals(1, result.getAccepted());
+        assertEquals(3, result.getRejected());
+        assertEquals(2, result.getErrors().size());
+        assertTrue(result.isErrorsTruncated());
+        assertEquals(2, result.getErrors().get(0).getLine());
+        assertTrue(result.getErrors().get(0).getError().startsWith("invalid JSON"));
+        assertEquals(3, result.getErrors().get(1).getLine());
+        assertEquals("book.name: must not be blank", result.getErrors().get(1).getError());
+    }
+
+
+    @Test
+    public void sendLibraryEvents_brokerFailure() throws Exception {
+        String ndjson = "{\"book\":{\"id\":1,\"name\":\"Master and Commander\",\"author\":\"Patrick O'Brian\"}}";
+
+        SettableListenableFuture<SendResult<Integer, LibraryEvent>> future = new SettableListenableFuture<>();
+        future.setException(new RuntimeException("Exception Calling Kafka"));
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(future);
+
+        BulkIngestResult result = libraryEventBulkProducer.sendLibraryEvents(stream(ndjson), RecordTrace.start("upload-1"));
+
+        assertEquals(1, result.getFailed());
+        assertEquals("Exception Calling Kafka", result.getErrors().get(0).getError());
+        assertFalse(result.isErrorsTruncated());
+    }
+
+
+    @Test
+    public void sendLibraryEvents_lineTooLong() throws Exception {
+        ReflectionTestUtils.setField(libraryEventBulkProducer, "maxLineLength", 100);
+        String ndjson = "{\"book\":{\"id\":1,\"name\":\"" + "M".repeat(100) + "\",\"author\":\"Patrick O'Brian\"}}\r\n"
+                + "{\"book\":{\"id\":2,\"name\":\"Post Captain\",\"author\":\"Patrick O'Brian\"}}\r\n";
+
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenAnswer(invocation -> acknowledged());
+
+        BulkIngestResult result = libraryEventBulkProducer.sendLibraryEvents(stream(ndjson), RecordTrace.start("upload-1"));
+
+        assertEquals(2, result.getLines());
+        assertEquals(1, result.getAccepted());
+        assertEquals(1, result.getRejected());
+        assertEquals(1, result.getErrors().get(0).getLine());
+        assertEquals("line longer than 100 characters", result.getErrors().get(0).getError());
+        verify(kafkaTemplate).send(argThat((ProducerRecord<Integer, LibraryEvent> record) -> record.value().getBook().getId() == 2));
+    }
+
+
+    @Test
+    public void sendLibraryEvents_pendingAfterDrainTimeout() throws Exception {
+        ReflectionTestUtils.setField(libraryEventBulkProducer, "drainTimeoutMs", 10L);
+        String ndjson = "{\"book\":{\"id\":1,\"name\":\"Master and Commander\",\"author\":\"Patrick O'Brian\"}}\n"
+                + "{\"book\":{\"id\":2,\"name\":\"Post Captain\",\"author\":\"Patrick O'Brian\"}}";
+
+        // the second record is never acknowledged
+        when(kafkaTemplate.send(any(ProducerRecord.class)))
+                .thenAnswer(invocation -> acknowledged())
+                .thenReturn(new SettableListenableFuture<>());
+
+        BulkIngestResult result = libraryEventBulkProducer.sendLibraryEvents(stream(ndjson), RecordTrace.start("upload-1"));
+
+        assertEquals(1, result.getAccepted());
+        assertEquals(0, result.getFailed());
+        assertEquals(1, result.getPending());
+    }
+
+
+    private static SettableListenableFuture<SendResult<Integer, LibraryEvent>> acknowledged() {
+        SettableListenableFuture<SendResult<Integer, LibraryEvent>> future = new SettableListenableFuture<>();
+        future.set(null);
+        return future;
+    }
+
+    private static ByteArrayInputStream stream(String ndjson) {
+        return new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
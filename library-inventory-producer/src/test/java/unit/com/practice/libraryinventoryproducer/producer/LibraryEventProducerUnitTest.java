@@ -1,33 +1,46 @@
 package com.practice.libraryinventoryproducer.producer;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.practice.libraryinventoryproducer.model.Book;
 import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import com.practice.libraryinventoryproducer.model.RecordTrace;
+import com.practice.libraryinventoryproducer.outbox.LibraryEventOutbox;
+import com.practice.libraryinventoryproducer.outbox.OutboxFullException;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
-import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.system.CapturedOutput;
 import org.springframework.boot.test.system.OutputCaptureExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.SettableListenableFuture;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -40,14 +53,14 @@ import static org.mockito.Mockito.when;
 public class LibraryEventProducerUnitTest {
 
     @Mock
-    private KafkaTemplate<Integer, String> kafkaTemplate;
+    private KafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    @Mock
+    private ProducerLoadMonitor producerLoadMonitor;
 
     @InjectMocks
     private LibraryEventProducer libraryEventProducer;
 
-    @Spy
-    private ObjectMapper objectMapper;
-
 
     // Positive test lambda method
     @Test
@@ -63,17 +76,17 @@ public class LibraryEventProducerUnitTest {
                 .build();
 
         // create SendResult object
-        String record = objectMapper.writeValueAsString(libraryEvent);
-        ProducerRecord<Integer, String> producerRecord = new ProducerRecord<>("library-events", libraryEvent.getId(), record );
+        ProducerRecord<Integer, LibraryEvent> producerRecord = new ProducerRecord<>("library-events", libraryEvent.getId(), libraryEvent);
         RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("library-events", 1),
                 1,1,342,System.currentTimeMillis(), 1, 2);
-        SendResult<Integer, String> sendResult = new SendResult<Integer, String>(producerRecord,recordMetadata);
+        SendResult<Integer, LibraryEvent> sendResult = new SendResult<Integer, LibraryEvent>(producerRecord,recordMetadata);
 
         // create ListenableFuture with SendResult
         SettableListenableFuture future = new SettableListenableFuture();
         future.set(sendResult);
 
-        when(kafkaTemplate.sendDefault(any(), any())).thenReturn(future);
+        when(kafkaTemplate.getDefaultTopic()).thenReturn("library-events");
+        when(kafkaTemplate.send(isA(ProducerRecord.class))).thenReturn(future);
 
         libraryEventProducer.sendLibraryEvent(libraryEvent);
 
@@ -95,21 +108,19 @@ public class LibraryEventProducerUnitTest {
                         .build())
                 .build();
 
-        String record = objectMapper.writeValueAsString(libraryEvent);
-
-        ProducerRecord<Integer, String> producerRecord = new ProducerRecord<>("library-events", libraryEvent.getId(), record );
+        ProducerRecord<Integer, LibraryEvent> producerRecord = new ProducerRecord<>("library-events", libraryEvent.getId(), libraryEvent);
         RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("library-events", 1),
                 1,1,342,System.currentTimeMillis(), 1, 2);
-        SendResult<Integer, String> sendResult = new SendResult<Integer, String>(producerRecord,recordMetadata);
+        SendResult<Integer, LibraryEvent> sendResult = new SendResult<Integer, LibraryEvent>(producerRecord,recordMetadata);
 
         SettableListenableFuture future = new SettableListenableFuture();
         future.set(sendResult);
 
         when(kafkaTemplate.send(isA(ProducerRecord.class))).thenReturn(future);
 
-        ListenableFuture<SendResult<Integer,String>> listenableFuture = libraryEventProducer.sendLibraryEventsWithHeaders_usingProducerRecord(libraryEvent);
+        ListenableFuture<SendResult<Integer,LibraryEvent>> listenableFuture = libraryEventProducer.sendLibraryEventsWithHeaders_usingProducerRecord(libraryEvent);
 
-        SendResult<Integer,String> sendResultResponse = listenableFuture.get();
+        SendResult<Integer,LibraryEvent> sendResultResponse = listenableFuture.get();
         assertEquals(1, sendResultResponse.getRecordMetadata().partition());
 
         // verify method handleSuccess has been invoked by verifying if log is printed
@@ -130,14 +141,23 @@ public class LibraryEventProducerUnitTest {
                         .build())
                 .build();
 
+        LibraryEventOutbox outbox = Mockito.mock(LibraryEventOutbox.class);
+        ReflectionTestUtils.setField(libraryEventProducer, "outbox", outbox);
+
         SettableListenableFuture future = new SettableListenableFuture();
         future.setException(new RuntimeException("Exception Calling Kafka"));
-        when(kafkaTemplate.sendDefault(any(), any())).thenReturn(future);
+        when(kafkaTemplate.getDefaultTopic()).thenReturn("library-events");
+        when(kafkaTemplate.send(isA(ProducerRecord.class))).thenReturn(future);
 
         libraryEventProducer.sendLibraryEvent(libraryEvent);
 
         // verify method handleFailure has been invoked by verifying if log is printed
         assertThat(logs.getOut()).contains("Error sending LibraryEvent;");
+        // stored with the event id of the failed record, which may still be written
+        ArgumentCaptor<ProducerRecord<Integer, LibraryEvent>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(sent.capture());
+        verify(outbox).append(eq(libraryEvent), any(),
+                eq(new String(sent.getValue().headers().lastHeader(LibraryEventProducer.EVENT_ID_HEADER).value(), StandardCharsets.UTF_8)));
     }
 
 
@@ -164,4 +184,175 @@ public class LibraryEventProducerUnitTest {
     }
 
 
+    // Async produce completed by the broker's ack
+    @Test
+    public void sendLibraryEventAsync(CapturedOutput logs) throws ExecutionException, InterruptedException {
+        ReflectionTestUtils.setField(libraryEventProducer, "sendTimeoutMs", 3000L);
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(null)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+
+        ProducerRecord<Integer, LibraryEvent> producerRecord = new ProducerRecord<>("library-events", libraryEvent.getId(), libraryEvent);
+        RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("library-events", 1),
+                1,1,342,System.currentTimeMillis(), 1, 2);
+        SettableListenableFuture<SendResult<Integer, LibraryEvent>> future = new SettableListenableFuture<>();
+        when(kafkaTemplate.getDefaultTopic()).thenReturn("library-events");
+        when(kafkaTemplate.send(isA(ProducerRecord.class))).thenReturn(future);
+
+        CompletableFuture<SendResult<Integer, LibraryEvent>> completableFuture = libraryEventProducer.sendLibraryEventAsync(libraryEvent);
+        assertThat(completableFuture).isNotDone();
+
+        future.set(new SendResult<>(producerRecord, recordMetadata));
+
+        assertEquals(1, completableFuture.get().getRecordMetadata().partition());
+        assertThat(logs.getOut()).contains("Message LibraryEvent sent successfully");
+    }
+
+
+    // Async produce not acked in time
+    @Test
+    public void sendLibraryEventAsync_timeout(CapturedOutput logs) {
+        ReflectionTestUtils.setField(libraryEventProducer, "sendTimeoutMs", 50L);
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(null)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+
+        when(kafkaTemplate.getDefaultTopic()).thenReturn("library-events");
+        when(kafkaTemplate.send(isA(ProducerRecord.class))).thenReturn(new SettableListenableFuture<>());
+
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> libraryEventProducer.sendLibraryEventAsync(libraryEvent).get());
+
+        assertThat(ex.getCause()).isInstanceOf(TimeoutException.class);
+        assertThat(logs.getOut()).contains("Error sending LibraryEvent;");
+    }
+
+
+    // Async produce with the producer's buffer full and no outbox: fails without waiting for buffer space
+    @Test
+    public void sendLibraryEventAsync_bufferFull() {
+        ReflectionTestUtils.setField(libraryEventProducer, "minBufferAvailableBytes", 1048576L);
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(null)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+
+        when(producerLoadMonitor.bufferAvailableBytes()).thenReturn(1024d);
+
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> libraryEventProducer.sendLibraryEventAsync(libraryEvent).get());
+
+        assertThat(ex.getCause()).isInstanceOf(org.apache.kafka.common.errors.TimeoutException.class);
+        verify(kafkaTemplate, never()).send(isA(ProducerRecord.class));
+    }
+
+
+    // Async produce falling back to the outbox
+    @Test
+    public void sendLibraryEventAsync_outbox() throws ExecutionException, InterruptedException {
+        ReflectionTestUtils.setField(libraryEventProducer, "sendTimeoutMs", 3000L);
+        LibraryEventOutbox outbox = Mockito.mock(LibraryEventOutbox.class);
+        ReflectionTestUtils.setField(libraryEventProducer, "outbox", outbox);
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(null)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+
+        // the broker does not answer
+        when(outbox.isEmpty()).thenReturn(true);
+        when(producerLoadMonitor.bufferAvailableBytes()).thenReturn(Double.MAX_VALUE);
+        SettableListenableFuture<SendResult<Integer, LibraryEvent>> future = new SettableListenableFuture<>();
+        future.setException(new RuntimeException("Exception Calling Kafka"));
+        when(kafkaTemplate.getDefaultTopic()).thenReturn("library-events");
+        when(kafkaTemplate.send(isA(ProducerRecord.class))).thenReturn(future);
+
+        RecordTrace trace = RecordTrace.start("request-1");
+        assertNull(libraryEventProducer.sendLibraryEventAsync(libraryEvent, trace).get());
+        // stored with the event id of the failed record, which may still be written
+        ArgumentCaptor<ProducerRecord<Integer, LibraryEvent>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(sent.capture());
+        verify(outbox).append(libraryEvent, trace,
+                new String(sent.getValue().headers().lastHeader(LibraryEventProducer.EVENT_ID_HEADER).value(), StandardCharsets.UTF_8));
+
+        // the outbox is not empty: the next event queues behind the previous one
+        when(outbox.isEmpty()).thenReturn(false);
+        Mockito.clearInvocations(kafkaTemplate);
+
+        assertNull(libraryEventProducer.sendLibraryEventAsync(libraryEvent).get());
+        verify(kafkaTemplate, never()).send(isA(ProducerRecord.class));
+
+        // and full: the caller is told
+        doThrow(new OutboxFullException("Outbox full")).when(outbox).append(any(), any(), any());
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> libraryEventProducer.sendLibraryEventAsync(libraryEvent).get());
+        assertThat(ex.getCause()).isInstanceOf(OutboxFullException.class);
+    }
+
+
+    // The trace headers read by the consumer, see RecordTrace
+    @Test
+    public void buildProducerRecord_traceHeaders() {
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(null)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+        RecordTrace trace = RecordTrace.start("request-1");
+
+        ProducerRecord<Integer, LibraryEvent> producerRecord = libraryEventProducer.buildProducerRecord(null, libraryEvent, "library-events", trace);
+
+        assertEquals("scanner", new String(producerRecord.headers().lastHeader("event-source").value(), StandardCharsets.UTF_8));
+        assertEquals("request-1", new String(producerRecord.headers().lastHeader(RecordTrace.TRACE_ID_HEADER).value(), StandardCharsets.UTF_8));
+        long ingestTime = ByteBuffer.wrap(producerRecord.headers().lastHeader(RecordTrace.INGEST_TIME_HEADER).value()).getLong();
+        long sendTime = ByteBuffer.wrap(producerRecord.headers().lastHeader(RecordTrace.SEND_TIME_HEADER).value()).getLong();
+        assertEquals(trace.getIngestTimeMicros(), ingestTime);
+        assertThat(sendTime).isGreaterThanOrEqualTo(ingestTime);
+    }
+
+    // The id the consumer deduplicates redelivered records on: one per record built
+    @Test
+    public void buildProducerRecord_eventId() {
+        LibraryEvent libraryEvent = LibraryEvent.builder()
+                .id(null)
+                .type(LibraryEvent.Type.NEW)
+                .book(Book.builder()
+                        .author("Patrick O'Brian")
+                        .name("Master and Commander")
+                        .id(346)
+                        .build())
+                .build();
+
+        ProducerRecord<Integer, LibraryEvent> first = libraryEventProducer.buildProducerRecord(null, libraryEvent, "library-events", RecordTrace.start(null));
+        ProducerRecord<Integer, LibraryEvent> second = libraryEventProducer.buildProducerRecord(null, libraryEvent, "library-events");
+
+        assertNotNull(first.headers().lastHeader(LibraryEventProducer.EVENT_ID_HEADER));
+        assertNotEquals(new String(first.headers().lastHeader(LibraryEventProducer.EVENT_ID_HEADER).value(), StandardCharsets.UTF_8),
+                new String(second.headers().lastHeader(LibraryEventProducer.EVENT_ID_HEADER).value(), StandardCharsets.UTF_8));
+    }
+
 }
@@ -0,0 +1,98 @@
+package com.practice.libraryinventoryproducer.producer;
+
+import com.practice.libraryinventoryproducer.model.LibraryEvent;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ProducerLoadMonitorUnitTest {
+
+    @Mock
+    private KafkaTemplate<Integer, LibraryEvent> kafkaTemplate;
+
+    @Mock
+    private ProducerFactory<Object, Object> producerFactory;
+
+    @InjectMocks
+    private ProducerLoadMonitor producerLoadMonitor;
+
+    private ProducerFactory.Listener<Object, Object> listener;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ReflectionTestUtils.setField(producerLoadMonitor, "minBufferAvailableRatio", 0.2);
+        ReflectionTestUtils.setField(producerLoadMonitor, "maxRecordQueueTimeMs", 500d);
+        producerLoadMonitor.init();
+
+        ArgumentCaptor<ProducerFactory.Listener<Object, Object>> captor = ArgumentCaptor.forClass(ProducerFactory.Listener.class);
+        verify(producerFactory).addListener(captor.capture());
+        listener = captor.getValue();
+    }
+
+
+    @Test
+    public void isOverloaded_readsTheMetricsOfTheCurrentProducer() {
+        Map<MetricName, Metric> slow = metrics(30000, 32768, 900);
+        Map<MetricName, Metric> fast = metrics(30000, 32768, 5);
+        Mockito.<Map<MetricName, ? extends Metric>>when(kafkaTemplate.metrics()).thenReturn(slow);
+        assertTrue(producerLoadMonitor.isOverloaded());
+
+        // a new producer, e.g. once the adaptive batching switched producers: the closed one's metrics are dropped
+        Mockito.<Map<MetricName, ? extends Metric>>when(kafkaTemplate.metrics()).thenReturn(fast);
+        assertTrue(producerLoadMonitor.isOverloaded());
+        listener.producerRemoved("producer-1", null);
+        assertFalse(producerLoadMonitor.isOverloaded());
+    }
+
+
+    @Test
+    public void isOverloaded_readsTheMetricsOfTheCurrentFactory() {
+        Map<MetricName, Metric> slow = metrics(30000, 32768, 900);
+        Map<MetricName, Metric> fast = metrics(30000, 32768, 5);
+        Mockito.<Map<MetricName, ? extends Metric>>when(kafkaTemplate.metrics()).thenReturn(slow);
+        assertTrue(producerLoadMonitor.isOverloaded());
+
+        // the adaptive batching swapped in a new factory, hence a new producer
+        when(kafkaTemplate.getProducerFactory()).thenReturn(Mockito.mock(ProducerFactory.class));
+        Mockito.<Map<MetricName, ? extends Metric>>when(kafkaTemplate.metrics()).thenReturn(fast);
+        assertFalse(producerLoadMonitor.isOverloaded());
+    }
+
+
+    private static Map<MetricName, Metric> metrics(double bufferAvailableBytes, double bufferTotalBytes, double recordQueueTimeAvg) {
+        return Map.of(
+                metricName("buffer-available-bytes"), metric(bufferAvailableBytes),
+                metricName("buffer-total-bytes"), metric(bufferTotalBytes),
+                metricName("record-queue-time-avg"), metric(recordQueueTimeAvg));
+    }
+
+    private static MetricName metricName(String name) {
+        return new MetricName(name, "producer-metrics", "", Map.of());
+    }
+
+    private static Metric metric(double value) {
+        Metric metric = Mockito.mock(Metric.class);
+        when(metric.metricValue()).thenReturn(value);
+        return metric;
+    }
+
+}